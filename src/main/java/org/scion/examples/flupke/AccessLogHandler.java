@@ -0,0 +1,49 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.flupke;
+
+import java.io.IOException;
+import net.luminis.http3.server.HttpRequestHandler;
+import net.luminis.http3.server.HttpServerRequest;
+import net.luminis.http3.server.HttpServerResponse;
+import org.scion.examples.log.AccessLog;
+
+/** Writes an {@link AccessLog} entry for every request handled by the next handler. */
+public class AccessLogHandler implements HttpRequestHandler {
+
+  private final HttpRequestHandler next;
+  private final AccessLog accessLog;
+
+  public AccessLogHandler(HttpRequestHandler next, AccessLog accessLog) {
+    this.next = next;
+    this.accessLog = accessLog;
+  }
+
+  @Override
+  public void handleRequest(HttpServerRequest request, HttpServerResponse response)
+      throws IOException {
+    try {
+      next.handleRequest(request, response);
+    } finally {
+      accessLog.log(
+          request.clientAddress(),
+          request.time(),
+          request.method(),
+          request.path(),
+          response.status(),
+          response.size());
+    }
+  }
+}
@@ -0,0 +1,303 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.flupke;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import net.luminis.quic.QuicClientConnection;
+import net.luminis.quic.QuicStream;
+import net.luminis.quic.log.SysOutLogger;
+import org.scion.jpan.Constants;
+import org.scion.jpan.ScionDatagramSocket;
+
+/**
+ * Non-blocking variant of {@link SimpleEchoClient}. Every call to {@link #echo(ByteBuffer)} returns
+ * immediately with a future that completes when the full echo has been received.
+ *
+ * <p>Requests are written in order by a single writer thread, so they are pipelined on the
+ * connection. Responses are collected by a small group of poller threads that only read what
+ * {@link InputStream#available()} reports, so no thread ever blocks on a single stream. The echo
+ * protocol returns exactly the request, which tells us when a response is complete.
+ *
+ * <p>Note that the number of concurrently open streams is still limited by the server's
+ * maxOpenPeerInitiatedBidirectionalStreams setting; stream creation waits until the server allows
+ * more streams.
+ */
+public class AsyncEchoClient implements Closeable {
+
+  private static final long MIN_PARK_NS = 20_000;
+  private static final long MAX_PARK_NS = 1_000_000;
+
+  private final QuicClientConnection connection;
+  private final Duration timeout;
+  private final ExecutorService writer;
+  private final Poller[] pollers;
+  private final AtomicInteger nextPoller = new AtomicInteger();
+  private volatile boolean closed = false;
+
+  public static void main(String[] args) throws Exception {
+    args = new String[] {"4443", "1000"};
+
+    System.setProperty(Constants.PROPERTY_DAEMON, "127.0.0.29:30255");
+
+    int serverPort = Integer.parseInt(args[0]);
+    int requests = Integer.parseInt(args[1]);
+
+    QuicClientConnection connection =
+        QuicClientConnection.newBuilder()
+            .uri(URI.create("echo://127.0.0.11:" + serverPort))
+            .applicationProtocol("echo")
+            .logger(new SysOutLogger())
+            .noServerCertificateCheck()
+            .socketFactory(ignored -> new ScionDatagramSocket())
+            .build();
+    connection.connect();
+
+    try (AsyncEchoClient client = new AsyncEchoClient(connection, 2, Duration.ofSeconds(10))) {
+      long start = System.nanoTime();
+      List<CompletableFuture<ByteBuffer>> futures = new ArrayList<>(requests);
+      for (int i = 0; i < requests; i++) {
+        byte[] payload = ("echo request #" + i).getBytes(StandardCharsets.US_ASCII);
+        futures.add(client.echo(ByteBuffer.wrap(payload)));
+      }
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+      long durationNs = System.nanoTime() - start;
+      System.out.println(
+          "Completed " + requests + " echo requests in " + durationNs / 1_000_000 + " ms");
+      ByteBuffer last = futures.get(requests - 1).join();
+      System.out.println(
+          "Last response: "
+              + new String(last.array(), 0, last.remaining(), StandardCharsets.US_ASCII));
+    }
+    connection.closeAndWait();
+  }
+
+  /**
+   * @param connection an established connection to an echo server
+   * @param ioThreads number of threads that collect responses
+   * @param timeout maximum time to wait for a response after the request was written
+   */
+  public AsyncEchoClient(QuicClientConnection connection, int ioThreads, Duration timeout) {
+    this.connection = connection;
+    this.timeout = timeout;
+    this.writer =
+        Executors.newSingleThreadExecutor(
+            r -> {
+              Thread t = new Thread(r, "echo-writer");
+              t.setDaemon(true);
+              return t;
+            });
+    this.pollers = new Poller[ioThreads];
+    for (int i = 0; i < ioThreads; i++) {
+      pollers[i] = new Poller();
+      Thread t = new Thread(pollers[i], "echo-poller-" + i);
+      t.setDaemon(true);
+      pollers[i].thread = t;
+      t.start();
+    }
+  }
+
+  /**
+   * Send an echo request on a new stream.
+   *
+   * @param request the payload, from position to limit. The buffer must not be modified until the
+   *     returned future completes.
+   * @return a future that completes with the echoed data
+   */
+  public CompletableFuture<ByteBuffer> echo(ByteBuffer request) {
+    CompletableFuture<ByteBuffer> result = new CompletableFuture<>();
+    if (closed) {
+      result.completeExceptionally(new IOException("Client is closed"));
+      return result;
+    }
+    try {
+      writer.execute(new WriteTask(request, result));
+    } catch (RejectedExecutionException e) {
+      result.completeExceptionally(new IOException("Client is closed"));
+    }
+    return result;
+  }
+
+  private class WriteTask implements Runnable {
+    private final ByteBuffer request;
+    private final CompletableFuture<ByteBuffer> result;
+
+    WriteTask(ByteBuffer request, CompletableFuture<ByteBuffer> result) {
+      this.request = request;
+      this.result = result;
+    }
+
+    @Override
+    public void run() {
+      send(request, result);
+    }
+  }
+
+  private void send(ByteBuffer request, CompletableFuture<ByteBuffer> result) {
+    int length = request.remaining();
+    try {
+      QuicStream stream = connection.createStream(true);
+      OutputStream out = stream.getOutputStream();
+      if (request.hasArray()) {
+        out.write(request.array(), request.arrayOffset() + request.position(), length);
+      } else {
+        byte[] bytes = new byte[length];
+        request.duplicate().get(bytes);
+        out.write(bytes);
+      }
+      out.close();
+      long deadline = System.nanoTime() + timeout.toNanos();
+      Poller poller = pollers[Math.floorMod(nextPoller.getAndIncrement(), pollers.length)];
+      poller.add(new PendingResponse(stream.getInputStream(), length, deadline, result));
+    } catch (IOException | RuntimeException e) {
+      // E.g. interrupted by close()
+      result.completeExceptionally(e);
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    // Requests that have not been written yet fail, responses that are still pending fail when
+    // their poller stops (or in Poller.add() if they arrive later).
+    for (Runnable task : writer.shutdownNow()) {
+      ((WriteTask) task).result.completeExceptionally(new IOException("Client is closed"));
+    }
+    for (Poller poller : pollers) {
+      poller.thread.interrupt();
+    }
+  }
+
+  private static class PendingResponse {
+    private final InputStream in;
+    private final ByteBuffer buffer;
+    private final long deadline;
+    private final CompletableFuture<ByteBuffer> result;
+
+    PendingResponse(
+        InputStream in, int length, long deadline, CompletableFuture<ByteBuffer> result) {
+      this.in = in;
+      this.buffer = ByteBuffer.allocate(length);
+      this.deadline = deadline;
+      this.result = result;
+    }
+
+    /**
+     * @return 'true' if this response is done, either completed or failed.
+     */
+    boolean poll(long now) {
+      try {
+        // kwik has no non-blocking end-of-stream check: read() blocks unless data is available or
+        // the stream has ended. So we only read what is available, and a stream that ends early
+        // is detected by the first read() that returns -1 instead of data.
+        int available = in.available();
+        if (available > 0) {
+          int len = Math.min(available, buffer.remaining());
+          int read = in.read(buffer.array(), buffer.position(), len);
+          if (read < 0) {
+            result.completeExceptionally(
+                new IOException("Stream closed after " + buffer.position() + " bytes"));
+            return true;
+          }
+          buffer.position(buffer.position() + read);
+        }
+        if (!buffer.hasRemaining()) {
+          buffer.flip();
+          result.complete(buffer);
+          return true;
+        }
+      } catch (IOException e) {
+        result.completeExceptionally(e);
+        return true;
+      }
+      if (now - deadline > 0) {
+        result.completeExceptionally(new TimeoutException("No echo response received"));
+        return true;
+      }
+      return false;
+    }
+  }
+
+  private class Poller implements Runnable {
+    private final Queue<PendingResponse> incoming = new ConcurrentLinkedQueue<>();
+    private final List<PendingResponse> active = new ArrayList<>();
+    private Thread thread;
+
+    void add(PendingResponse pending) {
+      incoming.add(pending);
+      if (closed) {
+        // The poller may already have stopped
+        failIncoming();
+      } else {
+        LockSupport.unpark(thread);
+      }
+    }
+
+    private void failIncoming() {
+      PendingResponse p;
+      while ((p = incoming.poll()) != null) {
+        p.result.completeExceptionally(new IOException("Client is closed"));
+      }
+    }
+
+    @Override
+    public void run() {
+      long parkNs = MIN_PARK_NS;
+      while (!Thread.currentThread().isInterrupted()) {
+        PendingResponse p;
+        while ((p = incoming.poll()) != null) {
+          active.add(p);
+        }
+        long now = System.nanoTime();
+        int before = active.size();
+        for (Iterator<PendingResponse> it = active.iterator(); it.hasNext(); ) {
+          if (it.next().poll(now)) {
+            it.remove();
+          }
+        }
+        if (active.size() < before) {
+          parkNs = MIN_PARK_NS;
+        } else {
+          // Nothing completed, back off a bit.
+          LockSupport.parkNanos(parkNs);
+          parkNs = Math.min(parkNs * 2, MAX_PARK_NS);
+        }
+      }
+      failIncoming();
+      for (PendingResponse pending : active) {
+        pending.result.completeExceptionally(new IOException("Client is closed"));
+      }
+      active.clear();
+    }
+  }
+}
@@ -0,0 +1,218 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.flupke;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * Body subscriber that streams the response body to a file (or discards it) while it arrives. The
+ * body buffers are written to the file as they are delivered and one buffer list is requested at a
+ * time, so memory use doesn't depend on the size of the response.
+ *
+ * <p>Records the exact number of body bytes, time to headers, time to first byte and the total
+ * duration, all in nanoseconds relative to the start of the request. The first {@link
+ * #PREVIEW_SIZE} bytes are kept for display.
+ */
+public class DownloadSubscriber implements HttpResponse.BodySubscriber<DownloadSubscriber.Result> {
+
+  public static final int PREVIEW_SIZE = 10 * 1024;
+
+  /** Size and timing of a downloaded body. */
+  public static class Result {
+    private final Path file;
+    private final long bytes;
+    private final long headersNanos;
+    private final long firstByteNanos;
+    private final long durationNanos;
+    private final byte[] preview;
+    private final int previewLength;
+
+    Result(
+        Path file,
+        long bytes,
+        long headersNanos,
+        long firstByteNanos,
+        long durationNanos,
+        byte[] preview,
+        int previewLength) {
+      this.file = file;
+      this.bytes = bytes;
+      this.headersNanos = headersNanos;
+      this.firstByteNanos = firstByteNanos;
+      this.durationNanos = durationNanos;
+      this.preview = preview;
+      this.previewLength = previewLength;
+    }
+
+    /**
+     * @return the file the body was written to or 'null' if the body was discarded.
+     */
+    public Path getFile() {
+      return file;
+    }
+
+    public long getBytes() {
+      return bytes;
+    }
+
+    public long getTimeToHeadersNanos() {
+      return headersNanos;
+    }
+
+    /**
+     * @return time to the first body byte or -1 if the body was empty.
+     */
+    public long getTimeToFirstByteNanos() {
+      return firstByteNanos;
+    }
+
+    public long getDurationNanos() {
+      return durationNanos;
+    }
+
+    /**
+     * Throughput of the download, measured over the whole duration of the request. Measuring from
+     * the first body byte would leave out the round trip and overstate the rate of short bodies.
+     */
+    public double getThroughputMbps() {
+      return durationNanos <= 0 ? 0 : bytes * 8 * 1000.0 / durationNanos;
+    }
+
+    /**
+     * @return the complete body as text if it is not larger than {@link #PREVIEW_SIZE}, otherwise
+     *     'null'.
+     */
+    public String getBodyIfSmall() {
+      if (bytes > previewLength) {
+        return null;
+      }
+      return new String(preview, 0, previewLength, StandardCharsets.UTF_8);
+    }
+  }
+
+  private final CompletableFuture<Result> result = new CompletableFuture<>();
+  private final long startNanos;
+  private final long headersNanos;
+  private final Path file;
+  private FileChannel channel;
+  private final byte[] preview = new byte[PREVIEW_SIZE];
+  private int previewLength = 0;
+  private long bytes = 0;
+  private long firstByteNanos = -1;
+  private Flow.Subscription subscription;
+
+  /**
+   * @param file the file to write the body to, 'null' to discard the body
+   * @param startNanos System.nanoTime() when the request was sent
+   */
+  public DownloadSubscriber(Path file, long startNanos) {
+    this.startNanos = startNanos;
+    this.headersNanos = System.nanoTime() - startNanos;
+    this.file = file;
+  }
+
+  /**
+   * @param file the file to write the body to, 'null' to discard the body
+   * @param startNanos System.nanoTime() when the request was sent
+   * @return a body handler that creates a DownloadSubscriber when the headers arrive
+   */
+  public static HttpResponse.BodyHandler<Result> handler(Path file, long startNanos) {
+    return info -> new DownloadSubscriber(file, startNanos);
+  }
+
+  @Override
+  public CompletionStage<Result> getBody() {
+    return result;
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    this.subscription = subscription;
+    if (file != null) {
+      try {
+        channel =
+            FileChannel.open(
+                file,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+      } catch (IOException e) {
+        subscription.cancel();
+        result.completeExceptionally(e);
+        return;
+      }
+    }
+    subscription.request(1);
+  }
+
+  @Override
+  public void onNext(List<ByteBuffer> buffers) {
+    if (firstByteNanos < 0) {
+      firstByteNanos = System.nanoTime() - startNanos;
+    }
+    try {
+      for (ByteBuffer buffer : buffers) {
+        bytes += buffer.remaining();
+        if (previewLength < preview.length) {
+          int n = Math.min(preview.length - previewLength, buffer.remaining());
+          buffer.duplicate().get(preview, previewLength, n);
+          previewLength += n;
+        }
+        while (channel != null && buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      }
+      subscription.request(1);
+    } catch (IOException e) {
+      subscription.cancel();
+      onError(e);
+    }
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    close();
+    result.completeExceptionally(throwable);
+  }
+
+  @Override
+  public void onComplete() {
+    long durationNanos = System.nanoTime() - startNanos;
+    close();
+    result.complete(
+        new Result(
+            file, bytes, headersNanos, firstByteNanos, durationNanos, preview, previewLength));
+  }
+
+  private void close() {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+}
@@ -0,0 +1,227 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.flupke;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import net.luminis.quic.QuicClientConnection;
+import net.luminis.quic.QuicStream;
+import net.luminis.quic.log.SysOutLogger;
+import org.scion.examples.framing.FrameDecoder;
+import org.scion.examples.framing.FramedStream;
+import org.scion.examples.kwik.BufferPool;
+import org.scion.examples.message.MessageChannel;
+import org.scion.examples.metrics.Histogram;
+import org.scion.jpan.Constants;
+import org.scion.jpan.ScionDatagramSocket;
+
+/**
+ * Compares the round trip time of small echo messages sent at a fixed rate, using the three
+ * protocols of {@link EchoServer}:
+ *
+ * <ul>
+ *   <li>stream: one bidirectional stream per message ("echo", via {@link AsyncEchoClient})
+ *   <li>framed: all messages on one bidirectional stream ("echo-framed"). A lost packet delays
+ *       all later messages until it has been retransmitted.
+ *   <li>message: {@link MessageChannel} ("echo-message"), batches on short unidirectional streams
+ * </ul>
+ *
+ * <p>Run it against an EchoServer in a {@link org.scion.examples.sim.LoopbackNetwork} with loss,
+ * e.g. "LoopbackNetwork 1 10 0 0.02" for 10 ms one-way latency and 2% loss. Messages without an
+ * echo within the timeout are reported as lost.
+ *
+ * <p>Arguments: [server port [, messages/s [, seconds [, message size]]]]. The message size is at
+ * most EchoServer.MAX_MESSAGE_SIZE.
+ */
+public class EchoLatencyBenchmark {
+
+  private static final String SERVER = "127.0.0.11";
+  private static final Duration TIMEOUT = Duration.ofSeconds(2);
+  private static final int HEADER = 16; // sequence number, send time
+
+  private final int port;
+  private final int rate;
+  private final int seconds;
+  private final int size;
+
+  public static void main(String[] args) throws Exception {
+    System.setProperty(Constants.PROPERTY_DAEMON, "127.0.0.29:30255");
+
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 4443;
+    int rate = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    int size = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+    // The server's "echo-message" rejects larger messages.
+    size = Math.min(Math.max(HEADER, size), EchoServer.MAX_MESSAGE_SIZE);
+
+    EchoLatencyBenchmark benchmark = new EchoLatencyBenchmark(port, rate, seconds, size);
+    System.out.printf("%d messages/s of %d bytes for %d s per mode%n", rate, size, seconds);
+    benchmark.runStream().print();
+    benchmark.runFramed().print();
+    benchmark.runMessage().print();
+  }
+
+  EchoLatencyBenchmark(int port, int rate, int seconds, int size) {
+    this.port = port;
+    this.rate = rate;
+    this.seconds = seconds;
+    this.size = size;
+  }
+
+  private static class Result {
+    final String mode;
+    final Histogram rtt;
+    final LongAdder sent = new LongAdder();
+    final LongAdder received = new LongAdder();
+    long durationNanos;
+    String details = "";
+
+    Result(String mode) {
+      this.mode = mode;
+      this.rtt = new Histogram(mode + " rtt [us]");
+    }
+
+    /** Record the echo of a message. */
+    void echoed(ByteBuffer message) {
+      long sentNanos = message.getLong(message.position() + 8);
+      long micros = (System.nanoTime() - sentNanos) / 1000;
+      if (micros <= TIMEOUT.toNanos() / 1000) {
+        rtt.record(micros);
+        received.increment();
+      }
+    }
+
+    void print() {
+      double secs = durationNanos / 1e9;
+      long lost = sent.sum() - received.sum();
+      System.out.printf(
+          "%-8s sent %.0f/s, received %.0f/s, lost %d (%.2f%%)%n  %s%n",
+          mode,
+          sent.sum() / secs,
+          received.sum() / secs,
+          lost,
+          sent.sum() == 0 ? 0.0 : 100.0 * lost / sent.sum(),
+          rtt);
+      if (!details.isEmpty()) {
+        System.out.println("  " + details);
+      }
+    }
+  }
+
+  private interface Sender {
+    void send(ByteBuffer message) throws IOException;
+  }
+
+  /** Send messages at the configured rate, then wait for late echoes. */
+  private void run(Result result, Sender sender) throws IOException {
+    long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+    long count = (long) rate * seconds;
+    ByteBuffer message = ByteBuffer.allocate(size);
+    long start = System.nanoTime();
+    for (long i = 0; i < count; i++) {
+      long wait = start + i * interval - System.nanoTime();
+      if (wait > 0) {
+        LockSupport.parkNanos(wait);
+      }
+      message.clear();
+      message.putLong(0, i);
+      message.putLong(8, System.nanoTime());
+      sender.send(message);
+      result.sent.increment();
+    }
+    LockSupport.parkNanos(TIMEOUT.toNanos());
+    result.durationNanos = System.nanoTime() - start - TIMEOUT.toNanos();
+  }
+
+  private QuicClientConnection.Builder connection(String protocol) {
+    return QuicClientConnection.newBuilder()
+        .uri(URI.create("echo://" + SERVER + ":" + port))
+        .applicationProtocol(protocol)
+        .logger(new SysOutLogger())
+        .noServerCertificateCheck()
+        .socketFactory(ignored -> new ScionDatagramSocket());
+  }
+
+  Result runStream() throws IOException {
+    Result result = new Result("stream");
+    QuicClientConnection connection = connection("echo").build();
+    connection.connect();
+    try (AsyncEchoClient client = new AsyncEchoClient(connection, 2, TIMEOUT)) {
+      run(
+          result,
+          message -> {
+            // AsyncEchoClient keeps the buffer until the request is written
+            ByteBuffer copy = ByteBuffer.wrap(message.array().clone());
+            client.echo(copy).thenAccept(result::echoed);
+          });
+    }
+    connection.closeAndWait();
+    return result;
+  }
+
+  Result runFramed() throws IOException {
+    Result result = new Result("framed");
+    QuicClientConnection connection = connection("echo-framed").build();
+    connection.connect();
+    QuicStream stream = connection.createStream(true);
+    FramedStream framed = new FramedStream(stream);
+    Thread reader = new Thread(() -> readEchoes(stream.getInputStream(), result), "echo-reader");
+    reader.setDaemon(true);
+    reader.start();
+    run(result, framed::send);
+    framed.close();
+    connection.closeAndWait();
+    return result;
+  }
+
+  private static void readEchoes(InputStream in, Result result) {
+    FrameDecoder decoder = new FrameDecoder(new BufferPool(64 * 1024, 16, false), 64 * 1024);
+    try {
+      FrameDecoder.Frame frame;
+      while ((frame = decoder.next(in)) != null) {
+        result.echoed(frame.payload());
+        frame.release();
+      }
+    } catch (IOException e) {
+      // The connection was closed at the end of the run
+    } finally {
+      decoder.close();
+    }
+  }
+
+  Result runMessage() throws IOException {
+    Result result = new Result("message");
+    MessageChannel.Config config =
+        new MessageChannel.Config().maxMessageSize(size).maxDelay(TIMEOUT);
+    QuicClientConnection connection =
+        connection("echo-message")
+            .maxOpenPeerInitiatedUnidirectionalStreams(config.getMaxStreams())
+            .build();
+    MessageChannel channel =
+        MessageChannel.forClient(connection, (c, message) -> result.echoed(message), config);
+    connection.connect();
+    run(result, channel::send);
+    result.details = channel.getStats().toString();
+    channel.close();
+    connection.closeAndWait();
+    return result;
+  }
+}
@@ -21,7 +21,10 @@ package org.scion.examples.flupke;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import net.luminis.quic.QuicConnection;
 import net.luminis.quic.QuicStream;
 import net.luminis.quic.log.Logger;
@@ -30,7 +33,12 @@ import net.luminis.quic.server.ApplicationProtocolConnection;
 import net.luminis.quic.server.ApplicationProtocolConnectionFactory;
 import net.luminis.quic.server.ServerConnectionConfig;
 import net.luminis.quic.server.ServerConnector;
-import org.scion.jpan.ScionDatagramSocket;
+import org.scion.examples.framing.FramedProtocol;
+import org.scion.examples.kwik.BatchingDatagramSocket;
+import org.scion.examples.kwik.ShardedDatagramSocket;
+import org.scion.examples.message.MessageChannel;
+import org.scion.examples.message.MessageProtocol;
+import org.scion.examples.metrics.ServerMetrics;
 
 /**
  * A sample server that runs a very simple echo protocol on top of QUIC.
@@ -38,27 +46,47 @@ import org.scion.jpan.ScionDatagramSocket;
  * responds by echoing the data from the request in a response on the same stream. After sending the response, the
  * stream is closed.
  *
+ * The server also offers two variants of the protocol, see EchoLatencyBenchmark:
+ * - "echo-framed": length-prefixed messages on long-lived streams, each message is echoed on its stream
+ * - "echo-message": independent messages in short unidirectional streams, see MessageChannel
+ *
  * The server's main method requires three arguments:
  * - certificate file (can be self-signed)
  * - key file with the private key of the certificate
  * - port number
+ * and optionally:
+ * - number of shards, i.e. ServerConnectors with their own receive thread (default 1)
  */
 public class EchoServer {
 
+    // Echoing blocks in send() while a peer doesn't read, see FrameHandler.
+    private static final ExecutorService ECHO_EXECUTOR = Executors.newCachedThreadPool();
+    // Largest message of "echo-message", larger messages end their batch stream.
+    static final int MAX_MESSAGE_SIZE = 16 * 1024;
+    private static final MessageProtocol MESSAGE_ECHO =
+            new MessageProtocol((channel, message) -> channel.send(message),
+                    new MessageChannel.Config().maxMessageSize(MAX_MESSAGE_SIZE));
+
     private static void usageAndExit() {
-        System.err.println("Usage: cert file, cert key file, port number");
+        System.err.println("Usage: cert file, cert key file, port number [, shards]");
         System.exit(1);
     }
 
     public static void main(String[] args) throws Exception {
-        args = new String[]{"cert.crt", "cert.key", "4443"};
-        if (args.length != 3 || ! Arrays.stream(args).limit(2).allMatch(a -> new File(a).exists())) {
+        if (args.length == 0) {
+            args = new String[]{"cert.crt", "cert.key", "4443"};
+        }
+        if (args.length < 3 || args.length > 4 || ! Arrays.stream(args).limit(2).allMatch(a -> new File(a).exists())) {
             usageAndExit();
         }
 
         int port = -1;
+        int shards = 1;
         try {
             port = Integer.valueOf(args[2]);
+            if (args.length == 4) {
+                shards = Integer.valueOf(args[3]);
+            }
         }
         catch (NumberFormatException noNumber) {
             usageAndExit();
@@ -71,25 +99,63 @@ public class EchoServer {
 
         ServerConnectionConfig serverConnectionConfig = ServerConnectionConfig.builder()
                 .maxOpenPeerInitiatedBidirectionalStreams(12)  // Mandatory setting to maximize concurrent streams on a connection.
+                .maxOpenPeerInitiatedUnidirectionalStreams(1000)  // Message batches of "echo-message"
                 .build();
 
+        ServerMetrics metrics = new ServerMetrics();
+        metrics.registerGauge("messages.received", MESSAGE_ECHO.getStats()::getMessagesReceived);
+        metrics.registerGauge("messages.dropped", MESSAGE_ECHO.getStats()::getMessagesDropped);
+        metrics.startReporter(Duration.ofSeconds(10), log::info);
+        metrics.startHttpEndpoint();
+
+        if (shards > 1) {
+            startSharded(args, port, shards, serverConnectionConfig, log, metrics);
+            return;
+        }
+
+        BatchingDatagramSocket socket = new BatchingDatagramSocket(port);
         ServerConnector serverConnector = ServerConnector.builder()
                 .withPort(port)
                 .withCertificate(new FileInputStream(args[0]), new FileInputStream(args[1]))
                 .withConfiguration(serverConnectionConfig)
                 .withLogger(log)
-                .withSocket(new ScionDatagramSocket(port))
+                .withSocket(socket)
                 .build();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> log.info("Socket: " + socket)));
+        metrics.registerGauge("packets.dropped", socket::getReceiveDrops);
 
-        registerProtocolHandler(serverConnector, log);
+        registerProtocolHandler(serverConnector, log, metrics);
 
         serverConnector.start();
 
         log.info("Started echo server on port " + port);
     }
 
-    private static void registerProtocolHandler(ServerConnector serverConnector, Logger log) {
-           serverConnector.registerApplicationProtocol("echo", new EchoProtocolConnectionFactory(log));
+    private static void startSharded(String[] args, int port, int shards, ServerConnectionConfig config, Logger log,
+            ServerMetrics metrics) throws Exception {
+        ShardedDatagramSocket socket = new ShardedDatagramSocket(port, shards);
+        for (int i = 0; i < shards; i++) {
+            ServerConnector serverConnector = ServerConnector.builder()
+                    .withPort(port)
+                    .withCertificate(new FileInputStream(args[0]), new FileInputStream(args[1]))
+                    .withConfiguration(config)
+                    .withLogger(log)
+                    .withSocket(socket.getShard(i))
+                    .build();
+            registerProtocolHandler(serverConnector, log, metrics);
+            serverConnector.start();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> log.info("Socket: " + socket)));
+        metrics.registerGauge("packets.dropped", socket::getPacketsDropped);
+
+        log.info("Started echo server on port " + port + " with " + shards + " shards");
+    }
+
+    private static void registerProtocolHandler(ServerConnector serverConnector, Logger log, ServerMetrics metrics) {
+           serverConnector.registerApplicationProtocol("echo", new EchoProtocolConnectionFactory(log, metrics));
+           serverConnector.registerApplicationProtocol("echo-framed",
+                   new FramedProtocol((stream, frame) -> stream.send(frame), ECHO_EXECUTOR));
+           serverConnector.registerApplicationProtocol("echo-message", MESSAGE_ECHO);
     }
 
     /**
@@ -97,14 +163,17 @@ public class EchoServer {
      */
     static class EchoProtocolConnectionFactory implements ApplicationProtocolConnectionFactory {
         private final Logger log;
+        private final ServerMetrics metrics;
 
-        public EchoProtocolConnectionFactory(Logger log) {
+        public EchoProtocolConnectionFactory(Logger log, ServerMetrics metrics) {
             this.log = log;
+            this.metrics = metrics;
         }
 
         @Override
         public ApplicationProtocolConnection createConnection(String protocol, QuicConnection quicConnection) {
-            return new EchoProtocolConnection(quicConnection, log);
+            metrics.connectionAccepted(quicConnection);
+            return new EchoProtocolConnection(quicConnection, log, metrics);
         }
 
         @Override
@@ -124,25 +193,30 @@ public class EchoServer {
     static class EchoProtocolConnection implements ApplicationProtocolConnection {
 
         private Logger log;
+        private final ServerMetrics metrics;
 
-        public EchoProtocolConnection(QuicConnection quicConnection, Logger log) {
+        public EchoProtocolConnection(QuicConnection quicConnection, Logger log, ServerMetrics metrics) {
             this.log = log;
+            this.metrics = metrics;
         }
 
         @Override
         public void acceptPeerInitiatedStream(QuicStream quicStream) {
+            metrics.streamAccepted();
+            long start = System.nanoTime();
             // Need to handle incoming stream on separate thread; using a thread pool is recommended.
-            new Thread(() -> handleEchoRequest(quicStream)).start();
+            new Thread(() -> handleEchoRequest(quicStream, start)).start();
         }
 
-        private void handleEchoRequest(QuicStream quicStream) {
+        private void handleEchoRequest(QuicStream quicStream, long start) {
             try {
                 // Note that this implementation is not safe to use in the wild, as attackers can crash the server by sending arbitrary large requests.
                 byte[] bytesRead = quicStream.getInputStream().readAllBytes();
-                System.out.println("Read echo request with " + bytesRead.length + " bytes of data.");
                 quicStream.getOutputStream().write(bytesRead);
                 quicStream.getOutputStream().close();
+                metrics.streamCompleted(start, bytesRead.length, bytesRead.length);
             } catch (IOException e) {
+                metrics.streamFailed();
                 log.error("Reading quic stream failed", e);
             }
         }
@@ -0,0 +1,200 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.flupke;
+
+import java.io.IOException;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache for static files. Small files are kept in memory (LRU, bounded by total size), larger files
+ * are only described by their entry and are streamed from disk for every request. Headers that
+ * depend only on the file (ETag, Last-Modified, Content-Type) are computed when the file is loaded.
+ *
+ * <p>Each lookup checks size and modification time of the file, so changed files are reloaded.
+ * Large files are deliberately not memory mapped: a mapping outlives changes to the file, and
+ * reading a mapped page after the file was truncated kills the JVM with SIGBUS.
+ */
+public class FileCache {
+
+  public static final long DEFAULT_MAX_CACHED_FILE_SIZE = 1024 * 1024;
+  public static final long DEFAULT_MAX_CACHE_SIZE = 64 * 1024 * 1024;
+  private static final int MAX_ENTRIES = 10_000;
+  private static final DateTimeFormatter HTTP_DATE =
+      DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+  /** A file and its precomputed headers. */
+  public static class Entry {
+    private final Path path;
+    private final long size;
+    private final long lastModifiedMillis;
+    private final String etag;
+    private final String lastModified;
+    private final String contentType;
+    // The content of small files, 'null' for files that are streamed from disk
+    private final byte[] data;
+
+    Entry(Path path, BasicFileAttributes attributes, byte[] data) {
+      this.path = path;
+      this.size = attributes.size();
+      this.lastModifiedMillis = attributes.lastModifiedTime().toMillis();
+      this.etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModifiedMillis) + "\"";
+      this.lastModified = HTTP_DATE.format(Instant.ofEpochMilli(lastModifiedMillis));
+      String type = URLConnection.guessContentTypeFromName(path.getFileName().toString());
+      this.contentType = type != null ? type : "application/octet-stream";
+      this.data = data;
+    }
+
+    public Path getPath() {
+      return path;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public long getLastModifiedMillis() {
+      return lastModifiedMillis;
+    }
+
+    public String getEtag() {
+      return etag;
+    }
+
+    public String getLastModified() {
+      return lastModified;
+    }
+
+    public String getContentType() {
+      return contentType;
+    }
+
+    /**
+     * @return the content of a small file (must not be modified) or 'null' if the file has to be
+     *     read from disk.
+     */
+    public byte[] getData() {
+      return data;
+    }
+
+    boolean isInMemory() {
+      return data != null;
+    }
+
+    boolean matches(BasicFileAttributes attributes) {
+      return attributes.size() == size
+          && attributes.lastModifiedTime().toMillis() == lastModifiedMillis;
+    }
+  }
+
+  private final long maxCachedFileSize;
+  private final long maxCacheSize;
+  private long cacheSize = 0;
+  private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+  public FileCache() {
+    this(DEFAULT_MAX_CACHED_FILE_SIZE, DEFAULT_MAX_CACHE_SIZE);
+  }
+
+  public FileCache(long maxCachedFileSize, long maxCacheSize) {
+    this.maxCachedFileSize = maxCachedFileSize;
+    this.maxCacheSize = maxCacheSize;
+  }
+
+  /**
+   * @return the entry or 'null' if the file doesn't exist or is not a regular file.
+   */
+  public Entry get(Path path) throws IOException {
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    } catch (IOException e) {
+      remove(path);
+      return null;
+    }
+    if (!attributes.isRegularFile()) {
+      return null;
+    }
+    synchronized (this) {
+      Entry entry = entries.get(path);
+      if (entry != null && entry.matches(attributes)) {
+        return entry;
+      }
+    }
+    Entry entry = load(path, attributes);
+    synchronized (this) {
+      Entry old = entries.put(path, entry);
+      if (old != null && old.isInMemory()) {
+        cacheSize -= old.size;
+      }
+      if (entry.isInMemory()) {
+        cacheSize += entry.size;
+      }
+      evict();
+    }
+    return entry;
+  }
+
+  private Entry load(Path path, BasicFileAttributes attributes) throws IOException {
+    long size = attributes.size();
+    if (size > maxCachedFileSize) {
+      return new Entry(path, attributes, null);
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      byte[] data = new byte[(int) size];
+      ByteBuffer buffer = ByteBuffer.wrap(data);
+      while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+        // read all
+      }
+      if (buffer.hasRemaining()) {
+        throw new IOException("File changed while loading: " + path);
+      }
+      return new Entry(path, attributes, data);
+    }
+  }
+
+  private synchronized void remove(Path path) {
+    Entry old = entries.remove(path);
+    if (old != null && old.isInMemory()) {
+      cacheSize -= old.size;
+    }
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<Path, Entry>> it = entries.entrySet().iterator();
+    while ((cacheSize > maxCacheSize || entries.size() > MAX_ENTRIES) && it.hasNext()) {
+      Entry e = it.next().getValue();
+      if (e.isInMemory()) {
+        cacheSize -= e.size;
+      }
+      it.remove();
+    }
+  }
+
+  public synchronized long getCacheSize() {
+    return cacheSize;
+  }
+}
@@ -17,7 +17,7 @@ package org.scion.examples.flupke;
 import net.luminis.http3.Http3Client;
 import net.luminis.http3.Http3ClientBuilder;
 import net.luminis.quic.log.Logger;
-import net.luminis.quic.log.SysOutLogger;
+import org.scion.examples.log.AsyncLogger;
 
 import java.io.IOException;
 import java.net.DatagramSocket;
@@ -25,13 +25,14 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.time.Duration;
 
 /** Demo with flupke HTTP/3 client. https://github.com/ptrd/flupke */
 public class FlupkeClientHttp3 {
 
+  private static final String OUTPUT_FILE = "http3-response.html";
+
   public static void main2(String[] args) throws IOException, InterruptedException {
     URI uri = URI.create("https://sample.com:443");
     HttpRequest request = HttpRequest.newBuilder(uri).GET().build(); // TODO ?
@@ -68,7 +69,7 @@ public class FlupkeClientHttp3 {
 //    HttpClient defaultClient = Http3Client.newHttpClient();
 
     // For non-default configuration, use the builder
-    Logger stdoutLogger = new SysOutLogger();
+    Logger stdoutLogger = new AsyncLogger();
     stdoutLogger.useRelativeTime(true);
     stdoutLogger.logPackets(true);
 
@@ -81,10 +82,10 @@ public class FlupkeClientHttp3 {
             .build();
 
     try {
-      long start = System.currentTimeMillis();
-      HttpResponse<String> httpResponse = client.send(request, HttpResponse.BodyHandlers.ofString());
-      long end = System.currentTimeMillis();
-      reportResult(httpResponse, end - start);
+      long start = System.nanoTime();
+      HttpResponse<DownloadSubscriber.Result> httpResponse =
+          client.send(request, DownloadSubscriber.handler(Paths.get(OUTPUT_FILE), start));
+      reportResult(httpResponse);
     }
     catch (IOException e) {
       System.err.println("Request failed: " + e.getMessage());
@@ -94,20 +95,23 @@ public class FlupkeClientHttp3 {
     }
   }
 
-  private static void reportResult(HttpResponse<String> httpResponse, long duration) throws IOException {
-    System.out.println("Request completed in " + duration + " ms");
+  private static void reportResult(HttpResponse<DownloadSubscriber.Result> httpResponse) {
+    DownloadSubscriber.Result body = httpResponse.body();
+    System.out.printf(
+        "Request completed in %.3f ms (headers after %.3f ms, first byte after %.3f ms)%n",
+        body.getDurationNanos() / 1e6,
+        body.getTimeToHeadersNanos() / 1e6,
+        body.getTimeToFirstByteNanos() / 1e6);
     System.out.println("Got HTTP response " + httpResponse);
     System.out.println("-   HTTP headers: ");
     httpResponse.headers().map().forEach((k, v) -> System.out.println("--  " + k + "\t" + v));
-    long downloadSpeed = httpResponse.body().length() / duration;
-    System.out.println("-   HTTP body (" + httpResponse.body().length() + " bytes, " + downloadSpeed + " KB/s):");
-    if (httpResponse.body().length() > 10 * 1024) {
-      String outputFile = "http3-response.html";
-      Files.write(Paths.get(outputFile), httpResponse.body().getBytes());
-      System.out.println("Response body written to file: " + outputFile);
-    }
-    else {
-      System.out.println(httpResponse.body());
+    System.out.printf(
+        "-   HTTP body (%d bytes, %.3f Mbit/s):%n", body.getBytes(), body.getThroughputMbps());
+    String text = body.getBodyIfSmall();
+    if (text == null) {
+      System.out.println("Response body written to file: " + body.getFile());
+    } else {
+      System.out.println(text);
     }
   }
 }
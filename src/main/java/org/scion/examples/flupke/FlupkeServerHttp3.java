@@ -17,146 +17,63 @@ package org.scion.examples.flupke;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.DatagramSocket;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-import net.luminis.http3.Http3Client;
-import net.luminis.http3.Http3ClientBuilder;
-import net.luminis.http3.impl.FlupkeVersion;
 import net.luminis.http3.server.Http3ApplicationProtocolFactory;
 import net.luminis.http3.server.HttpRequestHandler;
-import net.luminis.http3.server.HttpServerRequest;
-import net.luminis.http3.server.HttpServerResponse;
 import net.luminis.quic.QuicConnection;
 import net.luminis.quic.QuicStream;
 import net.luminis.quic.log.Logger;
 import net.luminis.quic.log.SysOutLogger;
-import net.luminis.quic.run.KwikVersion;
-import net.luminis.quic.sample.echo.EchoServer;
 import net.luminis.quic.server.*;
-
-/** Demo with flupke HTTP/3 client. https://github.com/ptrd/flupke */
+import org.scion.examples.kwik.BatchingDatagramSocket;
+import org.scion.examples.kwik.ShardedDatagramSocket;
+import org.scion.examples.log.AccessLog;
+import org.scion.examples.metrics.ServerMetrics;
+
+/**
+ * HTTP/3 server (flupke, https://github.com/ptrd/flupke) that serves files from a www directory
+ * and has endpoints for throughput measurements (see {@link ThroughputHandler}). The server also
+ * speaks the "echo" protocol. HTTP/3 requests are logged to "access.log".
+ */
 public class FlupkeServerHttp3 {
 
-//  public static void main(String[] args) throws IOException, InterruptedException {
-//
-//    HttpRequestHandler rh = new HttpRequestHandler() {
-//      @Override
-//      public void handleRequest(HttpServerRequest request, HttpServerResponse response) throws IOException {
-//        System.out.println("Request:");
-//        System.out.println("  method: " + request.method());
-//        System.out.println("  path:   " + request.path());
-//
-//        response.getOutputStream().write(42);
-//        response.setStatus();
-//
-//
-//
-//        if (request.method().equals("GET")) {
-//          String path = request.path();
-//          if (path.equals("/version")) {
-//            response.setStatus(200);
-//            String versionLine = "Kwik version: " + KwikVersion.getVersion() + "\n"
-//                    + "Flupke version: " + FlupkeVersion.getVersion() + "\n";
-//            response.getOutputStream().write(versionLine.getBytes());
-//            response.getOutputStream().close();
-//            log(request, response);
-//            return;
-//          }
-//
-//          if (path.isBlank() || path.equals("/")) {
-//            path = "index.html";
-//          }
-////          File fileInWwwDir = getFileInWwwDir(path);
-////          if (fileInWwwDir != null && fileInWwwDir.exists() && fileInWwwDir.isFile() && fileInWwwDir.canRead()) {
-////            response.setStatus(200);
-////            try (FileInputStream fileIn = new FileInputStream(fileInWwwDir); OutputStream out = response.getOutputStream()) {
-////              fileIn.transferTo(out);
-////            }
-////          }
-////          else {
-////            Matcher sizeNameMacher = Pattern.compile("/{0,1}(\\d+)([kmKM])").matcher(path);
-////            if (sizeNameMacher.matches()) {
-////              int size = Integer.parseInt(sizeNameMacher.group(1));
-////              String unit = sizeNameMacher.group(2).toLowerCase();
-////              long sizeInBytes = size * (unit.equals("k")? 1024: unit.equals("m")? 1024 * 1024: 1);
-////              if (sizeInBytes > MAX_DOWNLOAD_SIZE) {
-////                response.setStatus(509); // Bandwidth Limit Exceeded
-////                return;
-////              }
-////              transferFileOfSize(sizeInBytes, response.getOutputStream());
-////            }
-////            else {
-//              response.setStatus(404);
-////            }
-////          }
-//        }
-//        else {
-//          response.setStatus(405);
-//        }
-//        log(request, response);
-//      }
-//
-//      private void log(HttpServerRequest request, HttpServerResponse response) {
-//        DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("d/MMM/yyyy:HH:mm:ss Z").withZone(ZoneId.systemDefault()); // TODO
-//        // Using standard Apache Access Log format
-//        String logLine = request.clientAddress().getHostAddress() + " " +
-//                // client identity
-//                "- " +
-//                // client userid
-//                "- " +
-//                // time that the request was received
-//                "[" + timeFormatter.format(request.time()) + "] " +
-//                // request line
-//                request.method() + " " + request.path() + " " + "HTTP/3 " +
-//                // status code
-//                response.status() + " " +
-//                // size of the response
-//                response.size();
-//
-//        System.out.println(logLine);
-//      }
-//    };
-//    Http3ApplicationProtocolFactory f = new Http3ApplicationProtocolFactory(rh);
-//    ServerConnectionFactory scf = new ServerConnectionFactory();
-//    QuicConnection qc = scf.createNewConnection();
-//    f.createConnection(null, qc);
-//  }
-
-
-
+  private static final String ACCESS_LOG = "access.log";
 
   private static void usageAndExit() {
-    System.err.println("Usage: cert file, cert key file, port number");
+    System.err.println("Usage: cert file, cert key file, port number [, shards [, www dir]]");
     System.exit(1);
   }
 
   public static void main(String[] args) throws Exception {
-    args = new String[]{"cert.crt", "cert.key", "4443"};
-    if (args.length != 3 || ! Arrays.stream(args).limit(2).allMatch(a -> new File(a).exists())) {
+    if (args.length == 0) {
+      args = new String[]{"cert.crt", "cert.key", "4443"};
+    }
+    if (args.length < 3 || args.length > 5 || ! Arrays.stream(args).limit(2).allMatch(a -> new File(a).exists())) {
       usageAndExit();
     }
 
     int port = -1;
+    int shards = 1;
     try {
       port = Integer.valueOf(args[2]);
+      if (args.length >= 4) {
+        shards = Integer.valueOf(args[3]);
+      }
     }
     catch (NumberFormatException noNumber) {
       usageAndExit();
     }
 
+    Path wwwDir = Paths.get(args.length == 5 ? args[4] : "www");
+    if (!wwwDir.toFile().isDirectory()) {
+      System.err.println("www dir does not exist: " + wwwDir.toAbsolutePath());
+      usageAndExit();
+    }
+
     Logger log = new SysOutLogger();
     log.timeFormat(Logger.TimeFormat.Long);
     log.logWarning(true);
@@ -164,24 +81,59 @@ public class FlupkeServerHttp3 {
 
     ServerConnectionConfig serverConnectionConfig = ServerConnectionConfig.builder()
             .maxOpenPeerInitiatedBidirectionalStreams(12)  // Mandatory setting to maximize concurrent streams on a connection.
+            .maxOpenPeerInitiatedUnidirectionalStreams(3)  // HTTP/3 control and QPACK streams
             .build();
 
+    ServerMetrics metrics = new ServerMetrics();
+    metrics.startReporter(Duration.ofSeconds(10), log::info);
+    metrics.startHttpEndpoint();
+    AccessLog accessLog = new AccessLog(Paths.get(ACCESS_LOG));
+    Runtime.getRuntime().addShutdownHook(new Thread(accessLog::close));
+
+    if (shards > 1) {
+      // One ServerConnector per shard, all sharing one SCION socket.
+      ShardedDatagramSocket socket = new ShardedDatagramSocket(port, shards);
+      for (int i = 0; i < shards; i++) {
+        ServerConnector serverConnector = ServerConnector.builder()
+                .withPort(port)
+                .withCertificate(new FileInputStream(args[0]), new FileInputStream(args[1]))
+                .withConfiguration(serverConnectionConfig)
+                .withLogger(log)
+                .withSocket(socket.getShard(i))
+                .build();
+        registerProtocolHandlers(serverConnector, wwwDir, log, metrics, accessLog);
+        serverConnector.start();
+      }
+      metrics.registerGauge("packets.dropped", socket::getPacketsDropped);
+      metrics.registerGauge("accesslog.dropped", accessLog::getDroppedRecords);
+      log.info("Started HTTP/3 server on port " + port + " with " + shards + " shards, serving " + wwwDir);
+      return;
+    }
+
+    BatchingDatagramSocket socket = new BatchingDatagramSocket(port);
     ServerConnector serverConnector = ServerConnector.builder()
             .withPort(port)
             .withCertificate(new FileInputStream(args[0]), new FileInputStream(args[1]))
             .withConfiguration(serverConnectionConfig)
             .withLogger(log)
+            .withSocket(socket)
             .build();
 
-    registerProtocolHandler(serverConnector, log);
+    registerProtocolHandlers(serverConnector, wwwDir, log, metrics, accessLog);
+    metrics.registerGauge("packets.dropped", socket::getReceiveDrops);
+    metrics.registerGauge("accesslog.dropped", accessLog::getDroppedRecords);
 
     serverConnector.start();
 
-    log.info("Started echo server on port " + port);
+    log.info("Started HTTP/3 server on port " + port + ", serving " + wwwDir);
   }
 
-  private static void registerProtocolHandler(ServerConnector serverConnector, Logger log) {
-    serverConnector.registerApplicationProtocol("echo", new EchoProtocolConnectionFactory(log));
+  private static void registerProtocolHandlers(ServerConnector serverConnector, Path wwwDir, Logger log,
+                                               ServerMetrics metrics, AccessLog accessLog) {
+    HttpRequestHandler handler = new ThroughputHandler(new StaticFileHandler(wwwDir, metrics), metrics);
+    handler = new AccessLogHandler(handler, accessLog);
+    serverConnector.registerApplicationProtocol("h3", new Http3ApplicationProtocolFactory(handler));
+    serverConnector.registerApplicationProtocol("echo", new EchoProtocolConnectionFactory(log, metrics));
   }
 
   /**
@@ -189,14 +141,17 @@ public class FlupkeServerHttp3 {
    */
   static class EchoProtocolConnectionFactory implements ApplicationProtocolConnectionFactory {
     private final Logger log;
+    private final ServerMetrics metrics;
 
-    public EchoProtocolConnectionFactory(Logger log) {
+    public EchoProtocolConnectionFactory(Logger log, ServerMetrics metrics) {
       this.log = log;
+      this.metrics = metrics;
     }
 
     @Override
     public ApplicationProtocolConnection createConnection(String protocol, QuicConnection quicConnection) {
-      return new EchoProtocolConnection(quicConnection, log);
+      metrics.connectionAccepted(quicConnection);
+      return new EchoProtocolConnection(quicConnection, log, metrics);
     }
 
     @Override
@@ -216,25 +171,30 @@ public class FlupkeServerHttp3 {
   static class EchoProtocolConnection implements ApplicationProtocolConnection {
 
     private Logger log;
+    private final ServerMetrics metrics;
 
-    public EchoProtocolConnection(QuicConnection quicConnection, Logger log) {
+    public EchoProtocolConnection(QuicConnection quicConnection, Logger log, ServerMetrics metrics) {
       this.log = log;
+      this.metrics = metrics;
     }
 
     @Override
     public void acceptPeerInitiatedStream(QuicStream quicStream) {
+      metrics.streamAccepted();
+      long start = System.nanoTime();
       // Need to handle incoming stream on separate thread; using a thread pool is recommended.
-      new Thread(() -> handleEchoRequest(quicStream)).start();
+      new Thread(() -> handleEchoRequest(quicStream, start)).start();
     }
 
-    private void handleEchoRequest(QuicStream quicStream) {
+    private void handleEchoRequest(QuicStream quicStream, long start) {
       try {
         // Note that this implementation is not safe to use in the wild, as attackers can crash the server by sending arbitrary large requests.
         byte[] bytesRead = quicStream.getInputStream().readAllBytes();
-        System.out.println("Read echo request with " + bytesRead.length + " bytes of data.");
         quicStream.getOutputStream().write(bytesRead);
         quicStream.getOutputStream().close();
+        metrics.streamCompleted(start, bytesRead.length, bytesRead.length);
       } catch (IOException e) {
+        metrics.streamFailed();
         log.error("Reading quic stream failed", e);
       }
     }
@@ -0,0 +1,233 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.flupke;
+
+import static net.luminis.http3.core.Http3ClientConnection.DEFAULT_HTTP3_PORT;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import net.luminis.http3.Http3Client;
+import org.scion.examples.kwik.PathPrefetcher;
+import org.scion.examples.kwik.ScionAddressResolver;
+import org.scion.examples.kwik.ScionConnectionBuilder;
+import org.scion.examples.kwik.SharedScionSocket;
+import org.scion.examples.metrics.Histogram;
+
+/**
+ * Fetches many URLs over HTTP/3 concurrently.
+ *
+ * <p>The URLs are grouped by origin. All origins are fetched in parallel, with at most a fixed
+ * number of outstanding requests per origin. Requests are sent with {@link HttpClient#sendAsync}
+ * on one client, which keeps one QUIC connection per origin, so the requests to an origin are
+ * multiplexed as streams on that connection. Paths to all origins are looked up before the first
+ * request. The total time is about the time of the slowest origin.
+ *
+ * <p>Bodies are counted and discarded. Reports latency percentiles per origin and overall, and the
+ * overall throughput.
+ *
+ * <p>Arguments: [-c max requests per origin] (URL | file with one URL per line)...
+ */
+public class MultiFetcher {
+
+  private static final int DEFAULT_MAX_PER_ORIGIN = 6;
+
+  private static class Origin {
+    final String name;
+    final Queue<HttpRequest> pending = new ArrayDeque<>();
+    final Histogram latency;
+
+    Origin(String name) {
+      this.name = name;
+      this.latency = new Histogram(name + " latency [us]");
+    }
+
+    synchronized HttpRequest next() {
+      return pending.poll();
+    }
+  }
+
+  private final HttpClient client;
+  private final int maxPerOrigin;
+  private final Histogram latency = new Histogram("latency [us]");
+  private final LongAdder bytes = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+  private final LongAdder errorResponses = new LongAdder();
+
+  public MultiFetcher(HttpClient client, int maxPerOrigin) {
+    this.client = client;
+    this.maxPerOrigin = maxPerOrigin;
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int maxPerOrigin = DEFAULT_MAX_PER_ORIGIN;
+    List<URI> uris = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-c") && i + 1 < args.length) {
+        maxPerOrigin = Integer.parseInt(args[++i]);
+      } else if (Files.isRegularFile(Paths.get(args[i]))) {
+        for (String line : Files.readAllLines(Paths.get(args[i]))) {
+          line = line.trim();
+          if (!line.isEmpty() && !line.startsWith("#")) {
+            uris.add(parse(line));
+          }
+        }
+      } else {
+        uris.add(parse(args[i]));
+      }
+    }
+    if (uris.isEmpty()) {
+      System.err.println("Usage: [-c max requests per origin] (URL | file with URLs)...");
+      System.exit(1);
+    }
+
+    Path recentFile = Paths.get(System.getProperty("user.home"), ".scion-recent-destinations");
+    PathPrefetcher prefetcher =
+        new PathPrefetcher(ScionAddressResolver.defaultResolver(), recentFile);
+    List<String> destinations = new ArrayList<>();
+    for (URI uri : uris) {
+      int port = uri.getPort() > 0 ? uri.getPort() : DEFAULT_HTTP3_PORT;
+      destinations.add(uri.getHost() + ":" + port);
+    }
+    prefetcher.prefetch(destinations).join();
+
+    SharedScionSocket socket = new SharedScionSocket();
+    HttpClient client =
+        Http3Client.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .connectionBuilderFactory(
+                () -> new ScionConnectionBuilder().sharedSocket(socket).prefetcher(prefetcher))
+            .build();
+    try {
+      new MultiFetcher(client, maxPerOrigin).fetch(uris);
+    } finally {
+      socket.close();
+      prefetcher.close();
+    }
+  }
+
+  private static URI parse(String uri) {
+    try {
+      return validate(URI.create(uri));
+    } catch (IllegalArgumentException e) {
+      System.err.println("Invalid URL: " + e.getMessage());
+      System.exit(1);
+      return null;
+    }
+  }
+
+  private static URI validate(URI uri) {
+    if (!"https".equalsIgnoreCase(uri.getScheme()) || uri.getHost() == null) {
+      throw new IllegalArgumentException("Expected https://host[:port]/path: " + uri);
+    }
+    return uri;
+  }
+
+  /**
+   * @param uris the URLs to fetch
+   * @throws IllegalArgumentException if a URL is not an https URL with a host. All URLs are checked
+   *     before the first request is sent.
+   */
+  public void fetch(List<URI> uris) throws InterruptedException {
+    Map<String, Origin> origins = new LinkedHashMap<>();
+    for (URI uri : uris) {
+      validate(uri);
+      int port = uri.getPort() > 0 ? uri.getPort() : DEFAULT_HTTP3_PORT;
+      String name = uri.getHost() + ":" + port;
+      HttpRequest request =
+          HttpRequest.newBuilder(uri)
+              .header("User-Agent", "Flupke http3 library")
+              .timeout(Duration.ofSeconds(10))
+              .build();
+      origins.computeIfAbsent(name, Origin::new).pending.add(request);
+    }
+
+    CountDownLatch done = new CountDownLatch(uris.size());
+    long start = System.nanoTime();
+    for (Origin origin : origins.values()) {
+      // Each completed request starts the next one of its origin.
+      for (int i = 0; i < maxPerOrigin; i++) {
+        sendNext(origin, done);
+      }
+    }
+    done.await();
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    for (Origin origin : origins.values()) {
+      System.out.println(origin.latency);
+    }
+    System.out.println(latency);
+    System.out.printf(
+        "%d requests to %d origins in %.2f s (%d failed, %d error responses)%n",
+        uris.size(), origins.size(), seconds, failures.sum(), errorResponses.sum());
+    System.out.printf(
+        "Throughput: %.1f requests/s, %.3f Mbit/s (%d bytes)%n",
+        uris.size() / seconds, bytes.sum() * 8 / seconds / 1e6, bytes.sum());
+  }
+
+  private void sendNext(Origin origin, CountDownLatch done) {
+    HttpRequest request = origin.next();
+    if (request == null) {
+      return;
+    }
+    long start = System.nanoTime();
+    CompletableFuture<HttpResponse<DownloadSubscriber.Result>> response;
+    try {
+      response = client.sendAsync(request, DownloadSubscriber.handler(null, start));
+    } catch (RuntimeException e) {
+      response = CompletableFuture.failedFuture(e);
+    }
+    response.whenComplete(
+        (r, e) -> {
+          // Count down in any case, otherwise fetch() waits forever.
+          try {
+            if (e != null) {
+              failures.increment();
+              System.err.println(request.uri() + " failed: " + e.getMessage());
+            } else {
+              record(origin, r);
+            }
+          } finally {
+            done.countDown();
+          }
+          sendNext(origin, done);
+        });
+  }
+
+  private void record(Origin origin, HttpResponse<DownloadSubscriber.Result> response) {
+    long micros = response.body().getDurationNanos() / 1000;
+    origin.latency.record(micros);
+    latency.record(micros);
+    bytes.add(response.body().getBytes());
+    if (response.statusCode() >= 400) {
+      errorResponses.increment();
+    }
+  }
+}
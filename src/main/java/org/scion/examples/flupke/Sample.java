@@ -23,7 +23,6 @@ import java.net.*;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.PrivateKey;
@@ -38,17 +37,23 @@ import net.luminis.quic.QuicClientConnection;
 import net.luminis.quic.QuicConnection;
 import net.luminis.quic.QuicSessionTicket;
 import net.luminis.quic.core.ClientConnectionConfig;
-import net.luminis.quic.core.QuicClientConnectionImpl;
 import net.luminis.quic.core.Version;
 import net.luminis.quic.log.Logger;
-import net.luminis.quic.log.SysOutLogger;
 import net.luminis.tls.TlsConstants;
+import org.scion.examples.kwik.PathPrefetcher;
+import org.scion.examples.kwik.ScionAddressResolver;
+import org.scion.examples.kwik.ScionConnectionBuilder;
+import org.scion.examples.kwik.SharedScionSocket;
+import org.scion.examples.log.AsyncLogger;
+import org.scion.examples.path.FailoverDatagramSocket;
 import org.scion.jpan.*;
 
 import static net.luminis.http3.core.Http3ClientConnection.DEFAULT_HTTP3_PORT;
 
 public class Sample {
 
+  private static final String OUTPUT_FILE = "http3-response.html";
+
   public static void main(String[] args) throws IOException, InterruptedException {
     // Create self signed certificate:
     // - openssl genrsa -out cert.key 2048
@@ -63,6 +68,7 @@ public class Sample {
     //        we should get the hostname and do our own lookup!
     //
     // - We must provide the port 30041 (at least as long as we have dispatchers)
+    //   -> ScionSocketFactory binds in the end host port range and falls back to 30041.
     // - If we provide an IP that is in the local network, we should recognize this and
     //   return the local ISD/AS. -> BUG
     //   THIS is DANGEROUS! SCION allows two subnets to be connected directly -> there is no
@@ -74,6 +80,7 @@ public class Sample {
     //   is reported by a DNS A/AAAA lookup. However, SCION uses a different IP (TXT "scion=").
     //   To prevent packets from being dropped, we have to reverse-map the IP address to A/AAAA.
     //   We can do this using an internal map in the socket/channel.
+    //   -> Done in AddressMappingDatagramSocket (used by ScionConnectionBuilder).
 
     // OTHER TODO
     // - FIX SPURIOUS ERRORS!
@@ -96,7 +103,7 @@ public class Sample {
             .build();
 
     // For non-default configuration, use the builder
-    Logger stdoutLogger = new SysOutLogger();
+    Logger stdoutLogger = new AsyncLogger();
     stdoutLogger.useRelativeTime(true);
     stdoutLogger.logPackets(true);
 
@@ -128,6 +135,18 @@ public class Sample {
 //      }
 //    };
 
+    // Resolve the hosts and look up their paths before the first request.
+    Path recentFile = Paths.get(System.getProperty("user.home"), ".scion-recent-destinations");
+    PathPrefetcher prefetcher =
+        new PathPrefetcher(ScionAddressResolver.defaultResolver(), recentFile);
+    int serverPort = serverUrl.getPort() > 0 ? serverUrl.getPort() : DEFAULT_HTTP3_PORT;
+    prefetcher.prefetchRecent();
+    prefetcher.prefetch(List.of(serverUrl.getHost() + ":" + serverPort)).join();
+    prefetcher.startRefresh(Duration.ofMinutes(1));
+
+    // All connections of the client share one socket (and its path cache).
+    SharedScionSocket sharedSocket =
+        new SharedScionSocket(port -> new FailoverDatagramSocket(port, prefetcher));
     HttpClient client =
         Http3Client.newBuilder()
             .logger(stdoutLogger)
@@ -138,65 +157,43 @@ public class Sample {
 //            .socketFactory(
 //                ignored ->
 //                    new org.scion.jpan.socket.DatagramSocket(30041).setRemoteDispatcher(true))
-            .connectionBuilderFactory(ScionConnectionBuilder::new)
+            .connectionBuilderFactory(
+                () -> new ScionConnectionBuilder().sharedSocket(sharedSocket).prefetcher(prefetcher))
             .build();
 
     try {
-      long start = System.currentTimeMillis();
-      HttpResponse<String> httpResponse =
-          client.send(request, HttpResponse.BodyHandlers.ofString());
-      long end = System.currentTimeMillis();
-      reportResult(httpResponse, end - start);
+      long start = System.nanoTime();
+      HttpResponse<DownloadSubscriber.Result> httpResponse =
+          client.send(request, DownloadSubscriber.handler(Paths.get(OUTPUT_FILE), start));
+      reportResult(httpResponse);
 
       Thread.sleep(10000);
     } catch (IOException e) {
       System.err.println("Request failed: " + e.getMessage());
     } catch (InterruptedException e) {
       System.err.println("Request interrupted: " + e.getMessage());
+    } finally {
+      prefetcher.close();
     }
   }
 
-  private static void reportResult(HttpResponse<String> httpResponse, long duration)
-      throws IOException {
-    System.out.println("Request completed in " + duration + " ms");
+  private static void reportResult(HttpResponse<DownloadSubscriber.Result> httpResponse) {
+    DownloadSubscriber.Result body = httpResponse.body();
+    System.out.printf(
+        "Request completed in %.3f ms (headers after %.3f ms, first byte after %.3f ms)%n",
+        body.getDurationNanos() / 1e6,
+        body.getTimeToHeadersNanos() / 1e6,
+        body.getTimeToFirstByteNanos() / 1e6);
     System.out.println("Got HTTP response " + httpResponse);
     System.out.println("-   HTTP headers: ");
     httpResponse.headers().map().forEach((k, v) -> System.out.println("--  " + k + "\t" + v));
-    long downloadSpeed = httpResponse.body().length() / duration;
-    System.out.println(
-        "-   HTTP body (" + httpResponse.body().length() + " bytes, " + downloadSpeed + " KB/s):");
-    if (httpResponse.body().length() > 10 * 1024) {
-      String outputFile = "http3-response.html";
-      Files.write(Paths.get(outputFile), httpResponse.body().getBytes());
-      System.out.println("Response body written to file: " + outputFile);
+    System.out.printf(
+        "-   HTTP body (%d bytes, %.3f Mbit/s):%n", body.getBytes(), body.getThroughputMbps());
+    String text = body.getBodyIfSmall();
+    if (text == null) {
+      System.out.println("Response body written to file: " + body.getFile());
     } else {
-      System.out.println(httpResponse.body());
-    }
-  }
-
-  private static class ScionConnectionBuilder extends QuicClientConnectionImpl.ExtendedBuilder {
-
-    ScionConnectionBuilder() {
-      super();
-    }
-
-    @Override
-    public QuicClientConnectionImpl build() throws SocketException, UnknownHostException {
-      super.socketFactory(ignored -> new ScionDatagramSocket(30041).setRemoteDispatcher(true));
-        super.addressResolver(hostName -> {
-          System.out.println("STUB: ProxySelector.select()");
-          try {
-            InetAddress address = Scion.defaultService().lookupAndGetPath(hostName, 12345, PathPolicy.DEFAULT).getRemoteAddress();
-            System.out.println("STUB: ProxySelector.select() - 2 " + address);
-            return address;
-          } catch (ScionException e) {
-            // SCION resolution does not work, try norma resolution
-          }
-          System.out.println("STUB: ProxySelector.select() - 3 " + InetAddress.getByName(hostName));
-          return InetAddress.getByName(hostName);
-        }
-        );
-        return super.build();
+      System.out.println(text);
     }
   }
 }
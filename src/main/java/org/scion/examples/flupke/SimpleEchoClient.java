@@ -20,12 +20,16 @@ package org.scion.examples.flupke;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import net.luminis.quic.QuicClientConnection;
 import net.luminis.quic.QuicStream;
 import net.luminis.quic.log.SysOutLogger;
+import org.scion.examples.message.MessageChannel;
+import org.scion.examples.path.FailoverDatagramSocket;
 import org.scion.jpan.Constants;
-import org.scion.jpan.ScionDatagramSocket;
 
 /**
  * A sample echo client that runs a very simple echo protocol on top of QUIC.
@@ -35,14 +39,19 @@ import org.scion.jpan.ScionDatagramSocket;
  *
  * The main method requires one argument:
  * - port number of the server (server is assumed to run on localhost)
+ * and optionally:
+ * - "message" to send independent messages with the server's "echo-message" protocol, see MessageChannel
  */
 public class SimpleEchoClient {
 
     private int serverPort;
     private QuicClientConnection connection;
+    private FailoverDatagramSocket socket;
 
-    public static void main(String[] args) throws IOException {
-        args = new String[]{"4443"};
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            args = new String[]{"4443"};
+        }
 
         System.setProperty(Constants.PROPERTY_DAEMON, "127.0.0.29:30255");
 
@@ -56,7 +65,12 @@ public class SimpleEchoClient {
             System.exit(1);
         }
 
-        client.run();
+        if (args.length > 1 && args[1].equals("message")) {
+            client.runMessages();
+        }
+        else {
+            client.run();
+        }
     }
 
     public SimpleEchoClient(int serverPort) {
@@ -67,14 +81,7 @@ public class SimpleEchoClient {
         SysOutLogger log = new SysOutLogger();
         // log.logPackets(true);     // Set various log categories with log.logABC()
 
-        connection = QuicClientConnection.newBuilder()
-                //.uri(URI.create("echo://localhost:" + serverPort))
-                .uri(URI.create("echo://127.0.0.11:" + serverPort))
-                .applicationProtocol("echo")
-                .logger(log)
-                .noServerCertificateCheck()
-                .socketFactory(ignored -> new ScionDatagramSocket())
-                .build();
+        connection = connectionBuilder("echo", log).build();
 
         connection.connect();
 
@@ -82,6 +89,45 @@ public class SimpleEchoClient {
         echo("look, a second request on a separate stream!");
 
         connection.closeAndWait();
+        System.out.println("Path failover: " + socket);
+    }
+
+    public void runMessages() throws IOException, InterruptedException {
+        MessageChannel.Config config = new MessageChannel.Config();
+        connection = connectionBuilder("echo-message", new SysOutLogger())
+                // The server sends its echoes in batches on unidirectional streams.
+                .maxOpenPeerInitiatedUnidirectionalStreams(config.getMaxStreams())
+                .build();
+        CountDownLatch echoes = new CountDownLatch(2);
+        MessageChannel channel = MessageChannel.forClient(connection, (c, message) -> {
+            System.out.println("Message from server: " + StandardCharsets.US_ASCII.decode(message));
+            echoes.countDown();
+        }, config);
+
+        connection.connect();
+
+        channel.send(ByteBuffer.wrap("hello mate!".getBytes(StandardCharsets.US_ASCII)));
+        channel.send(ByteBuffer.wrap("look, a second message, maybe in the same batch!".getBytes(StandardCharsets.US_ASCII)));
+        // Unlike streams, messages can be dropped.
+        if (!echoes.await(5, TimeUnit.SECONDS)) {
+            System.out.println("Not all messages were echoed.");
+        }
+
+        System.out.println("Messages: " + channel.getStats());
+        channel.close();
+        connection.closeAndWait();
+        System.out.println("Path failover: " + socket);
+    }
+
+    private QuicClientConnection.Builder connectionBuilder(String protocol, SysOutLogger log) {
+        return QuicClientConnection.newBuilder()
+                //.uri(URI.create("echo://localhost:" + serverPort))
+                .uri(URI.create("echo://127.0.0.11:" + serverPort))
+                .applicationProtocol(protocol)
+                .logger(log)
+                .noServerCertificateCheck()
+                // Switches to a backup path if the current path fails.
+                .socketFactory(ignored -> socket = new FailoverDatagramSocket(0));
     }
 
     private void echo(String payload) throws IOException {
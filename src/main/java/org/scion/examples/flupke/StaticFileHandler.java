@@ -0,0 +1,340 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.flupke;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.http.HttpHeaders;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import net.luminis.http3.impl.FlupkeVersion;
+import net.luminis.http3.server.HttpRequestHandler;
+import net.luminis.http3.server.HttpServerRequest;
+import net.luminis.http3.server.HttpServerResponse;
+import net.luminis.quic.run.KwikVersion;
+import org.scion.examples.metrics.ServerMetrics;
+
+/**
+ * HTTP/3 request handler that serves files from a directory.
+ *
+ * <p>Files come from a {@link FileCache}: small files from memory, large files are transferred from
+ * disk with {@link FileChannel#transferTo}. Supports conditional requests (ETag, Last-Modified) and
+ * single byte ranges.
+ *
+ * <p>Response headers are set with HttpServerResponse.setHeaders(), which is in the flupke build
+ * pinned in pom.xml but not in flupke 0.5.3.
+ */
+public class StaticFileHandler implements HttpRequestHandler {
+
+  private static final DateTimeFormatter HTTP_DATE =
+      DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+  private final Path wwwDir;
+  private final FileCache cache;
+  private final ServerMetrics metrics;
+
+  public StaticFileHandler(Path wwwDir, ServerMetrics metrics) {
+    this(wwwDir, new FileCache(), metrics);
+  }
+
+  public StaticFileHandler(Path wwwDir, FileCache cache, ServerMetrics metrics) {
+    this.wwwDir = wwwDir.toAbsolutePath().normalize();
+    this.cache = cache;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public void handleRequest(HttpServerRequest request, HttpServerResponse response)
+      throws IOException {
+    long start = System.nanoTime();
+    metrics.streamAccepted();
+    try {
+      long written = handle(request, response);
+      metrics.streamCompleted(start, 0, written);
+    } catch (IOException | RuntimeException e) {
+      metrics.streamFailed();
+      throw e;
+    }
+  }
+
+  private long handle(HttpServerRequest request, HttpServerResponse response) throws IOException {
+    boolean head = request.method().equals("HEAD");
+    if (!head && !request.method().equals("GET")) {
+      return sendStatus(response, 405);
+    }
+    String path = request.path();
+    int query = path.indexOf('?');
+    if (query >= 0) {
+      path = path.substring(0, query);
+    }
+    if (path.equals("/version")) {
+      String versionLine =
+          "Kwik version: "
+              + KwikVersion.getVersion()
+              + "\n"
+              + "Flupke version: "
+              + FlupkeVersion.getVersion()
+              + "\n";
+      byte[] body = versionLine.getBytes(StandardCharsets.UTF_8);
+      response.setStatus(200);
+      setHeaders(response, "text/plain", body.length);
+      if (!head) {
+        response.getOutputStream().write(body);
+      }
+      response.getOutputStream().close();
+      return body.length;
+    }
+
+    String decoded = decodePath(path);
+    if (decoded == null) {
+      return sendStatus(response, 400);
+    }
+    FileCache.Entry file = cache.get(resolve(decoded));
+    if (file == null) {
+      return sendStatus(response, 404);
+    }
+    if (isNotModified(request.headers(), file)) {
+      response.setStatus(304);
+      setHeaders(response, file, null, file.getSize());
+      response.getOutputStream().close();
+      return 0;
+    }
+
+    long from = 0;
+    long to = file.getSize() - 1;
+    Optional<String> range = request.headers().firstValue("range");
+    if (range.isPresent() && matchesIfRange(request.headers(), file)) {
+      long[] r = parseRange(range.get(), file.getSize());
+      if (r == null) {
+        response.setStatus(416);
+        setHeaders(response, file, "bytes */" + file.getSize(), 0);
+        response.getOutputStream().close();
+        return 0;
+      }
+      if (r.length == 2) {
+        from = r[0];
+        to = r[1];
+        response.setStatus(206);
+        String contentRange = "bytes " + from + "-" + to + "/" + file.getSize();
+        setHeaders(response, file, contentRange, to - from + 1);
+      }
+    }
+    if (response.status() != 206) {
+      response.setStatus(200);
+      setHeaders(response, file, null, file.getSize());
+    }
+    long length = to - from + 1;
+    try (OutputStream out = response.getOutputStream()) {
+      if (!head && length > 0) {
+        write(file, from, length, out);
+      }
+    }
+    return head ? 0 : length;
+  }
+
+  /**
+   * Decode the percent-encoded (UTF-8) octets of a request path. Unlike form data, '+' stays '+'.
+   *
+   * @return the decoded path or 'null' if an escape is malformed.
+   */
+  static String decodePath(String path) {
+    if (path.indexOf('%') < 0) {
+      return path;
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(path.length());
+    int i = 0;
+    while (i < path.length()) {
+      int escape = path.indexOf('%', i);
+      if (escape < 0) {
+        escape = path.length();
+      }
+      // Unescaped characters
+      byte[] literal = path.substring(i, escape).getBytes(StandardCharsets.UTF_8);
+      bytes.write(literal, 0, literal.length);
+      if (escape == path.length()) {
+        break;
+      }
+      int high = escape + 2 < path.length() ? Character.digit(path.charAt(escape + 1), 16) : -1;
+      int low = high >= 0 ? Character.digit(path.charAt(escape + 2), 16) : -1;
+      if (low < 0) {
+        return null;
+      }
+      bytes.write(high << 4 | low);
+      i = escape + 3;
+    }
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Map the decoded request path to a file in the www dir. Paths outside of it are not served.
+   */
+  private Path resolve(String path) {
+    String relative = path.startsWith("/") ? path.substring(1) : path;
+    Path file;
+    try {
+      file = wwwDir.resolve(relative).normalize();
+    } catch (InvalidPathException e) {
+      // E.g. a decoded NUL character
+      return wwwDir.resolve("does-not-exist");
+    }
+    if (!file.startsWith(wwwDir)) {
+      return wwwDir.resolve("does-not-exist");
+    }
+    if (Files.isDirectory(file)) {
+      file = file.resolve("index.html");
+    }
+    return file;
+  }
+
+  private static void write(FileCache.Entry file, long from, long length, OutputStream out)
+      throws IOException {
+    byte[] data = file.getData();
+    if (data != null) {
+      out.write(data, (int) from, (int) length);
+      return;
+    }
+    try (FileChannel channel = FileChannel.open(file.getPath(), StandardOpenOption.READ)) {
+      WritableByteChannel target = Channels.newChannel(out);
+      long position = from;
+      long end = from + length;
+      while (position < end) {
+        long n = channel.transferTo(position, end - position, target);
+        if (n <= 0) {
+          // Truncated since the lookup, the Content-Length can't be met anymore.
+          throw new IOException("File changed while sending: " + file.getPath());
+        }
+        position += n;
+      }
+    }
+  }
+
+  private static boolean isNotModified(HttpHeaders headers, FileCache.Entry file) {
+    Optional<String> ifNoneMatch = headers.firstValue("if-none-match");
+    if (ifNoneMatch.isPresent()) {
+      String value = ifNoneMatch.get();
+      return value.equals("*") || value.contains(file.getEtag());
+    }
+    Optional<String> ifModifiedSince = headers.firstValue("if-modified-since");
+    if (ifModifiedSince.isPresent()) {
+      Instant since = parseDate(ifModifiedSince.get());
+      // HTTP dates have a resolution of one second
+      return since != null && file.getLastModifiedMillis() / 1000 <= since.getEpochSecond();
+    }
+    return false;
+  }
+
+  /** A range request with If-Range is only served as range if the file hasn't changed. */
+  private static boolean matchesIfRange(HttpHeaders headers, FileCache.Entry file) {
+    Optional<String> ifRange = headers.firstValue("if-range");
+    if (ifRange.isEmpty()) {
+      return true;
+    }
+    String value = ifRange.get();
+    if (value.startsWith("\"") || value.startsWith("W/")) {
+      return value.equals(file.getEtag());
+    }
+    return value.equals(file.getLastModified());
+  }
+
+  /**
+   * Parse a single byte range.
+   *
+   * @return {from, to}, an empty array if the header should be ignored (e.g. multiple ranges) or
+   *     'null' if the range is not satisfiable.
+   */
+  static long[] parseRange(String header, long size) {
+    if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+      return new long[0];
+    }
+    String spec = header.substring("bytes=".length()).trim();
+    int dash = spec.indexOf('-');
+    if (dash < 0) {
+      return new long[0];
+    }
+    try {
+      long from;
+      long to;
+      if (dash == 0) {
+        // Suffix range: the last n bytes
+        long n = Long.parseLong(spec.substring(1));
+        if (n == 0) {
+          return null;
+        }
+        from = Math.max(0, size - n);
+        to = size - 1;
+      } else {
+        from = Long.parseLong(spec.substring(0, dash));
+        String end = spec.substring(dash + 1);
+        to = end.isEmpty() ? size - 1 : Math.min(Long.parseLong(end), size - 1);
+      }
+      if (from >= size || from > to) {
+        return null;
+      }
+      return new long[] {from, to};
+    } catch (NumberFormatException e) {
+      return new long[0];
+    }
+  }
+
+  private static Instant parseDate(String date) {
+    try {
+      return Instant.from(HTTP_DATE.parse(date));
+    } catch (DateTimeParseException e) {
+      return null;
+    }
+  }
+
+  private static long sendStatus(HttpServerResponse response, int status) throws IOException {
+    response.setStatus(status);
+    response.getOutputStream().close();
+    return 0;
+  }
+
+  private static void setHeaders(HttpServerResponse response, String contentType, long length) {
+    Map<String, List<String>> headers = new HashMap<>();
+    headers.put("content-type", List.of(contentType));
+    headers.put("content-length", List.of(Long.toString(length)));
+    response.setHeaders(HttpHeaders.of(headers, (k, v) -> true));
+  }
+
+  private static void setHeaders(
+      HttpServerResponse response, FileCache.Entry file, String contentRange, long length) {
+    Map<String, List<String>> headers = new HashMap<>();
+    headers.put("content-type", List.of(file.getContentType()));
+    headers.put("content-length", List.of(Long.toString(length)));
+    headers.put("etag", List.of(file.getEtag()));
+    headers.put("last-modified", List.of(file.getLastModified()));
+    headers.put("accept-ranges", List.of("bytes"));
+    if (contentRange != null) {
+      headers.put("content-range", List.of(contentRange));
+    }
+    response.setHeaders(HttpHeaders.of(headers, (k, v) -> true));
+  }
+}
@@ -0,0 +1,258 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.flupke;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.LongAdder;
+import net.luminis.http3.Http3Client;
+import org.scion.examples.kwik.ScionConnectionBuilder;
+import org.scion.examples.kwik.SharedScionSocket;
+
+/**
+ * Measures HTTP/3 bulk throughput against the {@link ThroughputHandler} endpoints of {@link
+ * FlupkeServerHttp3}. Downloads and uploads run concurrently for a fixed time.
+ *
+ * <p>Reports goodput, CPU time per GB and stalls. kwik doesn't expose flow control state, so
+ * stalls are measured at the receiver: a gap of more than 50ms between two body chunks counts as
+ * one stall. With enough bandwidth, these are mostly flow control (or congestion window) limits.
+ *
+ * <p>Arguments: server URL, downloads, uploads, size per transfer (e.g. 100m), duration [s]
+ */
+public class ThroughputBenchmark {
+
+  private static final long STALL_THRESHOLD_NS = 50_000_000L;
+  private static final byte[] CONTENT = new byte[64 * 1024];
+
+  private final LongAdder bytesDownloaded = new LongAdder();
+  private final LongAdder bytesUploaded = new LongAdder();
+  private final LongAdder transfers = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+  private final LongAdder stalls = new LongAdder();
+  private final LongAdder stallNanos = new LongAdder();
+
+  public static void main(String[] args) throws Exception {
+    URI server = URI.create(args.length > 0 ? args[0] : "https://127.0.0.11:4443");
+    int downloads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+    int uploads = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+    String size = args.length > 3 ? args[3] : "100m";
+    Duration duration = Duration.ofSeconds(args.length > 4 ? Long.parseLong(args[4]) : 30);
+    new ThroughputBenchmark().run(server, downloads, uploads, size, duration);
+  }
+
+  public void run(URI server, int downloads, int uploads, String size, Duration duration)
+      throws InterruptedException, IOException {
+    SharedScionSocket socket = new SharedScionSocket();
+    HttpClient client =
+        Http3Client.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .connectionBuilderFactory(() -> new ScionConnectionBuilder().sharedSocket(socket))
+            .build();
+    long uploadSize = parseSize(size);
+    long deadline = System.nanoTime() + duration.toNanos();
+    long cpuStart = processCpuNanos();
+    long start = System.nanoTime();
+
+    List<Thread> workers = new ArrayList<>();
+    for (int i = 0; i < downloads; i++) {
+      HttpRequest request = HttpRequest.newBuilder(server.resolve("/" + size)).GET().build();
+      workers.add(startWorker("download-" + i, deadline, () -> download(client, request)));
+    }
+    for (int i = 0; i < uploads; i++) {
+      HttpRequest.BodyPublisher body =
+          HttpRequest.BodyPublishers.ofInputStream(() -> new GeneratedInputStream(uploadSize));
+      HttpRequest request = HttpRequest.newBuilder(server.resolve("/upload")).POST(body).build();
+      workers.add(startWorker("upload-" + i, deadline, () -> upload(client, request, uploadSize)));
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+
+    double seconds = (System.nanoTime() - start) / 1e9;
+    double cpuSeconds = (processCpuNanos() - cpuStart) / 1e9;
+    long down = bytesDownloaded.sum();
+    long up = bytesUploaded.sum();
+    double gb = (down + up) / 1e9;
+    System.out.printf(
+        "Transfers: %d (%d failed) in %.1f s%n", transfers.sum(), failures.sum(), seconds);
+    System.out.printf("Download: %.1f Mbit/s (%d bytes)%n", down * 8 / seconds / 1e6, down);
+    System.out.printf("Upload:   %.1f Mbit/s (%d bytes)%n", up * 8 / seconds / 1e6, up);
+    System.out.printf(
+        "CPU:      %.2f s per GB (%.1f s total)%n", gb > 0 ? cpuSeconds / gb : 0, cpuSeconds);
+    System.out.printf(
+        "Stalls:   %d (%.0f ms total, >%d ms without data)%n",
+        stalls.sum(), stallNanos.sum() / 1e6, STALL_THRESHOLD_NS / 1_000_000);
+    socket.close();
+  }
+
+  private interface Transfer {
+    void run() throws IOException, InterruptedException;
+  }
+
+  private Thread startWorker(String name, long deadline, Transfer transfer) {
+    Thread t =
+        new Thread(
+            () -> {
+              while (System.nanoTime() < deadline) {
+                try {
+                  transfer.run();
+                  transfers.increment();
+                } catch (IOException e) {
+                  failures.increment();
+                  System.err.println(name + " failed: " + e.getMessage());
+                } catch (InterruptedException e) {
+                  return;
+                }
+              }
+            },
+            name);
+    t.start();
+    return t;
+  }
+
+  private void download(HttpClient client, HttpRequest request)
+      throws IOException, InterruptedException {
+    HttpResponse<Long> response = client.send(request, info -> new CountingSubscriber());
+    if (response.statusCode() != 200) {
+      throw new IOException("HTTP status " + response.statusCode());
+    }
+  }
+
+  private void upload(HttpClient client, HttpRequest request, long size)
+      throws IOException, InterruptedException {
+    HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+    if (response.statusCode() != 200) {
+      throw new IOException("HTTP status " + response.statusCode());
+    }
+    // Count what the server received, not what was offered.
+    long received;
+    try {
+      received = Long.parseLong(response.body().trim());
+    } catch (NumberFormatException e) {
+      throw new IOException("Unexpected upload response: " + response.body());
+    }
+    bytesUploaded.add(received);
+    if (received != size) {
+      throw new IOException("Server received " + received + " of " + size + " bytes");
+    }
+  }
+
+  /** Counts the body bytes and the gaps between body chunks. */
+  private class CountingSubscriber implements HttpResponse.BodySubscriber<Long> {
+    private final CompletableFuture<Long> result = new CompletableFuture<>();
+    private long count = 0;
+    private long lastChunkNanos;
+
+    @Override
+    public CompletionStage<Long> getBody() {
+      return result;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      lastChunkNanos = System.nanoTime();
+      subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> buffers) {
+      long now = System.nanoTime();
+      long gap = now - lastChunkNanos;
+      if (gap > STALL_THRESHOLD_NS) {
+        stalls.increment();
+        stallNanos.add(gap);
+      }
+      lastChunkNanos = now;
+      for (ByteBuffer b : buffers) {
+        count += b.remaining();
+        bytesDownloaded.add(b.remaining());
+      }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      result.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      result.complete(count);
+    }
+  }
+
+  /** Upload body: 'size' bytes of generated data, no allocation per read. */
+  private static class GeneratedInputStream extends InputStream {
+    private long remaining;
+
+    GeneratedInputStream(long size) {
+      this.remaining = size;
+    }
+
+    @Override
+    public int read() {
+      if (remaining <= 0) {
+        return -1;
+      }
+      remaining--;
+      return 'x';
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int n = (int) Math.min(Math.min(len, CONTENT.length), remaining);
+      System.arraycopy(CONTENT, 0, b, off, n);
+      remaining -= n;
+      return n;
+    }
+  }
+
+  private static long parseSize(String size) {
+    char unit = Character.toLowerCase(size.charAt(size.length() - 1));
+    long n = Long.parseLong(size.substring(0, size.length() - 1));
+    switch (unit) {
+      case 'g':
+        return n << 30;
+      case 'm':
+        return n << 20;
+      case 'k':
+        return n << 10;
+      default:
+        throw new IllegalArgumentException("Size must end with k, m or g: " + size);
+    }
+  }
+
+  private static long processCpuNanos() {
+    java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    if (os instanceof com.sun.management.OperatingSystemMXBean) {
+      return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+    }
+    return 0;
+  }
+}
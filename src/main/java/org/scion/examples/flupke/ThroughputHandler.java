@@ -0,0 +1,153 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.flupke;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import net.luminis.http3.server.HttpRequestHandler;
+import net.luminis.http3.server.HttpServerRequest;
+import net.luminis.http3.server.HttpServerResponse;
+import org.scion.examples.metrics.ServerMetrics;
+
+/**
+ * Endpoints for throughput measurements:
+ *
+ * <ul>
+ *   <li>GET /&lt;n&gt;k, /&lt;n&gt;m, /&lt;n&gt;g: a body of n KiB/MiB/GiB of generated data
+ *   <li>POST /upload: reads and discards the request body, responds with the number of bytes
+ * </ul>
+ *
+ * Other requests are passed on to the next handler.
+ *
+ * <p>Downloads are written from one shared, pre-filled buffer, uploads are read into a per-thread
+ * buffer, so neither allocates per request.
+ *
+ * <p>Uploads are read with HttpServerRequest.getInputStream(), which is in the flupke build pinned
+ * in pom.xml but not in flupke 0.5.3.
+ */
+public class ThroughputHandler implements HttpRequestHandler {
+
+  public static final long DEFAULT_MAX_DOWNLOAD_SIZE = 10L * 1024 * 1024 * 1024;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final Pattern SIZE = Pattern.compile("/(\\d{1,18})([kmgKMG])");
+  private static final byte[] CONTENT = new byte[BUFFER_SIZE];
+  private static final ThreadLocal<byte[]> UPLOAD_BUFFER =
+      ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+  static {
+    for (int i = 0; i < CONTENT.length; i++) {
+      CONTENT[i] = (byte) ('a' + i % 26);
+    }
+  }
+
+  private final HttpRequestHandler next;
+  private final long maxDownloadSize;
+  private final ServerMetrics metrics;
+
+  public ThroughputHandler(HttpRequestHandler next, ServerMetrics metrics) {
+    this(next, DEFAULT_MAX_DOWNLOAD_SIZE, metrics);
+  }
+
+  public ThroughputHandler(HttpRequestHandler next, long maxDownloadSize, ServerMetrics metrics) {
+    this.next = next;
+    this.maxDownloadSize = maxDownloadSize;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public void handleRequest(HttpServerRequest request, HttpServerResponse response)
+      throws IOException {
+    String method = request.method();
+    if (method.equals("POST") && request.path().equals("/upload")) {
+      long start = System.nanoTime();
+      metrics.streamAccepted();
+      try {
+        long received = upload(request, response);
+        metrics.streamCompleted(start, received, 0);
+      } catch (IOException | RuntimeException e) {
+        metrics.streamFailed();
+        throw e;
+      }
+      return;
+    }
+    Matcher matcher = SIZE.matcher(request.path());
+    if (method.equals("GET") && matcher.matches()) {
+      long start = System.nanoTime();
+      metrics.streamAccepted();
+      try {
+        long sent = download(matcher, response);
+        metrics.streamCompleted(start, 0, sent);
+      } catch (IOException | RuntimeException e) {
+        metrics.streamFailed();
+        throw e;
+      }
+      return;
+    }
+    next.handleRequest(request, response);
+  }
+
+  private long download(Matcher matcher, HttpServerResponse response) throws IOException {
+    // At most 18 digits, so this can't overflow.
+    long count = Long.parseLong(matcher.group(1));
+    long unit;
+    switch (Character.toLowerCase(matcher.group(2).charAt(0))) {
+      case 'g':
+        unit = 1024 * 1024 * 1024;
+        break;
+      case 'm':
+        unit = 1024 * 1024;
+        break;
+      default:
+        unit = 1024;
+    }
+    // Compare before multiplying, count * unit may overflow.
+    if (count > maxDownloadSize / unit) {
+      response.setStatus(509); // Bandwidth Limit Exceeded
+      response.getOutputStream().close();
+      return 0;
+    }
+    long size = count * unit;
+    response.setStatus(200);
+    long remaining = size;
+    try (OutputStream out = response.getOutputStream()) {
+      while (remaining > 0) {
+        int n = (int) Math.min(CONTENT.length, remaining);
+        out.write(CONTENT, 0, n);
+        remaining -= n;
+      }
+    }
+    return size;
+  }
+
+  private long upload(HttpServerRequest request, HttpServerResponse response) throws IOException {
+    byte[] buffer = UPLOAD_BUFFER.get();
+    long received = 0;
+    try (InputStream in = request.getInputStream()) {
+      int n;
+      while ((n = in.read(buffer)) >= 0) {
+        received += n;
+      }
+    }
+    response.setStatus(200);
+    try (OutputStream out = response.getOutputStream()) {
+      out.write(Long.toString(received).getBytes(StandardCharsets.US_ASCII));
+    }
+    return received;
+  }
+}
@@ -0,0 +1,149 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.framing;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.scion.examples.kwik.BufferPool;
+
+/**
+ * Decodes length-prefixed frames (4 byte length, big endian, then the payload) from a stream.
+ *
+ * <p>Data is read in large chunks into pooled buffers. Frames are returned as slices of these
+ * chunks, so the payload is not copied. A chunk goes back to the pool when all of its frames have
+ * been released. Only the incomplete frame at the end of a chunk is copied into the next chunk;
+ * frames larger than a chunk get a buffer of their own. Not thread safe, but frames can be released
+ * from any thread.
+ */
+public class FrameDecoder {
+
+  public static final int HEADER_SIZE = 4;
+
+  /** A decoded frame. The payload is only valid until release() is called. */
+  public static class Frame {
+    private final ByteBuffer payload;
+    private final Chunk chunk;
+
+    Frame(ByteBuffer payload, Chunk chunk) {
+      this.payload = payload;
+      this.chunk = chunk;
+    }
+
+    public ByteBuffer payload() {
+      return payload;
+    }
+
+    public void release() {
+      chunk.release();
+    }
+  }
+
+  private static class Chunk {
+    final ByteBuffer buffer;
+    final BufferPool pool;
+    // One reference for the decoder and one for each frame
+    final AtomicInteger references = new AtomicInteger(1);
+
+    Chunk(ByteBuffer buffer, BufferPool pool) {
+      this.buffer = buffer;
+      this.pool = pool;
+    }
+
+    void release() {
+      if (references.decrementAndGet() == 0) {
+        pool.release(buffer);
+      }
+    }
+  }
+
+  private final BufferPool pool;
+  private final int maxFrameSize;
+  private Chunk chunk;
+  // Undecoded data is chunk.buffer[start, end)
+  private int start = 0;
+  private int end = 0;
+
+  /**
+   * @param pool pool of heap buffers for the chunks
+   * @param maxFrameSize larger frames are a protocol error
+   */
+  public FrameDecoder(BufferPool pool, int maxFrameSize) {
+    this.pool = pool;
+    this.maxFrameSize = maxFrameSize;
+    this.chunk = new Chunk(pool.acquire(), pool);
+  }
+
+  /**
+   * Read the next frame, blocking until it is complete.
+   *
+   * @return the frame or 'null' at the end of the stream.
+   * @throws EOFException if the stream ends within a frame
+   * @throws ProtocolException if the frame is larger than the maximum frame size
+   */
+  public Frame next(InputStream in) throws IOException {
+    while (true) {
+      int available = end - start;
+      int needed = HEADER_SIZE;
+      if (available >= HEADER_SIZE) {
+        int length = chunk.buffer.getInt(start);
+        if (length < 0 || length > maxFrameSize) {
+          throw new ProtocolException("Invalid frame size " + length + ", max " + maxFrameSize);
+        }
+        needed = HEADER_SIZE + length;
+        if (available >= needed) {
+          ByteBuffer payload = chunk.buffer.duplicate();
+          payload.limit(start + needed).position(start + HEADER_SIZE);
+          start += needed;
+          chunk.references.incrementAndGet();
+          return new Frame(payload.slice(), chunk);
+        }
+      }
+      if (chunk.buffer.capacity() - start < needed) {
+        nextChunk(needed);
+      }
+      ByteBuffer buffer = chunk.buffer;
+      int n = in.read(buffer.array(), buffer.arrayOffset() + end, buffer.capacity() - end);
+      if (n < 0) {
+        if (available == 0) {
+          return null;
+        }
+        throw new EOFException("Stream ended within a frame");
+      }
+      end += n;
+    }
+  }
+
+  /** Continue in a new chunk, taking the incomplete frame along. */
+  private void nextChunk(int needed) {
+    Chunk next = new Chunk(pool.acquire(needed), pool);
+    int available = end - start;
+    ByteBuffer remaining = chunk.buffer.duplicate();
+    remaining.limit(end).position(start);
+    next.buffer.put(remaining);
+    chunk.release();
+    chunk = next;
+    start = 0;
+    end = available;
+  }
+
+  /** Release the decoder's chunk. Frames that are still in use stay valid. */
+  public void close() {
+    chunk.release();
+  }
+}
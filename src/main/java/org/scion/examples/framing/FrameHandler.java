@@ -0,0 +1,43 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.framing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Application logic of a {@link FramedProtocol}. The callbacks for one stream are called in order,
+ * never concurrently, and never on kwik's receiver thread.
+ *
+ * <p>Callbacks may block, e.g. in {@link FramedStream#send(ByteBuffer)} while the peer doesn't
+ * read. A blocked callback holds its executor thread, so a handler that sends must run on an
+ * executor that grows with the number of streams (e.g. a cached thread pool). With a small fixed
+ * pool, a few peers that stop reading stall the streams of all other peers.
+ */
+public interface FrameHandler {
+
+  default void onOpened(FramedStream stream) throws IOException {}
+
+  /**
+   * @param frame the payload. It is only valid during this call and must not be modified.
+   */
+  void onFrame(FramedStream stream, ByteBuffer frame) throws IOException;
+
+  /** The peer has closed its sending direction of the stream. */
+  default void onClosed(FramedStream stream) throws IOException {}
+
+  /** Reading or handling failed, no more callbacks follow for this stream. */
+  default void onError(FramedStream stream, Exception e) {}
+}
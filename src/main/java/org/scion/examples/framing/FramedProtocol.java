@@ -0,0 +1,226 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.framing;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import net.luminis.quic.QuicConnection;
+import net.luminis.quic.QuicStream;
+import net.luminis.quic.server.ApplicationProtocolConnection;
+import net.luminis.quic.server.ApplicationProtocolConnectionFactory;
+import org.scion.examples.kwik.BufferPool;
+
+/**
+ * A custom ALPN protocol for {@link net.luminis.quic.server.ServerConnector} whose streams carry
+ * length-prefixed frames:
+ *
+ * <pre>
+ *   connector.registerApplicationProtocol("myprotocol", new FramedProtocol(handler, executor));
+ * </pre>
+ *
+ * <p>kwik calls acceptPeerInitiatedStream() on its receiver thread, so nothing is read there.
+ * Each stream gets a reader thread (kwik's stream input is blocking) that decodes frames with a
+ * {@link FrameDecoder} and hands them to the {@link FrameHandler} on the handler executor. The
+ * callbacks of one stream run in order.
+ *
+ * <p>Flow control per stream: at most maxQueuedFrames frames of a stream are decoded but not yet
+ * handled. When a handler falls behind, the reader stops reading, so the stream's QUIC flow
+ * control window closes and the peer has to wait. Other streams are not affected.
+ */
+public class FramedProtocol implements ApplicationProtocolConnectionFactory {
+
+  public static class Config {
+    private int maxFrameSize = 1024 * 1024;
+    private int maxQueuedFrames = 16;
+    private int maxStreams = 100;
+    private int maxUnidirectionalStreams = 0;
+    private int chunkSize = 64 * 1024;
+
+    /** Larger frames are a protocol error and end the stream. */
+    public Config maxFrameSize(int size) {
+      this.maxFrameSize = size;
+      return this;
+    }
+
+    /** Maximum number of frames per stream that are decoded but not yet handled. */
+    public Config maxQueuedFrames(int frames) {
+      this.maxQueuedFrames = frames;
+      return this;
+    }
+
+    /** Maximum number of concurrent peer initiated bidirectional streams per connection. */
+    public Config maxStreams(int streams) {
+      this.maxStreams = streams;
+      return this;
+    }
+
+    /**
+     * Maximum number of concurrent peer initiated unidirectional streams per connection. Default is
+     * 0, because the handler can't reply on these streams.
+     */
+    public Config maxUnidirectionalStreams(int streams) {
+      this.maxUnidirectionalStreams = streams;
+      return this;
+    }
+
+    /** Size of the pooled buffers that data is read into. */
+    public Config chunkSize(int size) {
+      this.chunkSize = size;
+      return this;
+    }
+  }
+
+  private final FrameHandler handler;
+  private final Executor executor;
+  private final Config config;
+  private final BufferPool pool;
+  private final ExecutorService readers =
+      Executors.newCachedThreadPool(
+          r -> {
+            Thread t = new Thread(r, "frame-reader");
+            t.setDaemon(true);
+            return t;
+          });
+
+  public FramedProtocol(FrameHandler handler, Executor executor) {
+    this(handler, executor, new Config());
+  }
+
+  /**
+   * @param handler the application logic
+   * @param executor runs the handler callbacks
+   */
+  public FramedProtocol(FrameHandler handler, Executor executor, Config config) {
+    this.handler = handler;
+    this.executor = executor;
+    this.config = config;
+    this.pool = new BufferPool(config.chunkSize, 1024, false);
+  }
+
+  @Override
+  public ApplicationProtocolConnection createConnection(
+      String protocol, QuicConnection quicConnection) {
+    return new ApplicationProtocolConnection() {
+      @Override
+      public void acceptPeerInitiatedStream(QuicStream stream) {
+        readers.execute(() -> read(new FramedStream(stream, quicConnection)));
+      }
+    };
+  }
+
+  @Override
+  public int maxConcurrentPeerInitiatedUnidirectionalStreams() {
+    return config.maxUnidirectionalStreams;
+  }
+
+  @Override
+  public int maxConcurrentPeerInitiatedBidirectionalStreams() {
+    return config.maxStreams;
+  }
+
+  private void read(FramedStream stream) {
+    SerialExecutor callbacks = new SerialExecutor(executor);
+    Semaphore queued = new Semaphore(config.maxQueuedFrames);
+    AtomicBoolean failed = new AtomicBoolean();
+    FrameDecoder decoder = new FrameDecoder(pool, config.maxFrameSize);
+    callbacks.execute(() -> call(stream, failed, () -> handler.onOpened(stream)));
+    try {
+      while (!failed.get()) {
+        queued.acquire();
+        FrameDecoder.Frame frame = decoder.next(stream.getQuicStream().getInputStream());
+        if (frame == null) {
+          callbacks.execute(() -> call(stream, failed, () -> handler.onClosed(stream)));
+          return;
+        }
+        callbacks.execute(
+            () -> {
+              try {
+                call(stream, failed, () -> handler.onFrame(stream, frame.payload()));
+              } finally {
+                frame.release();
+                queued.release();
+              }
+            });
+      }
+    } catch (IOException e) {
+      callbacks.execute(() -> fail(stream, failed, e));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      decoder.close();
+    }
+  }
+
+  private interface Callback {
+    void run() throws IOException;
+  }
+
+  private void call(FramedStream stream, AtomicBoolean failed, Callback callback) {
+    if (failed.get()) {
+      return;
+    }
+    try {
+      callback.run();
+    } catch (IOException | RuntimeException e) {
+      fail(stream, failed, e);
+    }
+  }
+
+  private void fail(FramedStream stream, AtomicBoolean failed, Exception e) {
+    if (failed.compareAndSet(false, true)) {
+      handler.onError(stream, e);
+    }
+  }
+
+  /** Runs tasks one after the other, in submission order, on a shared executor. */
+  private static class SerialExecutor implements Executor {
+    private final Executor executor;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    SerialExecutor(Executor executor) {
+      this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+      tasks.add(task);
+      schedule();
+    }
+
+    private void schedule() {
+      if (running.compareAndSet(false, true)) {
+        executor.execute(this::drain);
+      }
+    }
+
+    private void drain() {
+      Runnable task;
+      while ((task = tasks.poll()) != null) {
+        task.run();
+      }
+      running.set(false);
+      if (!tasks.isEmpty()) {
+        schedule();
+      }
+    }
+  }
+}
@@ -0,0 +1,110 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.framing;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import net.luminis.quic.QuicConnection;
+import net.luminis.quic.QuicStream;
+
+/**
+ * A QUIC stream that carries length-prefixed frames, see {@link FrameDecoder}. Sending is thread
+ * safe. Handlers can keep per-stream state in the attachment.
+ */
+public class FramedStream {
+
+  private static final int COPY_BUFFER_SIZE = 16 * 1024;
+
+  private final QuicStream stream;
+  private final QuicConnection connection;
+  private final OutputStream out;
+  private final byte[] header = new byte[FrameDecoder.HEADER_SIZE];
+  private byte[] copyBuffer;
+  private volatile Object attachment;
+
+  public FramedStream(QuicStream stream) {
+    this(stream, null);
+  }
+
+  /**
+   * @param stream the stream
+   * @param connection the connection of the stream, may be 'null'
+   */
+  public FramedStream(QuicStream stream, QuicConnection connection) {
+    this.stream = stream;
+    this.connection = connection;
+    this.out = stream.getOutputStream();
+  }
+
+  public QuicStream getQuicStream() {
+    return stream;
+  }
+
+  /**
+   * @return the connection of this stream, e.g. for opening more streams to the peer. May be
+   *     'null'.
+   */
+  public QuicConnection getConnection() {
+    return connection;
+  }
+
+  public int getStreamId() {
+    return stream.getStreamId();
+  }
+
+  public Object getAttachment() {
+    return attachment;
+  }
+
+  public void setAttachment(Object attachment) {
+    this.attachment = attachment;
+  }
+
+  /**
+   * Send the remaining bytes of 'payload' as one frame. Blocks while the stream's flow control
+   * window is exhausted.
+   */
+  public synchronized void send(ByteBuffer payload) throws IOException {
+    int length = payload.remaining();
+    header[0] = (byte) (length >>> 24);
+    header[1] = (byte) (length >>> 16);
+    header[2] = (byte) (length >>> 8);
+    header[3] = (byte) length;
+    out.write(header);
+    if (payload.hasArray()) {
+      out.write(payload.array(), payload.arrayOffset() + payload.position(), length);
+      payload.position(payload.limit());
+      return;
+    }
+    if (copyBuffer == null) {
+      copyBuffer = new byte[COPY_BUFFER_SIZE];
+    }
+    while (payload.hasRemaining()) {
+      int n = Math.min(copyBuffer.length, payload.remaining());
+      payload.get(copyBuffer, 0, n);
+      out.write(copyBuffer, 0, n);
+    }
+  }
+
+  public void send(byte[] payload) throws IOException {
+    send(ByteBuffer.wrap(payload));
+  }
+
+  /** Close the sending direction of the stream. */
+  public synchronized void close() throws IOException {
+    out.close();
+  }
+}
@@ -0,0 +1,119 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.kwik;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.util.List;
+import org.scion.examples.path.MultipathDatagramSocket;
+import org.scion.jpan.Path;
+import org.scion.jpan.PathPolicy;
+import org.scion.jpan.ScionDatagramSocket;
+
+/**
+ * A SCION socket that reports received packets with the address the application sent to.
+ *
+ * <p>kwik drops packets that come from a different address than the server address. If the
+ * server address is the DNS A/AAAA address of a host, but the host's SCION address (TXT "scion=")
+ * is different, all responses would be dropped. This socket remembers the SCION address of every
+ * destination it sends to and rewrites the source address of received packets accordingly.
+ *
+ * <p>Optionally, paths are taken from a {@link MultipathDatagramSocket.PathSource}, e.g. a {@link
+ * PathPrefetcher}, instead of being looked up by the socket.
+ */
+public class AddressMappingDatagramSocket extends ScionDatagramSocket {
+
+  private final ReverseAddressMap addressMap;
+  private final MultipathDatagramSocket.PathSource pathSource;
+  private final PathPolicy pathPolicy;
+
+  public AddressMappingDatagramSocket(int port) throws SocketException {
+    this(port, new ReverseAddressMap());
+  }
+
+  public AddressMappingDatagramSocket(int port, ReverseAddressMap addressMap)
+      throws SocketException {
+    this(port, addressMap, null, PathPolicy.DEFAULT);
+  }
+
+  /**
+   * @param pathSource provides the paths of destinations, 'null' to let the socket look them up
+   * @param pathPolicy chooses one of the paths of the path source
+   */
+  public AddressMappingDatagramSocket(
+      int port, MultipathDatagramSocket.PathSource pathSource, PathPolicy pathPolicy)
+      throws SocketException {
+    this(port, new ReverseAddressMap(), pathSource, pathPolicy);
+  }
+
+  private AddressMappingDatagramSocket(
+      int port,
+      ReverseAddressMap addressMap,
+      MultipathDatagramSocket.PathSource pathSource,
+      PathPolicy pathPolicy)
+      throws SocketException {
+    super(port);
+    this.addressMap = addressMap;
+    this.pathSource = pathSource;
+    this.pathPolicy = pathPolicy;
+  }
+
+  public ReverseAddressMap getAddressMap() {
+    return addressMap;
+  }
+
+  @Override
+  public void send(DatagramPacket packet) throws IOException {
+    SocketAddress destination = packet.getSocketAddress();
+    if (pathSource != null && destination instanceof InetSocketAddress) {
+      List<Path> paths = pathSource.getPaths((InetSocketAddress) destination);
+      if (paths != null && !paths.isEmpty()) {
+        Path path = pathPolicy.filter(paths);
+        send(packet, path);
+        learn(path, (InetSocketAddress) destination);
+        return;
+      }
+    }
+    super.send(packet);
+    if (destination instanceof InetSocketAddress) {
+      Path path = getCachedPath((InetSocketAddress) destination);
+      if (path != null) {
+        learn(path, (InetSocketAddress) destination);
+      }
+    }
+  }
+
+  @Override
+  public void receive(DatagramPacket packet) throws IOException {
+    super.receive(packet);
+    InetAddress identity = addressMap.get(packet.getAddress());
+    if (identity != null) {
+      packet.setAddress(identity);
+    }
+  }
+
+  /** Remember the SCION address of a destination. Subclasses call this for every sent packet. */
+  protected void learn(Path path, InetSocketAddress destination) {
+    InetAddress identity = destination.getAddress();
+    InetAddress scionAddress = path.getRemoteAddress();
+    if (!scionAddress.equals(identity) && !identity.equals(addressMap.get(scionAddress))) {
+      addressMap.put(scionAddress, identity);
+    }
+  }
+}
@@ -0,0 +1,307 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.kwik;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.scion.jpan.ScionDatagramSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A ScionDatagramSocket for kwik's ServerConnector that moves the SCION I/O off kwik's threads.
+ *
+ * <p>A drain thread keeps receiving datagrams into a pool of reusable buffers, so kwik's receiver
+ * thread can take several packets per wakeup without blocking on the socket. Outgoing packets are
+ * copied into pooled buffers and flushed in bursts by a sender thread. Java's DatagramSocket has no
+ * recvmmsg()/sendmmsg(), so every datagram is still one call into the SCION socket; what is batched
+ * is the hand-over between threads. The counters report packets per wakeup and per flush.
+ *
+ * <p>All packets are sent by the sender thread, in the order of the send() calls. When the pool is
+ * exhausted, send() waits for a free buffer.
+ *
+ * <p>What this can and can't do: it doesn't save system calls and it adds a thread hand-over and a
+ * copy per packet in each direction. It can only help when kwik's receiver thread is the
+ * bottleneck and bursts overflow the kernel buffer, because the drain thread keeps receiving while
+ * kwik processes a packet. With a spare core per process, that takes load off kwik's threads. On a
+ * single core, or when the socket itself is the limit, expect it to be slower than a plain
+ * ScionDatagramSocket. It is not a general packets/s improvement; measure with
+ * PacketRateBenchmark ("plain" vs "batching") on the target machine before using it.
+ *
+ * <p>Usage: <code>ServerConnector.builder().withSocket(new BatchingDatagramSocket(port))</code>
+ */
+public class BatchingDatagramSocket extends ScionDatagramSocket {
+
+  private static final Logger LOG = LoggerFactory.getLogger(BatchingDatagramSocket.class);
+  public static final int DEFAULT_BATCH_SIZE = 64;
+  private static final int MAX_PACKET_SIZE = 2048;
+  private static final int SOCKET_BUFFER_SIZE = 4 * 1024 * 1024;
+
+  private final int batchSize;
+  private final BlockingQueue<DatagramPacket> rcvFree;
+  private final BlockingQueue<DatagramPacket> rcvFilled;
+  private final BlockingQueue<DatagramPacket> sndFree;
+  private final BlockingQueue<DatagramPacket> sndFilled;
+  private final DatagramPacket rcvOverflow = newPacket();
+  private final Thread drainThread;
+  private final Thread flushThread;
+  private volatile boolean closing = false;
+
+  private final LongAdder packetsReceived = new LongAdder();
+  private final LongAdder receiveWakeups = new LongAdder();
+  private final LongAdder receiveDrops = new LongAdder();
+  private final LongAdder packetsSent = new LongAdder();
+  private final LongAdder sendFlushes = new LongAdder();
+  private final LongAdder sendWaits = new LongAdder();
+
+  public BatchingDatagramSocket(int port) throws SocketException {
+    this(port, DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * @param port local port
+   * @param batchSize number of buffers in each of the send and receive pools. This is the maximum
+   *     number of packets that can be handed over per wakeup.
+   */
+  public BatchingDatagramSocket(int port, int batchSize) throws SocketException {
+    super(port);
+    this.batchSize = batchSize;
+    this.rcvFree = new ArrayBlockingQueue<>(batchSize);
+    this.rcvFilled = new ArrayBlockingQueue<>(batchSize);
+    this.sndFree = new ArrayBlockingQueue<>(batchSize);
+    this.sndFilled = new ArrayBlockingQueue<>(batchSize);
+    for (int i = 0; i < batchSize; i++) {
+      rcvFree.add(newPacket());
+      sndFree.add(newPacket());
+    }
+    try {
+      setReceiveBufferSize(SOCKET_BUFFER_SIZE);
+      setSendBufferSize(SOCKET_BUFFER_SIZE);
+    } catch (SocketException e) {
+      LOG.warn("Could not enlarge socket buffers: {}", e.getMessage());
+    }
+    drainThread = new Thread(this::drainLoop, "scion-batch-receive-" + port);
+    drainThread.setDaemon(true);
+    drainThread.start();
+    flushThread = new Thread(this::flushLoop, "scion-batch-send-" + port);
+    flushThread.setDaemon(true);
+    flushThread.start();
+  }
+
+  private static DatagramPacket newPacket() {
+    return new DatagramPacket(new byte[MAX_PACKET_SIZE], MAX_PACKET_SIZE);
+  }
+
+  @Override
+  public void receive(DatagramPacket packet) throws IOException {
+    DatagramPacket slot = rcvFilled.poll();
+    if (slot == null) {
+      receiveWakeups.increment();
+      slot = awaitPacket();
+    }
+    int len = Math.min(slot.getLength(), packet.getData().length - packet.getOffset());
+    System.arraycopy(slot.getData(), 0, packet.getData(), packet.getOffset(), len);
+    packet.setLength(len);
+    packet.setSocketAddress(slot.getSocketAddress());
+    slot.setLength(MAX_PACKET_SIZE);
+    rcvFree.offer(slot);
+  }
+
+  private DatagramPacket awaitPacket() throws IOException {
+    int soTimeout = getSoTimeout();
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(soTimeout);
+    while (true) {
+      if (closing) {
+        throw new SocketException("Socket closed");
+      }
+      DatagramPacket slot;
+      try {
+        slot = rcvFilled.poll(100, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SocketException("Interrupted");
+      }
+      if (slot != null) {
+        return slot;
+      }
+      if (soTimeout > 0 && System.nanoTime() - deadline > 0) {
+        throw new SocketTimeoutException("Receive timed out");
+      }
+    }
+  }
+
+  private void drainLoop() {
+    while (!closing) {
+      DatagramPacket slot = rcvFree.poll();
+      boolean overflow = slot == null;
+      if (overflow) {
+        // kwik is falling behind, receive anyway to keep the kernel buffer empty.
+        slot = rcvOverflow;
+      }
+      try {
+        super.receive(slot);
+      } catch (SocketTimeoutException e) {
+        if (!overflow) {
+          rcvFree.offer(slot);
+        }
+        continue;
+      } catch (IOException e) {
+        if (!closing) {
+          LOG.error("Receiving failed: {}", e.getMessage());
+        }
+        return;
+      }
+      if (overflow) {
+        receiveDrops.increment();
+        slot.setLength(MAX_PACKET_SIZE);
+      } else {
+        packetsReceived.increment();
+        rcvFilled.offer(slot);
+      }
+    }
+  }
+
+  @Override
+  public void send(DatagramPacket packet) throws IOException {
+    if (closing) {
+      throw new SocketException("Socket closed");
+    }
+    DatagramPacket slot = sndFree.poll();
+    if (slot == null) {
+      // Pool exhausted: wait rather than send on this thread, which could reorder packets.
+      sendWaits.increment();
+      slot = awaitFreeSlot();
+    }
+    if (packet.getLength() > MAX_PACKET_SIZE) {
+      // Oversized packet: replace the pooled buffer, see flushLoop()
+      slot = new DatagramPacket(new byte[packet.getLength()], packet.getLength());
+    }
+    System.arraycopy(
+        packet.getData(), packet.getOffset(), slot.getData(), 0, packet.getLength());
+    slot.setLength(packet.getLength());
+    slot.setSocketAddress(packet.getSocketAddress());
+    sndFilled.offer(slot);
+  }
+
+  private DatagramPacket awaitFreeSlot() throws IOException {
+    while (true) {
+      if (closing) {
+        throw new SocketException("Socket closed");
+      }
+      try {
+        DatagramPacket slot = sndFree.poll(100, TimeUnit.MILLISECONDS);
+        if (slot != null) {
+          return slot;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SocketException("Interrupted");
+      }
+    }
+  }
+
+  private void flushLoop() {
+    List<DatagramPacket> batch = new ArrayList<>(batchSize);
+    while (!closing) {
+      try {
+        DatagramPacket first = sndFilled.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+      } catch (InterruptedException e) {
+        return;
+      }
+      sndFilled.drainTo(batch);
+      sendFlushes.increment();
+      for (DatagramPacket slot : batch) {
+        try {
+          super.send(slot);
+          packetsSent.increment();
+        } catch (IOException e) {
+          if (!closing) {
+            LOG.error("Sending failed: {}", e.getMessage());
+          }
+        }
+        if (slot.getData().length != MAX_PACKET_SIZE) {
+          // It was an oversized packet, put a regular buffer back into the pool.
+          slot = newPacket();
+        }
+        slot.setLength(MAX_PACKET_SIZE);
+        sndFree.offer(slot);
+      }
+      batch.clear();
+    }
+  }
+
+  @Override
+  public void close() {
+    closing = true;
+    flushThread.interrupt();
+    super.close();
+  }
+
+  public long getPacketsReceived() {
+    return packetsReceived.sum();
+  }
+
+  public long getPacketsSent() {
+    return packetsSent.sum();
+  }
+
+  /**
+   * @return number of received packets that were discarded because kwik did not keep up.
+   */
+  public long getReceiveDrops() {
+    return receiveDrops.sum();
+  }
+
+  public double getPacketsPerReceiveWakeup() {
+    long wakeups = receiveWakeups.sum();
+    return wakeups == 0 ? 0 : (double) packetsReceived.sum() / wakeups;
+  }
+
+  /**
+   * @return number of send() calls that had to wait for a free buffer.
+   */
+  public long getSendWaits() {
+    return sendWaits.sum();
+  }
+
+  public double getPacketsPerFlush() {
+    long flushes = sendFlushes.sum();
+    return flushes == 0 ? 0 : (double) packetsSent.sum() / flushes;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "received=%d (%.1f/wakeup, %d dropped), sent=%d (%.1f/flush, %d waits)",
+        getPacketsReceived(),
+        getPacketsPerReceiveWakeup(),
+        getReceiveDrops(),
+        getPacketsSent(),
+        getPacketsPerFlush(),
+        getSendWaits());
+  }
+}
@@ -0,0 +1,82 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.kwik;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread-safe pool of equally sized ByteBuffers. Requests for larger buffers and buffers that are
+ * released when the pool is full are left to the garbage collector.
+ */
+public class BufferPool {
+
+  private final int bufferSize;
+  private final int maxPooled;
+  private final boolean direct;
+  private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pooled = new AtomicInteger();
+
+  /**
+   * @param bufferSize capacity of the pooled buffers
+   * @param maxPooled maximum number of idle buffers that are kept
+   * @param direct whether to allocate direct buffers. Heap buffers have an accessible array.
+   */
+  public BufferPool(int bufferSize, int maxPooled, boolean direct) {
+    this.bufferSize = bufferSize;
+    this.maxPooled = maxPooled;
+    this.direct = direct;
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  /**
+   * @return a cleared buffer with a capacity of at least getBufferSize().
+   */
+  public ByteBuffer acquire() {
+    return acquire(bufferSize);
+  }
+
+  /**
+   * @return a cleared buffer with a capacity of at least 'minSize'.
+   */
+  public ByteBuffer acquire(int minSize) {
+    if (minSize <= bufferSize) {
+      ByteBuffer buffer = free.poll();
+      if (buffer != null) {
+        pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+      }
+    }
+    int size = Math.max(minSize, bufferSize);
+    return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+  }
+
+  /** Return a buffer to the pool. The buffer must not be used afterwards. */
+  public void release(ByteBuffer buffer) {
+    if (buffer == null || buffer.capacity() != bufferSize || buffer.isDirect() != direct) {
+      return;
+    }
+    if (pooled.incrementAndGet() <= maxPooled) {
+      free.offer(buffer);
+    } else {
+      pooled.decrementAndGet();
+    }
+  }
+}
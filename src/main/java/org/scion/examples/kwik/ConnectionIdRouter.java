@@ -0,0 +1,166 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.kwik;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maps QUIC connection IDs to the owner (shard or connection) that issued them.
+ *
+ * <p>kwik chooses its connection IDs randomly and does not let us encode a shard index in them.
+ * Instead, the router learns which owner issued a connection ID by looking at the Source
+ * Connection ID of outgoing long header packets (Initial, Handshake, 0-RTT). Later packets from
+ * the peer carry that ID as Destination Connection ID and are routed to the same owner. Connection
+ * IDs that are only announced in (encrypted) NEW_CONNECTION_ID frames cannot be learned; for these
+ * {@link #route} returns -1 and the caller has to fall back, e.g. to the source address.
+ *
+ * <p>Owners can be removed with {@link #forget}. The packets of a closed connection don't tell us
+ * that it was closed (CONNECTION_CLOSE is encrypted), so connection IDs that have not been used
+ * for longer than the idle timeout are removed as well. The idle timeout should be longer than the
+ * QUIC idle timeout of the connections.
+ */
+public class ConnectionIdRouter {
+
+  public static final int DEFAULT_CONNECTION_ID_LENGTH = 8;
+  public static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(2);
+  private static final long EXPIRY_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private static class Entry {
+    final int owner;
+    volatile long lastUsedNanos;
+
+    Entry(int owner, long now) {
+      this.owner = owner;
+      this.lastUsedNanos = now;
+    }
+  }
+
+  private final int localCidLength;
+  private final long idleTimeoutNanos;
+  private final ConcurrentHashMap<Long, Entry> owners = new ConcurrentHashMap<>();
+  private final AtomicLong nextExpiryNanos = new AtomicLong(System.nanoTime());
+
+  /**
+   * @param localCidLength length of the connection IDs that the local endpoint issues. This is
+   *     needed to parse short header packets, which do not contain a length field.
+   */
+  public ConnectionIdRouter(int localCidLength) {
+    this(localCidLength, DEFAULT_IDLE_TIMEOUT);
+  }
+
+  /**
+   * @param localCidLength length of the connection IDs that the local endpoint issues
+   * @param idleTimeout connection IDs that have not been seen for this long are forgotten
+   */
+  public ConnectionIdRouter(int localCidLength, Duration idleTimeout) {
+    this.localCidLength = localCidLength;
+    this.idleTimeoutNanos = idleTimeout.toNanos();
+  }
+
+  /**
+   * Learn the connection ID of an outgoing packet.
+   *
+   * @param owner the owner that sends the packet
+   */
+  public void learn(byte[] data, int offset, int length, int owner) {
+    if (length < 7 || (data[offset] & 0x80) == 0) {
+      return; // Short header packets only contain the peer's connection ID
+    }
+    int dcidLen = data[offset + 5] & 0xFF;
+    int scidLenPos = offset + 6 + dcidLen;
+    if (scidLenPos >= offset + length) {
+      return;
+    }
+    int scidLen = data[scidLenPos] & 0xFF;
+    if (scidLen == 0 || scidLenPos + 1 + scidLen > offset + length) {
+      return;
+    }
+    long now = System.nanoTime();
+    owners.put(toKey(data, scidLenPos + 1, scidLen), new Entry(owner, now));
+    expireIdle(now);
+  }
+
+  /**
+   * @return the owner of the incoming packet's destination connection ID or -1 if unknown.
+   */
+  public int route(byte[] data, int offset, int length) {
+    if (length < 1) {
+      return -1;
+    }
+    int cidPos;
+    int cidLen;
+    if ((data[offset] & 0x80) != 0) {
+      if (length < 6) {
+        return -1;
+      }
+      cidLen = data[offset + 5] & 0xFF;
+      cidPos = offset + 6;
+    } else {
+      cidLen = localCidLength;
+      cidPos = offset + 1;
+    }
+    if (cidLen == 0 || cidPos + cidLen > offset + length) {
+      return -1;
+    }
+    Entry entry = owners.get(toKey(data, cidPos, cidLen));
+    if (entry == null) {
+      return -1;
+    }
+    long now = System.nanoTime();
+    entry.lastUsedNanos = now;
+    expireIdle(now);
+    return entry.owner;
+  }
+
+  /** Forget all connection IDs of an owner, e.g. when a connection is closed. */
+  public void forget(int owner) {
+    owners.values().removeIf(e -> e.owner == owner);
+  }
+
+  /**
+   * @return the number of known connection IDs.
+   */
+  public int size() {
+    return owners.size();
+  }
+
+  /** Remove idle connection IDs, at most once per second. */
+  private void expireIdle(long now) {
+    long next = nextExpiryNanos.get();
+    if (now - next < 0 || !nextExpiryNanos.compareAndSet(next, now + EXPIRY_INTERVAL_NANOS)) {
+      return;
+    }
+    owners.values().removeIf(e -> now - e.lastUsedNanos > idleTimeoutNanos);
+  }
+
+  private static Long toKey(byte[] data, int pos, int len) {
+    long key = 0;
+    if (len <= 8) {
+      for (int i = 0; i < len; i++) {
+        key = (key << 8) | (data[pos + i] & 0xFF);
+      }
+      return key;
+    }
+    // Connection IDs can be up to 20 bytes, use FNV-1a for the longer ones.
+    key = 0xcbf29ce484222325L;
+    for (int i = 0; i < len; i++) {
+      key = (key ^ (data[pos + i] & 0xFF)) * 0x100000001b3L;
+    }
+    return key;
+  }
+}
@@ -0,0 +1,199 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.kwik;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import net.luminis.quic.QuicClientConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Happy eyeballs for QUIC: races a handshake over SCION against a handshake over plain UDP/IP and
+ * keeps the connection that is established first.
+ *
+ * <p>The preferred transport starts immediately, the other one after a short stagger or as soon as
+ * the preferred one fails. The winner is remembered per destination and is preferred for the next
+ * connection. The time to connect is therefore roughly min(SCION, IP + stagger) instead of SCION
+ * timeout + IP.
+ *
+ * <p>The SCION attempt fails immediately if the host has no SCION address, it never falls back to
+ * IP by itself. The reported winner is therefore the transport that is actually used.
+ */
+public class ConnectionRacer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ConnectionRacer.class);
+  public static final Duration DEFAULT_STAGGER = Duration.ofMillis(50);
+
+  public enum Transport {
+    SCION,
+    IP
+  }
+
+  private final Duration stagger;
+  private final ScionAddressResolver resolver;
+  private final Map<String, Transport> winners = new ConcurrentHashMap<>();
+  // Each attempt blocks a thread for a whole handshake, so concurrent races must not share a
+  // fixed number of threads. The scheduler only starts the staggered attempts.
+  private final ExecutorService attempts =
+      Executors.newCachedThreadPool(
+          r -> {
+            Thread t = new Thread(r, "connection-racer");
+            t.setDaemon(true);
+            return t;
+          });
+  private final ScheduledExecutorService scheduler =
+      Executors.newSingleThreadScheduledExecutor(
+          r -> {
+            Thread t = new Thread(r, "connection-racer-stagger");
+            t.setDaemon(true);
+            return t;
+          });
+
+  public ConnectionRacer() {
+    this(DEFAULT_STAGGER, ScionAddressResolver.defaultResolver());
+  }
+
+  public ConnectionRacer(Duration stagger, ScionAddressResolver resolver) {
+    this.stagger = stagger;
+    this.resolver = resolver;
+  }
+
+  /**
+   * @return the transport that won the last race to the given destination or 'null'.
+   */
+  public Transport getWinner(URI uri) {
+    return winners.get(key(uri));
+  }
+
+  /**
+   * Connect to the given URI.
+   *
+   * @param uri destination
+   * @param configurer applies settings such as ALPN, logger or timeouts to both builders. The URI
+   *     and the socket factory are set by the racer.
+   * @param timeout maximum time to wait for either connection
+   * @return an established connection
+   */
+  public QuicClientConnection connect(
+      URI uri, Consumer<QuicClientConnection.Builder> configurer, Duration timeout)
+      throws IOException {
+    String key = key(uri);
+    Transport first = winners.getOrDefault(key, Transport.SCION);
+    Transport second = first == Transport.SCION ? Transport.IP : Transport.SCION;
+
+    CompletableFuture<QuicClientConnection> result = new CompletableFuture<>();
+    AtomicInteger failures = new AtomicInteger();
+    AtomicBoolean secondStarted = new AtomicBoolean();
+    long start = System.nanoTime();
+
+    Runnable startSecond =
+        () -> {
+          if (!result.isDone() && secondStarted.compareAndSet(false, true)) {
+            attempts.execute(() -> attempt(uri, second, configurer, result, failures, start));
+          }
+        };
+    attempts.execute(
+        () -> {
+          if (!attempt(uri, first, configurer, result, failures, start)) {
+            startSecond.run();
+          }
+        });
+    scheduler.schedule(startSecond, stagger.toNanos(), TimeUnit.NANOSECONDS);
+
+    try {
+      QuicClientConnection connection = result.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+      return connection;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while connecting", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Connecting to " + uri + " failed", e.getCause());
+    } catch (TimeoutException e) {
+      // Close whatever connects later.
+      result.completeExceptionally(e);
+      throw new IOException("Connecting to " + uri + " timed out", e);
+    }
+  }
+
+  /**
+   * @return 'true' if the connection could be established.
+   */
+  private boolean attempt(
+      URI uri,
+      Transport transport,
+      Consumer<QuicClientConnection.Builder> configurer,
+      CompletableFuture<QuicClientConnection> result,
+      AtomicInteger failures,
+      long start) {
+    QuicClientConnection connection = null;
+    try {
+      QuicClientConnection.Builder builder;
+      if (transport == Transport.SCION) {
+        if (!resolver.lookup(uri.getHost()).isScion()) {
+          throw new UnknownHostException("No SCION address for " + uri.getHost());
+        }
+        builder = new ScionConnectionBuilder(resolver);
+      } else {
+        builder = QuicClientConnection.newBuilder();
+        builder.socketFactory(ignored -> new DatagramSocket());
+      }
+      configurer.accept(builder);
+      builder.uri(uri);
+      if (builder instanceof ScionConnectionBuilder) {
+        connection = ((ScionConnectionBuilder) builder).connect();
+      } else {
+        connection = builder.build();
+        connection.connect();
+      }
+    } catch (IOException | RuntimeException e) {
+      LOG.info("{} connection to {} failed: {}", transport, uri, e.getMessage());
+      if (failures.incrementAndGet() == Transport.values().length) {
+        result.completeExceptionally(e);
+      }
+      if (connection != null) {
+        connection.close();
+      }
+      return false;
+    }
+    if (result.complete(connection)) {
+      long ms = (System.nanoTime() - start) / 1_000_000;
+      LOG.info("{} won the race to {} after {} ms", transport, uri, ms);
+      winners.put(key(uri), transport);
+    } else {
+      connection.close();
+    }
+    return true;
+  }
+
+  private static String key(URI uri) {
+    return uri.getHost() + ":" + uri.getPort();
+  }
+}
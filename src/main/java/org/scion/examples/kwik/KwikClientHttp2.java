@@ -17,23 +17,17 @@ package org.scion.examples.kwik;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.InetAddress;
-import java.net.SocketException;
 import java.net.URI;
-import java.net.UnknownHostException;
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
 
 import net.luminis.quic.QuicClientConnection;
 import net.luminis.quic.QuicStream;
-import net.luminis.quic.core.QuicClientConnectionImpl;
 import net.luminis.quic.log.Logger;
-import net.luminis.quic.log.SysOutLogger;
 import net.luminis.quic.run.KwikCli;
 import net.luminis.quic.run.KwikVersion;
-import org.scion.jpan.PathPolicy;
-import org.scion.jpan.Scion;
-import org.scion.jpan.ScionDatagramSocket;
-import org.scion.jpan.ScionException;
+import org.scion.examples.log.AsyncLogger;
 
 public class KwikClientHttp2 {
 
@@ -46,7 +40,7 @@ public class KwikClientHttp2 {
         System.out.println("KWIK: " + KwikVersion.getVersion());
 
         // For non-default configuration, use the builder
-        Logger stdoutLogger = new SysOutLogger();
+        Logger stdoutLogger = new AsyncLogger();
         stdoutLogger.useRelativeTime(true);
         stdoutLogger.logPackets(true);
 
@@ -54,8 +48,38 @@ public class KwikClientHttp2 {
         // String applicationProtocolId = "h3";
         // https://github.com/netsec-ethz/scion-apps/blob/master/pkg/quicutil/single.go#L30-L48
         String applicationProtocolId = "qs"; // QUIC over SCION
+        // Resolve the host and look up its paths before connecting
+        try (PathPrefetcher prefetcher = new PathPrefetcher(ScionAddressResolver.defaultResolver(), null)) {
+            prefetcher.prefetch(List.of("ethz.ch:443")).join();
+            connect(args, prefetcher, stdoutLogger, applicationProtocolId);
+        }
+    }
+
+    private static void connect(String[] args, PathPrefetcher prefetcher, Logger stdoutLogger,
+            String applicationProtocolId) throws IOException {
+        // With "--race", race SCION against plain IP and use whichever connects first
+        boolean race = Arrays.asList(args).contains("--race");
+        if (race) {
+            ConnectionRacer racer = new ConnectionRacer();
+            QuicClientConnection connection = racer.connect(URI.create("https://ethz.ch:443"),
+                    builder -> {
+                        if (builder instanceof ScionConnectionBuilder) {
+                            ((ScionConnectionBuilder) builder).prefetcher(prefetcher);
+                        }
+                        builder.logger(stdoutLogger)
+                                .applicationProtocol(applicationProtocolId)
+                                .noServerCertificateCheck()
+                                .connectTimeout(Duration.ofSeconds(30));
+                    },
+                    Duration.ofSeconds(30));
+            System.out.println("Connected via " + racer.getWinner(URI.create("https://ethz.ch:443")));
+            connection.close();
+            return;
+        }
+
         // QuicClientConnection connection = QuicClientConnection.newBuilder()
-        QuicClientConnection connection = ScionConnectionBuilder.newBuilder()
+        QuicClientConnection connection = new ScionConnectionBuilder()
+                .prefetcher(prefetcher)
                 //.uri(URI.create("https://www.google.com:443"))
                 .uri(URI.create("https://ethz.ch:443"))
                 //.uri(URI.create("https://netsys.ovgu.de:443"))
@@ -97,34 +121,4 @@ public class KwikClientHttp2 {
         int len = input.read(received);
 
     }
-
-    private static class ScionConnectionBuilder extends QuicClientConnectionImpl.ExtendedBuilder {
-
-        ScionConnectionBuilder() {
-            super();
-        }
-
-        public static QuicClientConnection.Builder newBuilder() {
-            return new ScionConnectionBuilder();
-        }
-
-        @Override
-        public QuicClientConnectionImpl build() throws SocketException, UnknownHostException {
-      super.socketFactory(ignored -> new ScionDatagramSocket(30041).setRemoteDispatcher(true));
-            super.addressResolver(hostName -> {
-                        System.out.println("STUB: ProxySelector.select()");
-                        try {
-                            InetAddress address = Scion.defaultService().lookupAndGetPath(hostName, 12345, PathPolicy.DEFAULT).getRemoteAddress();
-                            System.out.println("STUB: ProxySelector.select() - 2 " + address);
-                            return address;
-                        } catch (ScionException e) {
-                            // SCION resolution does not work, try norma resolution
-                        }
-                        System.out.println("STUB: ProxySelector.select() - 3 " + InetAddress.getByName(hostName));
-                        return InetAddress.getByName(hostName);
-                    }
-            );
-            return super.build();
-        }
-    }
 }
@@ -15,10 +15,9 @@
 package org.scion.examples.kwik;
 
 import java.io.*;
-import java.net.InetAddress;
-import java.net.SocketException;
 import java.net.URI;
-import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.util.Arrays;
@@ -26,21 +25,15 @@ import java.util.Arrays;
 import net.luminis.quic.QuicClientConnection;
 import net.luminis.quic.QuicConnection;
 import net.luminis.quic.QuicStream;
-import net.luminis.quic.core.QuicClientConnectionImpl;
 import net.luminis.quic.log.Logger;
-import net.luminis.quic.log.SysOutLogger;
 import net.luminis.quic.run.KwikCli;
 import net.luminis.quic.run.KwikVersion;
-import org.scion.jpan.PathPolicy;
-import org.scion.jpan.Scion;
-import org.scion.jpan.ScionDatagramSocket;
-import org.scion.jpan.ScionException;
+import org.scion.examples.log.AsyncLogger;
 
 import javax.net.SocketFactory;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLSocket;
-import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.SSLEngine;
 
 public class KwikClientHttps {
 
@@ -53,7 +46,7 @@ public class KwikClientHttps {
     System.out.println("KWIK: " + KwikVersion.getVersion());
 
     // For non-default configuration, use the builder
-    Logger stdoutLogger = new SysOutLogger();
+    Logger stdoutLogger = new AsyncLogger();
     stdoutLogger.useRelativeTime(true);
     stdoutLogger.logPackets(true);
 
@@ -88,25 +81,28 @@ public class KwikClientHttps {
             .build();
     connection.connect();
 
-    String host = "";
-    int port = 443;
-    QuicSocket quicSocket = new QuicSocket(uri, connection);
-    SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
-    try (SSLSocket socket = (SSLSocket) factory.createSocket(quicSocket, host, port, true)) {
-
-      socket.setEnabledCipherSuites(new String[] {"TLS_AES_128_GCM_SHA256"});
-      socket.setEnabledProtocols(new String[] {"TLSv1.3"});
+    // TLS on a QUIC stream, see TlsOverQuicBenchmark for the cost compared to the old
+    // QuicSocket/SSLSocket stack.
+    SSLContext context = SSLContext.getInstance("TLSv1.3");
+    try {
+      context.init(null, null, null);
+    } catch (KeyManagementException e) {
+      throw new IOException(e);
+    }
+    SSLEngine engine = context.createSSLEngine(uri.getHost(), uri.getPort());
+    engine.setUseClientMode(true);
+    engine.setEnabledCipherSuites(new String[] {"TLS_AES_128_GCM_SHA256"});
+    try (QuicTlsChannel channel = new QuicTlsChannel(connection.createStream(true), engine)) {
+      channel.handshake();
 
       String message = "Hello World Message";
       System.out.println("sending message: " + message);
-      OutputStream os = new BufferedOutputStream(socket.getOutputStream());
-      os.write(message.getBytes());
-      os.flush();
-
-      InputStream is = new BufferedInputStream(socket.getInputStream());
-      byte[] data = new byte[2048];
-      int len = is.read(data);
-      System.out.printf("client received %d bytes: %s%n", len, new String(data, 0, len));
+      channel.write(ByteBuffer.wrap(message.getBytes()));
+
+      ByteBuffer data = ByteBuffer.allocate(2048);
+      int len = channel.read(data);
+      System.out.printf(
+          "client received %d bytes: %s%n", len, new String(data.array(), 0, Math.max(len, 0)));
     }
 
     //    GET /topology HTTP/1.1
@@ -129,36 +125,4 @@ public class KwikClientHttps {
     byte[] received = new byte[1000];
     int len = input.read(received);
   }
-
-  private static class ScionConnectionBuilder extends QuicClientConnectionImpl.ExtendedBuilder {
-
-    ScionConnectionBuilder() {
-      super();
-    }
-
-    public static QuicClientConnection.Builder newBuilder() {
-      return new ScionConnectionBuilder();
-    }
-
-    @Override
-    public QuicClientConnectionImpl build() throws SocketException, UnknownHostException {
-      super.socketFactory(ignored -> new ScionDatagramSocket(30041).setRemoteDispatcher(true));
-      super.addressResolver(
-          hostName -> {
-            System.out.println("STUB: ProxySelector.select()");
-            try {
-              InetAddress address =
-                  Scion.defaultService().lookupAndGetPath(hostName, 12345, PathPolicy.DEFAULT).getRemoteAddress();
-              System.out.println("STUB: ProxySelector.select() - 2 " + address);
-              return address;
-            } catch (ScionException e) {
-              // SCION resolution does not work, try norma resolution
-            }
-            System.out.println(
-                "STUB: ProxySelector.select() - 3 " + InetAddress.getByName(hostName));
-            return InetAddress.getByName(hostName);
-          });
-      return super.build();
-    }
-  }
 }
@@ -16,26 +16,47 @@ package org.scion.examples.kwik;
 
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.URI;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import net.luminis.quic.QuicClientConnection;
 import net.luminis.quic.QuicConnection;
-import net.luminis.quic.QuicStream;
 import net.luminis.quic.log.Logger;
 import net.luminis.quic.log.SysOutLogger;
 import net.luminis.quic.run.KwikVersion;
 import net.luminis.quic.server.ApplicationProtocolConnection;
-import net.luminis.quic.server.ApplicationProtocolConnectionFactory;
 import net.luminis.quic.server.ServerConnectionConfig;
 import net.luminis.quic.server.ServerConnector;
+import org.scion.examples.framing.FrameHandler;
+import org.scion.examples.framing.FramedProtocol;
+import org.scion.examples.framing.FramedStream;
+import org.scion.examples.metrics.ServerMetrics;
+import org.scion.examples.pubsub.PubSubServer;
+import org.scion.jpan.ScionDatagramSocket;
 
+/**
+ * Serves the "myapplicationprotocol" echo protocol and the "pubsub" protocol over SCION.
+ *
+ * <p>Arguments: certificate file, key file, port. Defaults: "cert.crt", "cert.key", 443.
+ */
 public class KwikServer {
 
   public static void main(String[] args) throws Exception {
     System.out.println("KWIK: " + KwikVersion.getVersion());
+    if (args.length == 0) {
+      args = new String[] {"cert.crt", "cert.key", "443"};
+    }
+    if (args.length != 3) {
+      System.err.println("Usage: KwikServer <cert file> <key file> <port>");
+      return;
+    }
+    int port = Integer.parseInt(args[2]);
 
     ServerConnectionConfig serverConnectionConfig =
         ServerConnectionConfig.builder()
@@ -43,54 +64,88 @@ public class KwikServer {
                 50) // Mandatory setting to maximize concurrent streams on a connection.
             .build();
     Logger log = new SysOutLogger();
+    ServerMetrics metrics = new ServerMetrics();
+    metrics.startReporter(Duration.ofSeconds(10), log::info);
+    metrics.startHttpEndpoint();
 
     ServerConnector serverConnector =
         ServerConnector.builder()
-            .withPort(443)
-                // TODO test with certificates
-//            .withCertificate(
-//                new FileInputStream("server.cert"), new FileInputStream("servercert.key"))
+            .withPort(port)
+            .withSocket(new ScionDatagramSocket(port))
+            .withCertificate(new FileInputStream(args[0]), new FileInputStream(args[1]))
             .withConfiguration(serverConnectionConfig)
             .withLogger(log)
             .build();
 
-    serverConnector.registerApplicationProtocol(
-        "myapplicationprotocol", new MyApplicationProtocolConnectionFactory());
+    // The echo handler blocks in send() while a peer doesn't read, see FrameHandler.
+    ExecutorService handlers = Executors.newCachedThreadPool();
+    FramedProtocol protocol =
+        new FramedProtocol(new EchoHandler(metrics, log), handlers) {
+          @Override
+          public ApplicationProtocolConnection createConnection(
+              String protocol, QuicConnection quicConnection) {
+            metrics.connectionAccepted(quicConnection);
+            return super.createConnection(protocol, quicConnection);
+          }
+        };
+    serverConnector.registerApplicationProtocol("myapplicationprotocol", protocol);
+
+    // Push the metrics to all subscribers of "metrics", see PubSubClient.
+    PubSubServer pubSub = new PubSubServer();
+    serverConnector.registerApplicationProtocol("pubsub", pubSub);
+    metrics.registerGauge("pubsub.subscribers", pubSub::getSubscriberCount);
+    metrics.registerGauge("pubsub.dropped", pubSub::getDroppedMessages);
+    ScheduledExecutorService telemetry = Executors.newSingleThreadScheduledExecutor();
+    // The raw counters, subscribers compute rates themselves. An exception would cancel the task.
+    telemetry.scheduleAtFixedRate(
+        () -> {
+          try {
+            pubSub.publish("metrics", metrics.snapshot().getBytes(StandardCharsets.UTF_8));
+          } catch (RuntimeException e) {
+            log.error("Publishing metrics failed", e);
+          }
+        },
+        1,
+        1,
+        TimeUnit.SECONDS);
 
     serverConnector.start();
   }
 
-  private static class MyApplicationProtocolConnectionFactory
-      implements ApplicationProtocolConnectionFactory {
+  /** Sends every frame back on the same stream. */
+  private static class EchoHandler implements FrameHandler {
+    private final ServerMetrics metrics;
+    private final Logger log;
+
+    EchoHandler(ServerMetrics metrics, Logger log) {
+      this.metrics = metrics;
+      this.log = log;
+    }
 
     @Override
-    public ApplicationProtocolConnection createConnection(String s, QuicConnection quicConnection) {
-      return new MyApplicationProtocolConnection();
+    public void onOpened(FramedStream stream) {
+      metrics.streamAccepted();
+      // start time, bytes
+      stream.setAttachment(new long[] {System.nanoTime(), 0});
     }
 
     @Override
-    public int maxConcurrentPeerInitiatedUnidirectionalStreams() {
-      return 3; // for HTTP/3
+    public void onFrame(FramedStream stream, ByteBuffer frame) throws IOException {
+      ((long[]) stream.getAttachment())[1] += frame.remaining();
+      stream.send(frame);
     }
 
     @Override
-    public int maxConcurrentPeerInitiatedBidirectionalStreams() {
-      return 0;
+    public void onClosed(FramedStream stream) throws IOException {
+      long[] state = (long[]) stream.getAttachment();
+      stream.close();
+      metrics.streamCompleted(state[0], state[1], state[1]);
     }
-  }
 
-  private static class MyApplicationProtocolConnection implements ApplicationProtocolConnection {
     @Override
-    public void acceptPeerInitiatedStream(QuicStream stream) {
-
-      byte[] bytes = new byte[2000];
-      int len;
-      try {
-        len = stream.getInputStream().read(bytes);
-      } catch (IOException e) {
-        throw new RuntimeException(e);
-      }
-      System.out.println("Bytes: " + Arrays.toString(bytes));
+    public void onError(FramedStream stream, Exception e) {
+      metrics.streamFailed();
+      log.error("Stream " + stream.getStreamId() + " failed", e);
     }
   }
 }
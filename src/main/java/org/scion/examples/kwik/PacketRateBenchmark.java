@@ -0,0 +1,134 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.kwik;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.scion.jpan.ScionDatagramSocket;
+
+/**
+ * Measures the packet rate of a UDP echo server that uses either a plain ScionDatagramSocket or a
+ * {@link BatchingDatagramSocket}, i.e. the two sockets that EchoServer can hand to kwik.
+ *
+ * <p>Run it in a {@link org.scion.examples.sim.LoopbackNetwork} without latency or loss
+ * ("LoopbackNetwork 1 0"). Pin the server to one core to compare packets/s per core:
+ *
+ * <pre>
+ * taskset -c 2 java -Dorg.scion.daemon=... PacketRateBenchmark server 4443 plain
+ * java -Dorg.scion.daemon=... PacketRateBenchmark client 127.0.0.11 4443 10
+ * </pre>
+ *
+ * <p>Arguments: "server" port "plain"|"batching" | "client" host port [seconds [packets in flight
+ * [packet size]]]
+ */
+public class PacketRateBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    if (args.length >= 3 && args[0].equals("server")) {
+      runServer(Integer.parseInt(args[1]), args[2].equals("batching"));
+    } else if (args.length >= 3 && args[0].equals("client")) {
+      InetSocketAddress server = new InetSocketAddress(args[1], Integer.parseInt(args[2]));
+      int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+      int window = args.length > 4 ? Integer.parseInt(args[4]) : 256;
+      int size = args.length > 5 ? Integer.parseInt(args[5]) : 1200;
+      runClient(server, seconds, window, size);
+    } else {
+      System.out.println(
+          "Usage: server <port> plain|batching | client <host> <port> [seconds [window [size]]]");
+    }
+  }
+
+  private static void runServer(int port, boolean batching) throws IOException {
+    try (ScionDatagramSocket socket =
+        batching ? new BatchingDatagramSocket(port) : new ScionDatagramSocket(port)) {
+      System.out.println("Echo server on port " + port + (batching ? " (batching)" : " (plain)"));
+      DatagramPacket packet = new DatagramPacket(new byte[2048], 2048);
+      long packets = 0;
+      long start = System.nanoTime();
+      while (true) {
+        packet.setLength(packet.getData().length);
+        socket.receive(packet);
+        socket.send(packet);
+        if (++packets % 1_000_000 == 0) {
+          double seconds = (System.nanoTime() - start) / 1e9;
+          System.out.printf("%d packets, %.0f packets/s, %s%n", packets, packets / seconds, socket);
+        }
+      }
+    }
+  }
+
+  /** Keep 'window' packets in flight and count the echoes. */
+  private static void runClient(InetSocketAddress server, int seconds, int window, int size)
+      throws IOException, InterruptedException {
+    Semaphore inFlight = new Semaphore(window);
+    LongAdder echoes = new LongAdder();
+    try (ScionDatagramSocket socket = new ScionDatagramSocket()) {
+      socket.setSoTimeout(100);
+      Thread receiver =
+          new Thread(
+              () -> {
+                DatagramPacket packet = new DatagramPacket(new byte[2048], 2048);
+                while (!socket.isClosed()) {
+                  try {
+                    socket.receive(packet);
+                    echoes.increment();
+                    inFlight.release();
+                  } catch (SocketTimeoutException e) {
+                    // Lost packets free their window slot
+                    inFlight.release(window - inFlight.availablePermits());
+                  } catch (IOException e) {
+                    return;
+                  }
+                }
+              },
+              "receiver");
+      receiver.setDaemon(true);
+      receiver.start();
+
+      ByteBuffer payload = ByteBuffer.allocate(size);
+      DatagramPacket packet = new DatagramPacket(payload.array(), size, server);
+      long sent = 0;
+      long start = System.nanoTime();
+      long end = start + TimeUnit.SECONDS.toNanos(seconds);
+      while (System.nanoTime() < end) {
+        if (!inFlight.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+          continue;
+        }
+        payload.putLong(0, sent++);
+        try {
+          socket.send(packet);
+        } catch (SocketException e) {
+          System.out.println("Sending failed: " + e.getMessage());
+          return;
+        }
+      }
+      double duration = (System.nanoTime() - start) / 1e9;
+      Thread.sleep(200);
+      System.out.printf(
+          "sent %d, echoed %d: %.0f packets/s, %.1f Mbit/s%n",
+          sent,
+          echoes.sum(),
+          echoes.sum() / duration,
+          echoes.sum() * size * 8 / duration / 1e6);
+    }
+  }
+}
@@ -0,0 +1,262 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.kwik;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.scion.examples.path.MultipathDatagramSocket;
+import org.scion.jpan.Scion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves hosts and looks up their paths before they are needed, so the first connection to a
+ * host doesn't wait for DNS and the daemon.
+ *
+ * <p>Destinations are given as "host:port". They can be passed explicitly or loaded from a file of
+ * recently used destinations (one per line). Connections built by a {@link ScionConnectionBuilder}
+ * with this prefetcher are recorded in that file.
+ *
+ * <p>The prefetcher is also a path source for the multipath and failover sockets. Other sockets
+ * benefit from the cached host resolution.
+ */
+public class PathPrefetcher implements MultipathDatagramSocket.PathSource, Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PathPrefetcher.class);
+  public static final Duration DEFAULT_PATH_TTL = Duration.ofMinutes(5);
+  private static final int DEFAULT_PORT = 443;
+  private static final int MAX_RECENT = 100;
+
+  private static class CachedPaths {
+    final long isdAs;
+    final List<org.scion.jpan.Path> paths;
+    final long fetchedAt = System.nanoTime();
+
+    CachedPaths(long isdAs, List<org.scion.jpan.Path> paths) {
+      this.isdAs = isdAs;
+      this.paths = paths;
+    }
+  }
+
+  private final ScionAddressResolver resolver;
+  private final Path recentFile;
+  private final long pathTtlNs;
+  private final ConcurrentHashMap<InetSocketAddress, CachedPaths> paths = new ConcurrentHashMap<>();
+  // Most recently used last
+  private final LinkedHashSet<String> recent = new LinkedHashSet<>();
+  private final ExecutorService executor =
+      Executors.newFixedThreadPool(
+          8,
+          r -> {
+            Thread t = new Thread(r, "path-prefetcher");
+            t.setDaemon(true);
+            return t;
+          });
+  private ScheduledExecutorService refresher;
+
+  /**
+   * @param recentFile file of recently used destinations, may be 'null'
+   */
+  public PathPrefetcher(ScionAddressResolver resolver, Path recentFile) {
+    this(resolver, recentFile, DEFAULT_PATH_TTL);
+  }
+
+  public PathPrefetcher(ScionAddressResolver resolver, Path recentFile, Duration pathTtl) {
+    this.resolver = resolver;
+    this.recentFile = recentFile;
+    this.pathTtlNs = pathTtl.toNanos();
+  }
+
+  /** Resolve the destinations and look up their paths in parallel. */
+  public CompletableFuture<Void> prefetch(Collection<String> destinations) {
+    List<CompletableFuture<?>> futures = new ArrayList<>();
+    for (String destination : destinations) {
+      futures.add(CompletableFuture.runAsync(() -> prefetch(destination), executor));
+    }
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+  }
+
+  /** Prefetch the destinations from the recent destinations file. */
+  public CompletableFuture<Void> prefetchRecent() {
+    return prefetch(loadRecent());
+  }
+
+  /**
+   * Refresh all known destinations periodically, so their paths never expire while in use. The
+   * resolver refreshes the host names itself when they are used.
+   */
+  public synchronized void startRefresh(Duration interval) {
+    if (refresher != null) {
+      return;
+    }
+    refresher =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread t = new Thread(r, "path-prefetcher-refresh");
+              t.setDaemon(true);
+              return t;
+            });
+    long ms = interval.toMillis();
+    refresher.scheduleWithFixedDelay(this::refreshAll, ms, ms, TimeUnit.MILLISECONDS);
+  }
+
+  /** Remember a destination for the next start. */
+  public void record(URI uri) {
+    int port = uri.getPort() > 0 ? uri.getPort() : DEFAULT_PORT;
+    String destination = uri.getHost() + ":" + port;
+    synchronized (recent) {
+      recent.remove(destination);
+      recent.add(destination);
+      if (recent.size() > MAX_RECENT) {
+        recent.remove(recent.iterator().next());
+      }
+    }
+  }
+
+  @Override
+  public List<org.scion.jpan.Path> getPaths(InetSocketAddress destination) throws IOException {
+    CachedPaths cached = paths.get(destination);
+    if (cached != null && System.nanoTime() - cached.fetchedAt < pathTtlNs) {
+      return cached.paths;
+    }
+    if (cached != null) {
+      return fetchPaths(cached.isdAs, destination);
+    }
+    List<org.scion.jpan.Path> list = Scion.defaultService().getPaths(destination);
+    if (!list.isEmpty()) {
+      paths.put(destination, new CachedPaths(list.get(0).getRemoteIsdAs(), list));
+    }
+    return list;
+  }
+
+  private List<org.scion.jpan.Path> fetchPaths(long isdAs, InetSocketAddress destination)
+      throws IOException {
+    List<org.scion.jpan.Path> list = Scion.defaultService().getPaths(isdAs, destination);
+    paths.put(destination, new CachedPaths(isdAs, list));
+    return list;
+  }
+
+  /**
+   * Parse "host[:port]", IPv6 literals must be in brackets as in URIs, e.g. "[::1]:443".
+   *
+   * @return an unresolved address
+   */
+  static InetSocketAddress parseDestination(String destination) {
+    URI uri = URI.create("//" + destination);
+    String host = uri.getHost();
+    if (host == null) {
+      throw new IllegalArgumentException("Expected host[:port]: " + destination);
+    }
+    if (host.startsWith("[") && host.endsWith("]")) {
+      host = host.substring(1, host.length() - 1);
+    }
+    int port = uri.getPort() > 0 ? uri.getPort() : DEFAULT_PORT;
+    return InetSocketAddress.createUnresolved(host, port);
+  }
+
+  private void prefetch(String destination) {
+    String host = destination;
+    try {
+      InetSocketAddress parsed = parseDestination(destination);
+      host = parsed.getHostString();
+      int port = parsed.getPort();
+      ScionAddressResolver.Resolution resolution = resolver.lookup(host);
+      if (resolution.isScion()) {
+        long isdAs = resolution.getPath().getRemoteIsdAs();
+        fetchPaths(isdAs, new InetSocketAddress(resolution.getAddress(), port));
+      }
+    } catch (UnknownHostException e) {
+      LOG.info("Could not resolve {}: {}", host, e.getMessage());
+    } catch (IOException | RuntimeException e) {
+      LOG.info("Could not get paths for {}: {}", destination, e.getMessage());
+    }
+  }
+
+  private void refreshAll() {
+    for (Map.Entry<InetSocketAddress, CachedPaths> e : paths.entrySet()) {
+      InetSocketAddress destination = e.getKey();
+      try {
+        fetchPaths(e.getValue().isdAs, destination);
+      } catch (IOException | RuntimeException ex) {
+        LOG.info("Could not refresh paths for {}: {}", destination, ex.getMessage());
+      }
+    }
+  }
+
+  private List<String> loadRecent() {
+    if (recentFile == null || !Files.exists(recentFile)) {
+      return Collections.emptyList();
+    }
+    List<String> destinations = new ArrayList<>();
+    try {
+      for (String line : Files.readAllLines(recentFile, StandardCharsets.UTF_8)) {
+        line = line.trim();
+        if (!line.isEmpty() && !line.startsWith("#")) {
+          destinations.add(line);
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn("Could not read {}: {}", recentFile, e.getMessage());
+    }
+    synchronized (recent) {
+      recent.addAll(destinations);
+    }
+    return destinations;
+  }
+
+  /** Write the recently used destinations to the file. */
+  public void saveRecent() {
+    if (recentFile == null) {
+      return;
+    }
+    List<String> lines;
+    synchronized (recent) {
+      lines = new ArrayList<>(recent);
+    }
+    try {
+      Files.write(recentFile, lines, StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      LOG.warn("Could not write {}: {}", recentFile, e.getMessage());
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (refresher != null) {
+      refresher.shutdownNow();
+    }
+    executor.shutdownNow();
+    saveRecent();
+  }
+}
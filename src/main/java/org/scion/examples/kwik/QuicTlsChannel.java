@@ -0,0 +1,256 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.kwik;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import net.luminis.quic.QuicStream;
+
+/**
+ * TLS on a QUIC stream, based on {@link SSLEngine}.
+ *
+ * <p>This replaces the QuicSocket + SSLSocket + buffered stream stack of {@link KwikClientHttps}:
+ * encrypted records are read from the QUIC stream directly into a pooled network buffer and
+ * decrypted into the caller's ByteBuffer (or a pooled buffer if the caller's buffer is too small
+ * for a record). Outgoing data is encrypted from the caller's buffer into a pooled network buffer
+ * and written to the stream in one call per record. There are no intermediate stream wrappers.
+ *
+ * <p>Note that this still encrypts twice: once by TLS on the stream and once by QUIC. Not thread
+ * safe, but one thread may read while another one writes.
+ */
+public class QuicTlsChannel implements Closeable {
+
+  private static final int RECORD_BUFFER_SIZE = 17 * 1024;
+  private static final BufferPool BUFFERS = new BufferPool(RECORD_BUFFER_SIZE, 256, false);
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+  private final SSLEngine engine;
+  private final InputStream in;
+  private final OutputStream out;
+  // Received, still encrypted data (write mode)
+  private final ByteBuffer netIn;
+  // Decrypted data that didn't fit into the caller's buffer (write mode)
+  private final ByteBuffer appIn;
+  // Encrypted data to send
+  private final ByteBuffer netOut;
+  private final Object writeLock = new Object();
+  private boolean closed = false;
+
+  /**
+   * @param stream a bidirectional QUIC stream
+   * @param engine an engine in client or server mode
+   */
+  public QuicTlsChannel(QuicStream stream, SSLEngine engine) {
+    this(stream.getInputStream(), stream.getOutputStream(), engine);
+  }
+
+  QuicTlsChannel(InputStream in, OutputStream out, SSLEngine engine) {
+    this.engine = engine;
+    this.in = in;
+    this.out = out;
+    this.netIn = BUFFERS.acquire(engine.getSession().getPacketBufferSize());
+    this.netOut = BUFFERS.acquire(engine.getSession().getPacketBufferSize());
+    this.appIn = BUFFERS.acquire(engine.getSession().getApplicationBufferSize());
+  }
+
+  /** Create a client channel and perform the handshake. */
+  public static QuicTlsChannel connect(
+      QuicStream stream, SSLContext context, String host, int port) throws IOException {
+    SSLEngine engine = context.createSSLEngine(host, port);
+    engine.setUseClientMode(true);
+    QuicTlsChannel channel = new QuicTlsChannel(stream, engine);
+    channel.handshake();
+    return channel;
+  }
+
+  public SSLEngine getEngine() {
+    return engine;
+  }
+
+  public void handshake() throws IOException {
+    engine.beginHandshake();
+    SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+    while (status != SSLEngineResult.HandshakeStatus.FINISHED
+        && status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+      switch (status) {
+        case NEED_WRAP:
+          synchronized (writeLock) {
+            status = wrap(EMPTY).getHandshakeStatus();
+            out.flush();
+          }
+          break;
+        case NEED_TASK:
+          runTasks();
+          status = engine.getHandshakeStatus();
+          break;
+        default:
+          // NEED_UNWRAP, NEED_UNWRAP_AGAIN
+          SSLEngineResult result = unwrap(appIn);
+          if (result == null) {
+            throw new EOFException("Stream closed during TLS handshake");
+          }
+          status = result.getHandshakeStatus();
+      }
+    }
+  }
+
+  /**
+   * Decrypt data into 'dst'.
+   *
+   * @return the number of bytes read, or -1 at the end of the stream.
+   */
+  public int read(ByteBuffer dst) throws IOException {
+    while (true) {
+      if (appIn.position() > 0) {
+        appIn.flip();
+        int n = Math.min(dst.remaining(), appIn.remaining());
+        ByteBuffer slice = appIn.duplicate();
+        slice.limit(slice.position() + n);
+        dst.put(slice);
+        appIn.position(appIn.position() + n);
+        appIn.compact();
+        return n;
+      }
+      // Decrypt directly into the caller's buffer if a whole record fits.
+      boolean direct = dst.remaining() >= engine.getSession().getApplicationBufferSize();
+      int before = dst.position();
+      SSLEngineResult result = unwrap(direct ? dst : appIn);
+      if (result == null || result.getStatus() == SSLEngineResult.Status.CLOSED) {
+        return -1;
+      }
+      handlePostHandshake(result.getHandshakeStatus());
+      if (direct && dst.position() > before) {
+        return dst.position() - before;
+      }
+    }
+  }
+
+  /** Encrypt and send all remaining bytes of 'src'. */
+  public void write(ByteBuffer src) throws IOException {
+    synchronized (writeLock) {
+      while (src.hasRemaining()) {
+        SSLEngineResult result = wrap(src);
+        if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+          throw new SSLException("TLS connection is closed");
+        }
+      }
+      out.flush();
+    }
+  }
+
+  /**
+   * Unwrap one record, reading from the stream as needed.
+   *
+   * @return the result or 'null' at the end of the stream.
+   */
+  private SSLEngineResult unwrap(ByteBuffer dst) throws IOException {
+    while (true) {
+      netIn.flip();
+      SSLEngineResult result;
+      try {
+        result = engine.unwrap(netIn, dst);
+      } finally {
+        netIn.compact();
+      }
+      switch (result.getStatus()) {
+        case BUFFER_UNDERFLOW:
+          if (!readNet()) {
+            return null;
+          }
+          break;
+        case BUFFER_OVERFLOW:
+          throw new SSLException("Application buffer too small for TLS record");
+        default:
+          return result;
+      }
+    }
+  }
+
+  private boolean readNet() throws IOException {
+    int n = in.read(netIn.array(), netIn.arrayOffset() + netIn.position(), netIn.remaining());
+    if (n < 0) {
+      return false;
+    }
+    netIn.position(netIn.position() + n);
+    return true;
+  }
+
+  /** Wrap data (or a handshake message) into one record and send it. Requires the write lock. */
+  private SSLEngineResult wrap(ByteBuffer src) throws IOException {
+    netOut.clear();
+    SSLEngineResult result = engine.wrap(src, netOut);
+    if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+      throw new SSLException("Network buffer too small for TLS record");
+    }
+    if (netOut.position() > 0) {
+      out.write(netOut.array(), netOut.arrayOffset(), netOut.position());
+    }
+    return result;
+  }
+
+  /** TLS 1.3 sends session tickets and key updates after the handshake. */
+  private void handlePostHandshake(SSLEngineResult.HandshakeStatus status) throws IOException {
+    while (true) {
+      if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+        runTasks();
+        status = engine.getHandshakeStatus();
+      } else if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+        synchronized (writeLock) {
+          status = wrap(EMPTY).getHandshakeStatus();
+          out.flush();
+        }
+      } else {
+        return;
+      }
+    }
+  }
+
+  private void runTasks() {
+    Runnable task;
+    while ((task = engine.getDelegatedTask()) != null) {
+      task.run();
+    }
+  }
+
+  /** Send close_notify and close the stream. The channel must not be read from afterwards. */
+  @Override
+  public void close() throws IOException {
+    synchronized (writeLock) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      engine.closeOutbound();
+      try {
+        while (!engine.isOutboundDone()) {
+          wrap(EMPTY);
+        }
+        out.close();
+      } finally {
+        BUFFERS.release(netOut);
+        BUFFERS.release(netIn);
+        BUFFERS.release(appIn);
+      }
+    }
+  }
+}
@@ -0,0 +1,81 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.kwik;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Maps SCION host addresses to the address that the application used for the host (e.g. the
+ * result of a DNS A/AAAA lookup).
+ *
+ * <p>The map is a fixed size, direct-mapped table: an entry replaces whatever entry was in its
+ * slot. This bounds the memory and makes {@link #get} lock-free and allocation-free. An evicted
+ * entry is simply learned again on the next send to the host.
+ */
+public class ReverseAddressMap {
+
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  private static class Entry {
+    final InetAddress scionAddress;
+    final InetAddress identity;
+
+    Entry(InetAddress scionAddress, InetAddress identity) {
+      this.scionAddress = scionAddress;
+      this.identity = identity;
+    }
+  }
+
+  private final AtomicReferenceArray<Entry> table;
+  private final int mask;
+
+  public ReverseAddressMap() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param capacity the number of slots, rounded up to a power of two
+   */
+  public ReverseAddressMap(int capacity) {
+    int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+    this.table = new AtomicReferenceArray<>(size);
+    this.mask = size - 1;
+  }
+
+  public void put(InetAddress scionAddress, InetAddress identity) {
+    table.set(index(scionAddress), new Entry(scionAddress, identity));
+  }
+
+  /**
+   * @return the identity of the SCION address or 'null' if it is not known.
+   */
+  public InetAddress get(InetAddress scionAddress) {
+    Entry e = table.get(index(scionAddress));
+    if (e != null && e.scionAddress.equals(scionAddress)) {
+      return e.identity;
+    }
+    return null;
+  }
+
+  public int capacity() {
+    return table.length();
+  }
+
+  private int index(InetAddress address) {
+    int h = address.hashCode();
+    return (h ^ (h >>> 16)) & mask;
+  }
+}
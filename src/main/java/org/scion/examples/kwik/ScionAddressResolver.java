@@ -0,0 +1,270 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.kwik;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.scion.examples.path.MultipathDatagramSocket;
+import org.scion.jpan.Path;
+import org.scion.jpan.PathPolicy;
+import org.scion.jpan.Scion;
+import org.scion.jpan.ScionException;
+import org.scion.jpan.ScionRuntimeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves host names for QUIC over SCION connections. The SCION lookup is tried first, if it
+ * fails, we fall back to normal DNS resolution.
+ *
+ * <p>Results are cached. Failed lookups, and hosts that were only found by DNS, are cached with a
+ * shorter TTL, so SCION is tried again soon. Concurrent lookups for the same host are merged into
+ * one lookup. When a cached entry is used after most of its TTL has passed, it is refreshed in the
+ * background, so frequently used hosts never wait for the daemon or DNS.
+ *
+ * <p>The resolver is also the default path source of {@link ScionConnectionBuilder}. Paths are
+ * cached per destination and looked up with the ISD-AS found by the host lookup, so repeated
+ * connects to a destination don't wait for the daemon either.
+ */
+public class ScionAddressResolver implements MultipathDatagramSocket.PathSource {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ScionAddressResolver.class);
+  public static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
+  public static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofSeconds(30);
+  // The port is irrelevant for the path lookup
+  private static final int LOOKUP_PORT = 12345;
+  private static final double REFRESH_FRACTION = 0.8;
+  private static final int MAX_PATH_DESTINATIONS = 10_000;
+
+  private static volatile ScionAddressResolver defaultResolver;
+
+  private final long ttlNs;
+  private final long negativeTtlNs;
+  private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, CompletableFuture<Entry>> inFlight =
+      new ConcurrentHashMap<>();
+  // ISD-AS of the SCION hosts found by lookups
+  private final ConcurrentHashMap<InetAddress, Long> isdAsByAddress = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<InetSocketAddress, CachedPaths> paths =
+      new ConcurrentHashMap<>();
+  private final ExecutorService refresher =
+      Executors.newFixedThreadPool(
+          2,
+          r -> {
+            Thread t = new Thread(r, "scion-resolver-refresh");
+            t.setDaemon(true);
+            return t;
+          });
+
+  /** The result of a lookup. */
+  public static class Resolution {
+    private final InetAddress address;
+    private final Path path;
+
+    Resolution(InetAddress address, Path path) {
+      this.address = address;
+      this.path = path;
+    }
+
+    public InetAddress getAddress() {
+      return address;
+    }
+
+    /**
+     * @return the path found during the lookup or 'null' if the host is not SCION enabled.
+     */
+    public Path getPath() {
+      return path;
+    }
+
+    public boolean isScion() {
+      return path != null;
+    }
+  }
+
+  private static class Entry {
+    final Resolution resolution;
+    final UnknownHostException failure;
+    final long refreshAt;
+    final long expiresAt;
+    final AtomicBoolean refreshing = new AtomicBoolean();
+
+    Entry(Resolution resolution, UnknownHostException failure, long ttlNs) {
+      long now = System.nanoTime();
+      this.resolution = resolution;
+      this.failure = failure;
+      this.refreshAt = now + (long) (ttlNs * REFRESH_FRACTION);
+      this.expiresAt = now + ttlNs;
+    }
+  }
+
+  private static class CachedPaths {
+    final List<Path> paths;
+    final long expiresAt;
+
+    CachedPaths(List<Path> paths, long ttlNs) {
+      this.paths = paths;
+      this.expiresAt = System.nanoTime() + ttlNs;
+    }
+  }
+
+  public ScionAddressResolver() {
+    this(DEFAULT_TTL, DEFAULT_NEGATIVE_TTL);
+  }
+
+  /**
+   * @param ttl how long resolved SCION hosts and their paths are cached
+   * @param negativeTtl how long failed lookups and hosts that were only found by DNS are cached
+   */
+  public ScionAddressResolver(Duration ttl, Duration negativeTtl) {
+    this.ttlNs = ttl.toNanos();
+    this.negativeTtlNs = negativeTtl.toNanos();
+  }
+
+  /**
+   * @return a resolver that is shared by all connection builders that don't specify their own.
+   */
+  public static ScionAddressResolver defaultResolver() {
+    if (defaultResolver == null) {
+      synchronized (ScionAddressResolver.class) {
+        if (defaultResolver == null) {
+          defaultResolver = new ScionAddressResolver();
+        }
+      }
+    }
+    return defaultResolver;
+  }
+
+  /** Can be used as kwik addressResolver. */
+  public InetAddress resolve(String hostName) throws UnknownHostException {
+    return lookup(hostName).getAddress();
+  }
+
+  public Resolution lookup(String hostName) throws UnknownHostException {
+    Entry entry = cache.get(hostName);
+    long now = System.nanoTime();
+    if (entry == null || now - entry.expiresAt >= 0) {
+      entry = load(hostName);
+    } else if (now - entry.refreshAt >= 0 && entry.refreshing.compareAndSet(false, true)) {
+      refresher.execute(() -> load(hostName));
+    }
+    if (entry.failure != null) {
+      throw entry.failure;
+    }
+    return entry.resolution;
+  }
+
+  /** Resolve a host in the background, e.g. to warm up the cache. */
+  public CompletableFuture<Resolution> lookupAsync(String hostName) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            return lookup(hostName);
+          } catch (UnknownHostException e) {
+            throw new CompletionException(e);
+          }
+        },
+        refresher);
+  }
+
+  /**
+   * @return the cached paths to the destination. If there are none, they are looked up with the
+   *     ISD-AS of a previous host lookup (or with a lookup of the destination address) and cached.
+   */
+  @Override
+  public List<Path> getPaths(InetSocketAddress destination) throws IOException {
+    CachedPaths cached = paths.get(destination);
+    if (cached != null && System.nanoTime() - cached.expiresAt < 0) {
+      return cached.paths;
+    }
+    Long isdAs = isdAsByAddress.get(destination.getAddress());
+    List<Path> list =
+        isdAs != null
+            ? Scion.defaultService().getPaths(isdAs, destination)
+            : Scion.defaultService().getPaths(destination);
+    if (!list.isEmpty()) {
+      if (paths.size() >= MAX_PATH_DESTINATIONS) {
+        long now = System.nanoTime();
+        paths.values().removeIf(e -> now - e.expiresAt >= 0);
+      }
+      paths.put(destination, new CachedPaths(list, ttlNs));
+    }
+    return list;
+  }
+
+  /** Remove a host from the cache, e.g. after connecting to it failed. */
+  public void invalidate(String hostName) {
+    cache.remove(hostName);
+  }
+
+  /** Lookup the host. Concurrent calls for the same host wait for the first caller's lookup. */
+  private Entry load(String hostName) {
+    CompletableFuture<Entry> future = new CompletableFuture<>();
+    CompletableFuture<Entry> existing = inFlight.putIfAbsent(hostName, future);
+    if (existing != null) {
+      return existing.join();
+    }
+    try {
+      Entry entry = doLookup(hostName);
+      Entry old = cache.get(hostName);
+      if (entry.failure != null
+          && old != null
+          && old.failure == null
+          && System.nanoTime() - old.expiresAt < 0) {
+        // A failed refresh should not replace a valid entry.
+        old.refreshing.set(false);
+        entry = old;
+      } else {
+        cache.put(hostName, entry);
+      }
+      future.complete(entry);
+      return entry;
+    } catch (RuntimeException e) {
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(hostName, future);
+    }
+  }
+
+  private Entry doLookup(String hostName) {
+    try {
+      Path path =
+          Scion.defaultService().lookupAndGetPath(hostName, LOOKUP_PORT, PathPolicy.DEFAULT);
+      isdAsByAddress.put(path.getRemoteAddress(), path.getRemoteIsdAs());
+      return new Entry(new Resolution(path.getRemoteAddress(), path), null, ttlNs);
+    } catch (ScionException | ScionRuntimeException e) {
+      // SCION resolution does not work, try normal resolution
+      LOG.debug("SCION lookup failed for {}: {}", hostName, e.getMessage());
+    }
+    try {
+      InetAddress address = InetAddress.getByName(hostName);
+      // Not the full TTL, the SCION lookup may have failed only temporarily.
+      return new Entry(new Resolution(address, null), null, negativeTtlNs);
+    } catch (UnknownHostException e) {
+      return new Entry(null, e, negativeTtlNs);
+    }
+  }
+}
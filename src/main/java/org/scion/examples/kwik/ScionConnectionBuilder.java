@@ -0,0 +1,191 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.kwik;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import net.luminis.quic.QuicClientConnection;
+import net.luminis.quic.core.QuicClientConnectionImpl;
+import org.scion.examples.path.FailoverDatagramSocket;
+import org.scion.examples.path.MultipathDatagramSocket;
+import org.scion.examples.path.PathScheduler;
+import org.scion.jpan.PathPolicy;
+import org.scion.jpan.ScionDatagramSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Connection builder for QUIC over SCION. Host names are resolved with a (shared) {@link
+ * ScionAddressResolver}.
+ *
+ * <p>Can be used with flupke: <code>
+ * Http3Client.newBuilder().connectionBuilderFactory(ScionConnectionBuilder::new)</code>
+ */
+public class ScionConnectionBuilder extends QuicClientConnectionImpl.ExtendedBuilder {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ScionConnectionBuilder.class);
+
+  private final ScionAddressResolver resolver;
+  private PathScheduler pathScheduler;
+  private PathPolicy pathPolicy;
+  private boolean failover = false;
+  private SharedScionSocket sharedSocket;
+  private PathPrefetcher prefetcher;
+  private URI uri;
+  private ScionSocketFactory.Mode socketMode = ScionSocketFactory.defaultMode();
+  // Whether the socket of the last built connection uses a direct (non-dispatcher) port
+  private volatile boolean directPort = false;
+
+  public ScionConnectionBuilder() {
+    this(ScionAddressResolver.defaultResolver());
+  }
+
+  public ScionConnectionBuilder(ScionAddressResolver resolver) {
+    super();
+    this.resolver = resolver;
+  }
+
+  public static QuicClientConnection.Builder newBuilder() {
+    return new ScionConnectionBuilder();
+  }
+
+  /**
+   * Use several paths per destination and choose the path(s) for each packet with the given
+   * scheduler.
+   */
+  public ScionConnectionBuilder pathScheduler(PathScheduler scheduler) {
+    this.pathScheduler = scheduler;
+    return this;
+  }
+
+  /**
+   * Send on one path and switch to a backup path when it fails. Ignored if a path scheduler is set.
+   */
+  public ScionConnectionBuilder failover(boolean failover) {
+    this.failover = failover;
+    return this;
+  }
+
+  /**
+   * The policy that chooses the path of new connections, e.g. a {@link
+   * org.scion.examples.path.LatencyPathPolicy}.
+   */
+  public ScionConnectionBuilder pathPolicy(PathPolicy policy) {
+    this.pathPolicy = policy;
+    return this;
+  }
+
+  /** How the local port is bound, see {@link ScionSocketFactory}. */
+  public ScionConnectionBuilder socketMode(ScionSocketFactory.Mode mode) {
+    this.socketMode = mode;
+    return this;
+  }
+
+  /**
+   * Use a socket that is shared with other connections instead of opening a new socket. The
+   * options for creating sockets are ignored.
+   */
+  public ScionConnectionBuilder sharedSocket(SharedScionSocket socket) {
+    this.sharedSocket = socket;
+    return this;
+  }
+
+  /**
+   * Use the paths cached by the prefetcher and record the destination in its recent destinations.
+   */
+  public ScionConnectionBuilder prefetcher(PathPrefetcher prefetcher) {
+    this.prefetcher = prefetcher;
+    return this;
+  }
+
+  @Override
+  public QuicClientConnection.Builder uri(URI uri) {
+    this.uri = uri;
+    return super.uri(uri);
+  }
+
+  @Override
+  public QuicClientConnectionImpl build() throws SocketException, UnknownHostException {
+    if (prefetcher != null && uri != null) {
+      prefetcher.record(uri);
+    }
+    if (sharedSocket != null) {
+      super.socketFactory(ignored -> sharedSocket.newSocket());
+    } else {
+      super.socketFactory(ignored -> createSocket());
+    }
+    super.addressResolver(resolver::resolve);
+    return super.build();
+  }
+
+  /**
+   * Build the connection and connect. In {@link ScionSocketFactory.Mode#AUTO}, if the handshake
+   * over a direct port fails, e.g. because the AS has a dispatcher after all, the connection is
+   * built and connected again with the dispatcher port.
+   */
+  public QuicClientConnection connect() throws IOException {
+    QuicClientConnectionImpl connection = build();
+    try {
+      connection.connect();
+      return connection;
+    } catch (IOException e) {
+      if (!directPort || socketMode != ScionSocketFactory.Mode.AUTO) {
+        throw e;
+      }
+      connection.close();
+      LOG.info("Handshake via direct port failed, retrying with dispatcher port: {}", e.toString());
+    }
+    socketMode = ScionSocketFactory.Mode.DISPATCHER;
+    try {
+      QuicClientConnectionImpl retry = build();
+      retry.connect();
+      return retry;
+    } finally {
+      socketMode = ScionSocketFactory.Mode.AUTO;
+    }
+  }
+
+  private ScionDatagramSocket createSocket() throws SocketException {
+    ScionDatagramSocket socket;
+    if (pathScheduler != null) {
+      socket =
+          ScionSocketFactory.open(
+              port -> new MultipathDatagramSocket(port, pathScheduler, pathSource()), socketMode);
+    } else if (failover) {
+      socket =
+          ScionSocketFactory.open(
+              port -> new FailoverDatagramSocket(port, pathSource()), socketMode);
+    } else {
+      PathPolicy policy = pathPolicy != null ? pathPolicy : PathPolicy.DEFAULT;
+      MultipathDatagramSocket.PathSource source = pathSource();
+      socket =
+          ScionSocketFactory.open(
+              port -> new AddressMappingDatagramSocket(port, source, policy), socketMode);
+    }
+    directPort = socket.getLocalPort() != ScionSocketFactory.DISPATCHER_PORT;
+    socket.setRemoteDispatcher(true);
+    if (pathPolicy != null) {
+      socket.setPathPolicy(pathPolicy);
+    }
+    return socket;
+  }
+
+  /** The prefetcher's paths if there is one, otherwise the paths cached by the resolver. */
+  private MultipathDatagramSocket.PathSource pathSource() {
+    return prefetcher != null ? prefetcher : resolver;
+  }
+}
@@ -0,0 +1,153 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.kwik;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.scion.jpan.Constants;
+import org.scion.jpan.ScionDatagramSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates client sockets for QUIC over SCION.
+ *
+ * <p>Without a dispatcher, border routers deliver packets directly to the end host port, as long
+ * as the port is in the end host port range of the AS ("dispatched_ports" in the topology). Every
+ * client socket can then bind its own ephemeral port, instead of all sockets sharing (and competing
+ * for) the dispatcher port 30041.
+ *
+ * <p>In an AS with a dispatcher, binding a port in that range succeeds, but no packet ever arrives.
+ * The dispatcher port is therefore used unless the topology file (see {@link
+ * Constants#PROPERTY_BOOTSTRAP_TOPO_FILE}) defines the end host port range. If the handshake over a
+ * direct port times out anyway, {@link ScionConnectionBuilder#connect()} retries with the
+ * dispatcher port.
+ */
+public final class ScionSocketFactory {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ScionSocketFactory.class);
+
+  /** How client sockets bind their local port. */
+  public enum Mode {
+    /**
+     * Bind an ephemeral port in the end host range if the topology defines one, otherwise, or if
+     * that fails, use the dispatcher port.
+     */
+    AUTO,
+    /** Bind an ephemeral port in the end host range of the topology. */
+    DIRECT,
+    /** Bind the dispatcher port. */
+    DISPATCHER
+  }
+
+  /** System property to select the {@link Mode}, e.g. "-Dorg.scion.examples.socketMode=DIRECT". */
+  public static final String PROPERTY_SOCKET_MODE = "org.scion.examples.socketMode";
+
+  public static final int DISPATCHER_PORT = 30041;
+  private static final int BIND_ATTEMPTS = 32;
+  private static final Pattern DISPATCHED_PORTS =
+      Pattern.compile("\"dispatched_ports\"\\s*:\\s*\"(\\d+)-(\\d+)\"");
+
+  /** Creates a socket bound to the given port. */
+  public interface SocketConstructor<T extends ScionDatagramSocket> {
+    T create(int port) throws SocketException;
+  }
+
+  /** The end host port range of the local AS. */
+  private static final class PortRange {
+    private static final int[] RANGE = readPortRange();
+  }
+
+  private ScionSocketFactory() {}
+
+  public static Mode defaultMode() {
+    String mode = System.getProperty(PROPERTY_SOCKET_MODE);
+    return mode == null ? Mode.AUTO : Mode.valueOf(mode.toUpperCase());
+  }
+
+  /**
+   * @return 'true' if the topology defines an end host port range, i.e. the AS has no dispatcher.
+   */
+  public static boolean hasEndHostPortRange() {
+    return PortRange.RANGE != null;
+  }
+
+  public static <T extends ScionDatagramSocket> T open(SocketConstructor<T> constructor)
+      throws SocketException {
+    return open(constructor, defaultMode());
+  }
+
+  public static <T extends ScionDatagramSocket> T open(SocketConstructor<T> constructor, Mode mode)
+      throws SocketException {
+    int[] range = PortRange.RANGE;
+    if (mode == Mode.DISPATCHER || (mode == Mode.AUTO && range == null)) {
+      return constructor.create(DISPATCHER_PORT);
+    }
+    if (range == null) {
+      throw new SocketException("The topology defines no end host port range");
+    }
+    int min = range[0];
+    int size = range[1] - min + 1;
+    // Start at a random port so concurrent clients rarely collide.
+    int start = ThreadLocalRandom.current().nextInt(size);
+    BindException lastError = null;
+    for (int i = 0; i < Math.min(BIND_ATTEMPTS, size); i++) {
+      try {
+        return constructor.create(min + (start + i) % size);
+      } catch (BindException e) {
+        lastError = e;
+      }
+    }
+    if (mode == Mode.DIRECT) {
+      throw lastError;
+    }
+    LOG.info("No free port in {}-{}, using dispatcher port {}", min, range[1], DISPATCHER_PORT);
+    return constructor.create(DISPATCHER_PORT);
+  }
+
+  /**
+   * @return {min, max} from "dispatched_ports" of the local topology file or 'null' if there is no
+   *     topology file or it doesn't define the range.
+   */
+  private static int[] readPortRange() {
+    String file = System.getProperty(Constants.PROPERTY_BOOTSTRAP_TOPO_FILE);
+    if (file == null) {
+      file = System.getenv(Constants.ENV_BOOTSTRAP_TOPO_FILE);
+    }
+    if (file == null) {
+      return null;
+    }
+    try {
+      String topology = new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8);
+      Matcher m = DISPATCHED_PORTS.matcher(topology);
+      if (!m.find()) {
+        return null;
+      }
+      int min = Integer.parseInt(m.group(1));
+      int max = Integer.parseInt(m.group(2));
+      return min <= max ? new int[] {min, max} : null;
+    } catch (IOException | NumberFormatException e) {
+      LOG.warn("Could not read the port range from {}: {}", file, e.getMessage());
+      return null;
+    }
+  }
+}
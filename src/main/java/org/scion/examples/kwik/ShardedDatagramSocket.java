@@ -0,0 +1,152 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.kwik;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.util.concurrent.atomic.LongAdder;
+import org.scion.jpan.ScionDatagramSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splits one SCION server socket into N shards, one per ServerConnector. Each shard has its own
+ * {@link VirtualDatagramSocket} and thus its own kwik receiver thread.
+ *
+ * <p>We do not use SO_REUSEPORT: the kernel would hash on the underlay 4-tuple, and for SCION
+ * traffic the underlay source is the border router, so nearly all traffic would end up on one
+ * shard. Instead, a dispatcher thread receives all packets and routes them by connection ID (see
+ * {@link ConnectionIdRouter}). Packets with a connection ID that is not known yet, such as a
+ * client's first Initial, are routed by a hash of the SCION source address. As long as the client's
+ * address doesn't change, this is the same shard that will later issue its connection IDs.
+ */
+public class ShardedDatagramSocket implements VirtualDatagramSocket.Owner, Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ShardedDatagramSocket.class);
+  private static final int MAX_PACKET_SIZE = 2048;
+  private static final int QUEUE_SIZE = 256;
+
+  private final ScionDatagramSocket socket;
+  private final VirtualDatagramSocket[] shards;
+  private final ConnectionIdRouter router =
+      new ConnectionIdRouter(ConnectionIdRouter.DEFAULT_CONNECTION_ID_LENGTH);
+  private final Thread dispatcher;
+  private volatile boolean closing = false;
+  private final LongAdder routedByCid = new LongAdder();
+  private final LongAdder routedByAddress = new LongAdder();
+
+  public ShardedDatagramSocket(int port, int shardCount) throws SocketException {
+    this.socket = new ScionDatagramSocket(port);
+    try {
+      socket.setReceiveBufferSize(4 * 1024 * 1024);
+    } catch (SocketException e) {
+      LOG.warn("Could not enlarge receive buffer: {}", e.getMessage());
+    }
+    this.shards = new VirtualDatagramSocket[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shards[i] = new VirtualDatagramSocket(this, i, QUEUE_SIZE);
+    }
+    dispatcher = new Thread(this::dispatchLoop, "scion-shard-dispatcher-" + port);
+    dispatcher.setDaemon(true);
+    dispatcher.start();
+  }
+
+  public int getShardCount() {
+    return shards.length;
+  }
+
+  /**
+   * @return the socket to pass to <code>ServerConnector.builder().withSocket()</code>
+   */
+  public VirtualDatagramSocket getShard(int index) {
+    return shards[index];
+  }
+
+  private void dispatchLoop() {
+    DatagramPacket packet = new DatagramPacket(new byte[MAX_PACKET_SIZE], MAX_PACKET_SIZE);
+    while (!closing) {
+      packet.setLength(MAX_PACKET_SIZE);
+      try {
+        socket.receive(packet);
+      } catch (IOException e) {
+        if (!closing) {
+          LOG.error("Receiving failed: {}", e.getMessage());
+        }
+        return;
+      }
+      int shard = router.route(packet.getData(), packet.getOffset(), packet.getLength());
+      if (shard >= 0) {
+        routedByCid.increment();
+      } else {
+        shard = Math.floorMod(packet.getSocketAddress().hashCode(), shards.length);
+        routedByAddress.increment();
+      }
+      shards[shard].deliver(
+          packet.getData(), packet.getOffset(), packet.getLength(), packet.getSocketAddress());
+    }
+  }
+
+  /**
+   * @return number of packets that were dropped because a shard did not keep up.
+   */
+  public long getPacketsDropped() {
+    long dropped = 0;
+    for (VirtualDatagramSocket shard : shards) {
+      dropped += shard.getPacketsDropped();
+    }
+    return dropped;
+  }
+
+  @Override
+  public void send(VirtualDatagramSocket source, DatagramPacket packet) throws IOException {
+    router.learn(packet.getData(), packet.getOffset(), packet.getLength(), source.getId());
+    socket.send(packet);
+  }
+
+  @Override
+  public void closed(VirtualDatagramSocket socket) {
+    router.forget(socket.getId());
+  }
+
+  @Override
+  public SocketAddress getLocalSocketAddress() {
+    return socket.getLocalSocketAddress();
+  }
+
+  @Override
+  public void close() {
+    closing = true;
+    for (VirtualDatagramSocket shard : shards) {
+      shard.close();
+    }
+    socket.close();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("routed by CID=").append(routedByCid.sum());
+    sb.append(", by address=").append(routedByAddress.sum());
+    for (VirtualDatagramSocket shard : shards) {
+      sb.append(", shard ").append(shard.getId()).append(": ");
+      sb.append(shard.getPacketsDelivered()).append(" packets");
+      sb.append(" (").append(shard.getPacketsDropped()).append(" dropped)");
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,172 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.kwik;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.scion.jpan.ScionDatagramSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One SCION socket shared by all client connections, e.g. of an Http3Client:
+ *
+ * <pre>
+ * SharedScionSocket shared = new SharedScionSocket();
+ * Http3Client.newBuilder()
+ *     .connectionBuilderFactory(() -> new ScionConnectionBuilder().sharedSocket(shared))
+ * </pre>
+ *
+ * <p>Every connection gets a {@link VirtualDatagramSocket}. Incoming packets are demultiplexed by
+ * the destination connection ID, which is the source connection ID the client chose (learned from
+ * its outgoing long header packets, see {@link ConnectionIdRouter}). Packets with an unknown
+ * connection ID, e.g. after the server switched to a connection ID issued later, are dropped and
+ * counted as unroutable. Routing them by source address would deliver them to the wrong connection
+ * when several connections go to the same server.
+ *
+ * <p>Since all connections use the same socket, they also share its path cache: only the first
+ * connection to a destination asks the daemon for paths.
+ */
+public class SharedScionSocket implements VirtualDatagramSocket.Owner, Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SharedScionSocket.class);
+  private static final int MAX_PACKET_SIZE = 2048;
+  private static final int QUEUE_SIZE = 256;
+
+  private final ScionDatagramSocket socket;
+  private final ConnectionIdRouter router =
+      new ConnectionIdRouter(ConnectionIdRouter.DEFAULT_CONNECTION_ID_LENGTH);
+  private final ConcurrentHashMap<Integer, VirtualDatagramSocket> connections =
+      new ConcurrentHashMap<>();
+  private final AtomicInteger nextId = new AtomicInteger();
+  private final Thread dispatcher;
+  private volatile boolean closing = false;
+  private final LongAdder unroutable = new LongAdder();
+
+  public SharedScionSocket() throws SocketException {
+    this(AddressMappingDatagramSocket::new);
+  }
+
+  /**
+   * @param constructor creates the shared socket, e.g. <code>FailoverDatagramSocket::new</code>
+   */
+  public SharedScionSocket(ScionSocketFactory.SocketConstructor<?> constructor)
+      throws SocketException {
+    this.socket = ScionSocketFactory.open(constructor);
+    socket.setRemoteDispatcher(true);
+    try {
+      socket.setReceiveBufferSize(4 * 1024 * 1024);
+    } catch (SocketException e) {
+      LOG.warn("Could not enlarge receive buffer: {}", e.getMessage());
+    }
+    dispatcher = new Thread(this::dispatchLoop, "scion-shared-socket-" + socket.getLocalPort());
+    dispatcher.setDaemon(true);
+    dispatcher.start();
+  }
+
+  /**
+   * @return the underlying socket, e.g. to set a path policy.
+   */
+  public ScionDatagramSocket getSocket() {
+    return socket;
+  }
+
+  /**
+   * @return a socket for one connection. It is removed when the connection closes it.
+   */
+  public VirtualDatagramSocket newSocket() throws SocketException {
+    int id = nextId.getAndIncrement();
+    VirtualDatagramSocket s = new VirtualDatagramSocket(this, id, QUEUE_SIZE);
+    connections.put(id, s);
+    return s;
+  }
+
+  public int getConnectionCount() {
+    return connections.size();
+  }
+
+  /**
+   * @return number of received packets that could not be assigned to a connection.
+   */
+  public long getPacketsUnroutable() {
+    return unroutable.sum();
+  }
+
+  private void dispatchLoop() {
+    DatagramPacket packet = new DatagramPacket(new byte[MAX_PACKET_SIZE], MAX_PACKET_SIZE);
+    while (!closing) {
+      packet.setLength(MAX_PACKET_SIZE);
+      try {
+        socket.receive(packet);
+      } catch (IOException e) {
+        if (!closing) {
+          LOG.error("Receiving failed: {}", e.getMessage());
+        }
+        return;
+      }
+      int id = router.route(packet.getData(), packet.getOffset(), packet.getLength());
+      VirtualDatagramSocket target = id < 0 ? null : connections.get(id);
+      if (target == null) {
+        unroutable.increment();
+        continue;
+      }
+      target.deliver(
+          packet.getData(), packet.getOffset(), packet.getLength(), packet.getSocketAddress());
+    }
+  }
+
+  @Override
+  public void send(VirtualDatagramSocket source, DatagramPacket packet) throws IOException {
+    router.learn(packet.getData(), packet.getOffset(), packet.getLength(), source.getId());
+    socket.send(packet);
+  }
+
+  @Override
+  public void closed(VirtualDatagramSocket s) {
+    connections.remove(s.getId());
+    router.forget(s.getId());
+  }
+
+  @Override
+  public SocketAddress getLocalSocketAddress() {
+    return socket.getLocalSocketAddress();
+  }
+
+  @Override
+  public void close() {
+    closing = true;
+    for (VirtualDatagramSocket s : connections.values()) {
+      s.close();
+    }
+    socket.close();
+  }
+
+  @Override
+  public String toString() {
+    return "SharedScionSocket{port="
+        + socket.getLocalPort()
+        + ", connections="
+        + connections.size()
+        + ", unroutable="
+        + unroutable.sum()
+        + "}";
+  }
+}
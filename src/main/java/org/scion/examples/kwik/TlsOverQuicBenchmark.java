@@ -0,0 +1,397 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.kwik;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import net.luminis.quic.QuicClientConnection;
+import net.luminis.quic.QuicConnection;
+import net.luminis.quic.QuicStream;
+import net.luminis.quic.log.SysOutLogger;
+import net.luminis.quic.server.ApplicationProtocolConnection;
+import net.luminis.quic.server.ApplicationProtocolConnectionFactory;
+import net.luminis.quic.server.ServerConnectionConfig;
+import net.luminis.quic.server.ServerConnector;
+import org.scion.jpan.ScionDatagramSocket;
+
+/**
+ * Measures the cost of TLS on top of QUIC streams (i.e. encrypting twice), as done by {@link
+ * KwikClientHttps}. Each transfer sends a fixed amount of data on a new stream of one connection,
+ * the server replies with the number of bytes received. Modes:
+ *
+ * <ul>
+ *   <li>plain: the QUIC stream only, encrypted once by QUIC
+ *   <li>engine: TLS via {@link QuicTlsChannel}
+ *   <li>socket: TLS via SSLSocket over QuicSocket with buffered streams, as in KwikClientHttps
+ * </ul>
+ *
+ * Reports throughput and CPU time per GB of the client process, and the TLS handshake time.
+ *
+ * <p>Arguments: server port cert-file key-file (PKCS#8 PEM) | client server-URI [MB per transfer
+ * [transfers per mode]]
+ */
+public class TlsOverQuicBenchmark {
+
+  private static final String ALPN = "tls-bench";
+  private static final byte MODE_PLAIN = 'P';
+  private static final byte MODE_TLS = 'T';
+  private static final int CHUNK_SIZE = 64 * 1024;
+  private static final char[] KEY_PASSWORD = "benchmark".toCharArray();
+
+  public static void main(String[] args) throws Exception {
+    if (args.length >= 4 && args[0].equals("server")) {
+      runServer(Integer.parseInt(args[1]), args[2], args[3]);
+    } else if (args.length >= 2 && args[0].equals("client")) {
+      long size = (args.length > 2 ? Long.parseLong(args[2]) : 100) * 1024 * 1024;
+      int transfers = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+      runClient(URI.create(args[1]), size, transfers);
+    } else {
+      System.err.println(
+          "Usage: server <port> <cert file> <key file> | client <server URI> [MB [transfers]]");
+      System.exit(1);
+    }
+  }
+
+  // ----------------------------------------------------------------------------------- client
+
+  private interface Transfer {
+    void run(QuicClientConnection connection, long size) throws Exception;
+  }
+
+  private static void runClient(URI server, long size, int transfers) throws Exception {
+    QuicClientConnection connection =
+        ScionConnectionBuilder.newBuilder()
+            .uri(server)
+            .applicationProtocol(ALPN)
+            .noServerCertificateCheck()
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    connection.connect();
+    SSLContext context = SSLContext.getInstance("TLSv1.3");
+    context.init(null, new TrustManager[] {new TrustAllManager()}, null);
+
+    System.out.printf("%-7s %12s %14s %15s%n", "mode", "Mbit/s", "CPU [s/GB]", "handshake [ms]");
+    measure("plain", connection, size, transfers, TlsOverQuicBenchmark::sendPlain, null);
+    HandshakeTimer engineTimer = new HandshakeTimer();
+    Transfer engine = (c, n) -> sendEngine(c, n, context, server, engineTimer);
+    measure("engine", connection, size, transfers, engine, engineTimer);
+    HandshakeTimer socketTimer = new HandshakeTimer();
+    Transfer socket = (c, n) -> sendSocket(c, n, context, server, socketTimer);
+    measure("socket", connection, size, transfers, socket, socketTimer);
+    connection.close();
+  }
+
+  private static class HandshakeTimer {
+    long nanos;
+    int count;
+
+    void add(long start) {
+      nanos += System.nanoTime() - start;
+      count++;
+    }
+  }
+
+  private static void measure(
+      String mode,
+      QuicClientConnection connection,
+      long size,
+      int transfers,
+      Transfer transfer,
+      HandshakeTimer timer)
+      throws Exception {
+    // Warm up
+    transfer.run(connection, size / 10);
+    if (timer != null) {
+      timer.nanos = 0;
+      timer.count = 0;
+    }
+    long cpuStart = processCpuNanos();
+    long start = System.nanoTime();
+    for (int i = 0; i < transfers; i++) {
+      transfer.run(connection, size);
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    double cpuSeconds = (processCpuNanos() - cpuStart) / 1e9;
+    double gb = (double) size * transfers / 1e9;
+    String handshake = "-";
+    if (timer != null && timer.count > 0) {
+      handshake = String.format("%.2f", timer.nanos / 1e6 / timer.count);
+    }
+    System.out.printf(
+        "%-7s %12.1f %14.2f %15s%n",
+        mode, size * transfers * 8 / seconds / 1e6, cpuSeconds / gb, handshake);
+  }
+
+  private static void sendPlain(QuicClientConnection connection, long size) throws IOException {
+    QuicStream stream = connection.createStream(true);
+    byte[] chunk = new byte[CHUNK_SIZE];
+    OutputStream out = stream.getOutputStream();
+    out.write(MODE_PLAIN);
+    ByteBuffer header = ByteBuffer.allocate(8).putLong(size);
+    out.write(header.array());
+    for (long sent = 0; sent < size; sent += CHUNK_SIZE) {
+      out.write(chunk, 0, (int) Math.min(CHUNK_SIZE, size - sent));
+    }
+    out.close();
+    checkReply(new DataInputStream(stream.getInputStream()).readLong(), size);
+  }
+
+  private static void sendEngine(
+      QuicClientConnection connection,
+      long size,
+      SSLContext context,
+      URI server,
+      HandshakeTimer timer)
+      throws IOException {
+    QuicStream stream = connection.createStream(true);
+    stream.getOutputStream().write(MODE_TLS);
+    long start = System.nanoTime();
+    try (QuicTlsChannel channel =
+        QuicTlsChannel.connect(stream, context, server.getHost(), server.getPort())) {
+      timer.add(start);
+      ByteBuffer header = ByteBuffer.allocate(8).putLong(size).flip();
+      channel.write(header);
+      ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+      for (long sent = 0; sent < size; sent += CHUNK_SIZE) {
+        chunk.clear().limit((int) Math.min(CHUNK_SIZE, size - sent));
+        channel.write(chunk);
+      }
+      ByteBuffer reply = ByteBuffer.allocate(8);
+      while (reply.hasRemaining()) {
+        if (channel.read(reply) < 0) {
+          throw new IOException("Missing reply");
+        }
+      }
+      checkReply(reply.flip().getLong(), size);
+    }
+  }
+
+  /** The stack of KwikClientHttps. */
+  private static void sendSocket(
+      QuicClientConnection connection,
+      long size,
+      SSLContext context,
+      URI server,
+      HandshakeTimer timer)
+      throws IOException {
+    QuicSocket quicSocket = new QuicSocket(server, connection);
+    quicSocket.getOutputStream().write(MODE_TLS);
+    long start = System.nanoTime();
+    try (SSLSocket socket =
+        (SSLSocket)
+            context
+                .getSocketFactory()
+                .createSocket(quicSocket, server.getHost(), server.getPort(), true)) {
+      socket.startHandshake();
+      timer.add(start);
+      DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      out.writeLong(size);
+      byte[] chunk = new byte[CHUNK_SIZE];
+      for (long sent = 0; sent < size; sent += CHUNK_SIZE) {
+        out.write(chunk, 0, (int) Math.min(CHUNK_SIZE, size - sent));
+      }
+      out.flush();
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      checkReply(new DataInputStream(in).readLong(), size);
+    }
+  }
+
+  private static void checkReply(long received, long sent) throws IOException {
+    if (received != sent) {
+      throw new IOException("Server received " + received + " bytes, expected " + sent);
+    }
+  }
+
+  /** The benchmark server uses a self-signed certificate. */
+  private static class TrustAllManager implements X509TrustManager {
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType) {}
+
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType) {}
+
+    @Override
+    public X509Certificate[] getAcceptedIssuers() {
+      return new X509Certificate[0];
+    }
+  }
+
+  // ----------------------------------------------------------------------------------- server
+
+  private static void runServer(int port, String certFile, String keyFile) throws Exception {
+    SSLContext context = SSLContext.getInstance("TLSv1.3");
+    KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    kmf.init(loadKeyStore(certFile, keyFile), KEY_PASSWORD);
+    context.init(kmf.getKeyManagers(), null, null);
+
+    ServerConnectionConfig config =
+        ServerConnectionConfig.builder().maxOpenPeerInitiatedBidirectionalStreams(100).build();
+    // Without a socket, kwik would open a plain UDP socket, which the SCION client can't reach.
+    ServerConnector connector =
+        ServerConnector.builder()
+            .withPort(port)
+            .withSocket(new ScionDatagramSocket(port))
+            .withCertificate(new FileInputStream(certFile), new FileInputStream(keyFile))
+            .withConfiguration(config)
+            .withLogger(new SysOutLogger())
+            .build();
+    ExecutorService executor = Executors.newCachedThreadPool();
+    connector.registerApplicationProtocol(ALPN, new BenchmarkConnectionFactory(context, executor));
+    connector.start();
+    System.out.println("TLS-over-QUIC benchmark server listening on port " + port);
+  }
+
+  private static class BenchmarkConnectionFactory implements ApplicationProtocolConnectionFactory {
+    private final SSLContext context;
+    private final ExecutorService executor;
+
+    BenchmarkConnectionFactory(SSLContext context, ExecutorService executor) {
+      this.context = context;
+      this.executor = executor;
+    }
+
+    @Override
+    public ApplicationProtocolConnection createConnection(
+        String protocol, QuicConnection connection) {
+      return new ApplicationProtocolConnection() {
+        @Override
+        public void acceptPeerInitiatedStream(QuicStream stream) {
+          // Don't block kwik's receiver thread
+          executor.execute(() -> handle(stream));
+        }
+      };
+    }
+
+    @Override
+    public int maxConcurrentPeerInitiatedUnidirectionalStreams() {
+      return 0;
+    }
+
+    @Override
+    public int maxConcurrentPeerInitiatedBidirectionalStreams() {
+      return Integer.MAX_VALUE;
+    }
+
+    private void handle(QuicStream stream) {
+      try {
+        int mode = stream.getInputStream().read();
+        if (mode == MODE_PLAIN) {
+          handlePlain(stream);
+        } else if (mode == MODE_TLS) {
+          handleTls(stream);
+        }
+      } catch (IOException e) {
+        System.err.println("Stream failed: " + e.getMessage());
+      }
+    }
+
+    private void handlePlain(QuicStream stream) throws IOException {
+      DataInputStream in = new DataInputStream(stream.getInputStream());
+      long size = in.readLong();
+      byte[] buffer = new byte[CHUNK_SIZE];
+      long received = 0;
+      int n;
+      while (received < size && (n = in.read(buffer)) >= 0) {
+        received += n;
+      }
+      DataOutputStream out = new DataOutputStream(stream.getOutputStream());
+      out.writeLong(received);
+      out.close();
+    }
+
+    private void handleTls(QuicStream stream) throws IOException {
+      SSLEngine engine = context.createSSLEngine();
+      engine.setUseClientMode(false);
+      try (QuicTlsChannel channel = new QuicTlsChannel(stream, engine)) {
+        channel.handshake();
+        ByteBuffer header = ByteBuffer.allocate(8);
+        while (header.hasRemaining()) {
+          if (channel.read(header) < 0) {
+            return;
+          }
+        }
+        long size = header.flip().getLong();
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        long received = 0;
+        int n;
+        while (received < size && (n = channel.read(buffer)) >= 0) {
+          received += n;
+          buffer.clear();
+        }
+        channel.write(ByteBuffer.allocate(8).putLong(received).flip());
+      }
+    }
+  }
+
+  /** Key store with the certificate and its PKCS#8 (RSA or EC) key. */
+  private static KeyStore loadKeyStore(String certFile, String keyFile)
+      throws IOException, GeneralSecurityException {
+    Certificate certificate;
+    try (InputStream in = new FileInputStream(certFile)) {
+      certificate = CertificateFactory.getInstance("X.509").generateCertificate(in);
+    }
+    String pem = new String(Files.readAllBytes(Paths.get(keyFile)), StandardCharsets.US_ASCII);
+    if (!pem.contains("BEGIN PRIVATE KEY")) {
+      throw new GeneralSecurityException("Key must be PKCS#8 PEM: " + keyFile);
+    }
+    String base64 = pem.replaceAll("-----[A-Z ]+-----", "").replaceAll("\\s", "");
+    PKCS8EncodedKeySpec spec = new PKCS8EncodedKeySpec(Base64.getDecoder().decode(base64));
+    String algorithm = certificate.getPublicKey().getAlgorithm();
+    PrivateKey key = KeyFactory.getInstance(algorithm).generatePrivate(spec);
+    KeyStore keyStore = KeyStore.getInstance("PKCS12");
+    keyStore.load(null, null);
+    keyStore.setKeyEntry("server", key, KEY_PASSWORD, new Certificate[] {certificate});
+    return keyStore;
+  }
+
+  private static long processCpuNanos() {
+    java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    if (os instanceof com.sun.management.OperatingSystemMXBean) {
+      return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,268 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.kwik;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.DatagramSocketImpl;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A DatagramSocket that is not backed by its own OS socket. Incoming packets are delivered by the
+ * owner of a shared socket via {@link #deliver}, outgoing packets are passed on to the owner.
+ *
+ * <p>This allows several kwik connections or connectors, each with its own receiver thread, to
+ * share one SCION socket. The socket is created with a no-op {@link DatagramSocketImpl}, so no OS
+ * socket is opened.
+ */
+public class VirtualDatagramSocket extends DatagramSocket {
+
+  /** The shared socket that actually sends packets. */
+  public interface Owner {
+    void send(VirtualDatagramSocket source, DatagramPacket packet) throws IOException;
+
+    void closed(VirtualDatagramSocket socket);
+
+    SocketAddress getLocalSocketAddress();
+  }
+
+  private static final int MAX_PACKET_SIZE = 2048;
+
+  private final Owner owner;
+  private final int id;
+  private final BlockingQueue<DatagramPacket> free;
+  private final BlockingQueue<DatagramPacket> filled;
+  private volatile boolean isClosed = false;
+  private volatile int soTimeout = 0;
+  private final LongAdder packetsDelivered = new LongAdder();
+  private final LongAdder packetsDropped = new LongAdder();
+
+  /**
+   * @param owner the shared socket
+   * @param id identifier of this socket, e.g. a shard index
+   * @param queueSize number of packets that can be queued for the receiver
+   */
+  public VirtualDatagramSocket(Owner owner, int id, int queueSize) throws SocketException {
+    super(new NoOpDatagramSocketImpl());
+    this.owner = owner;
+    this.id = id;
+    this.free = new ArrayBlockingQueue<>(queueSize);
+    this.filled = new ArrayBlockingQueue<>(queueSize);
+    for (int i = 0; i < queueSize; i++) {
+      free.add(new DatagramPacket(new byte[MAX_PACKET_SIZE], MAX_PACKET_SIZE));
+    }
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  /**
+   * Queue a packet for this socket's receiver. The data is copied.
+   *
+   * @return 'false' if the packet was dropped because the receiver does not keep up.
+   */
+  public boolean deliver(byte[] data, int offset, int length, SocketAddress source) {
+    DatagramPacket slot = free.poll();
+    if (slot == null || isClosed || length > MAX_PACKET_SIZE) {
+      if (slot != null) {
+        free.offer(slot);
+      }
+      packetsDropped.increment();
+      return false;
+    }
+    System.arraycopy(data, offset, slot.getData(), 0, length);
+    slot.setLength(length);
+    slot.setSocketAddress(source);
+    filled.offer(slot);
+    packetsDelivered.increment();
+    return true;
+  }
+
+  @Override
+  public void receive(DatagramPacket packet) throws IOException {
+    long timeoutNs = TimeUnit.MILLISECONDS.toNanos(soTimeout);
+    long deadline = System.nanoTime() + timeoutNs;
+    DatagramPacket slot;
+    while ((slot = filled.poll()) == null) {
+      if (isClosed) {
+        throw new SocketException("Socket closed");
+      }
+      try {
+        slot = filled.poll(100, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SocketException("Interrupted");
+      }
+      if (slot != null) {
+        break;
+      }
+      if (timeoutNs > 0 && System.nanoTime() - deadline > 0) {
+        throw new SocketTimeoutException("Receive timed out");
+      }
+    }
+    int len = Math.min(slot.getLength(), packet.getData().length - packet.getOffset());
+    System.arraycopy(slot.getData(), 0, packet.getData(), packet.getOffset(), len);
+    packet.setLength(len);
+    packet.setSocketAddress(slot.getSocketAddress());
+    slot.setLength(MAX_PACKET_SIZE);
+    free.offer(slot);
+  }
+
+  @Override
+  public void send(DatagramPacket packet) throws IOException {
+    if (isClosed) {
+      throw new SocketException("Socket closed");
+    }
+    owner.send(this, packet);
+  }
+
+  @Override
+  public void setSoTimeout(int timeout) {
+    this.soTimeout = timeout;
+  }
+
+  @Override
+  public int getSoTimeout() {
+    return soTimeout;
+  }
+
+  @Override
+  public SocketAddress getLocalSocketAddress() {
+    return owner.getLocalSocketAddress();
+  }
+
+  @Override
+  public InetAddress getLocalAddress() {
+    SocketAddress address = owner.getLocalSocketAddress();
+    return address instanceof InetSocketAddress
+        ? ((InetSocketAddress) address).getAddress()
+        : null;
+  }
+
+  @Override
+  public int getLocalPort() {
+    SocketAddress address = owner.getLocalSocketAddress();
+    return address instanceof InetSocketAddress
+        ? ((InetSocketAddress) address).getPort()
+        : -1;
+  }
+
+  @Override
+  public boolean isBound() {
+    return true;
+  }
+
+  @Override
+  public boolean isClosed() {
+    return isClosed;
+  }
+
+  @Override
+  public void close() {
+    if (!isClosed) {
+      isClosed = true;
+      owner.closed(this);
+      super.close();
+    }
+  }
+
+  public long getPacketsDelivered() {
+    return packetsDelivered.sum();
+  }
+
+  public long getPacketsDropped() {
+    return packetsDropped.sum();
+  }
+
+  /** All I/O is done by the overridden methods, the impl is never used. */
+  private static class NoOpDatagramSocketImpl extends DatagramSocketImpl {
+    @Override
+    protected void create() {}
+
+    @Override
+    protected void bind(int lport, InetAddress laddr) {}
+
+    @Override
+    protected void send(DatagramPacket p) throws IOException {
+      throw new SocketException("Not supported");
+    }
+
+    @Override
+    protected int peek(InetAddress i) throws IOException {
+      throw new SocketException("Not supported");
+    }
+
+    @Override
+    protected int peekData(DatagramPacket p) throws IOException {
+      throw new SocketException("Not supported");
+    }
+
+    @Override
+    protected void receive(DatagramPacket p) throws IOException {
+      throw new SocketException("Not supported");
+    }
+
+    // Deprecated in DatagramSocketImpl, no @Override so this compiles where they were removed.
+    @Deprecated
+    protected void setTTL(byte ttl) {}
+
+    @Deprecated
+    protected byte getTTL() {
+      return 0;
+    }
+
+    @Override
+    protected void setTimeToLive(int ttl) {}
+
+    @Override
+    protected int getTimeToLive() {
+      return 0;
+    }
+
+    @Override
+    protected void join(InetAddress inetaddr) {}
+
+    @Override
+    protected void leave(InetAddress inetaddr) {}
+
+    @Override
+    protected void joinGroup(SocketAddress mcastaddr, NetworkInterface netIf) {}
+
+    @Override
+    protected void leaveGroup(SocketAddress mcastaddr, NetworkInterface netIf) {}
+
+    @Override
+    protected void close() {}
+
+    @Override
+    public void setOption(int optID, Object value) {}
+
+    @Override
+    public Object getOption(int optID) {
+      return null;
+    }
+  }
+}
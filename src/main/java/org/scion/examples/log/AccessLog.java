@@ -0,0 +1,242 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Access log in the Apache common log format, written by a background thread.
+ *
+ * <p>Request threads only put a record into a lock-free {@link RingBuffer}. The writer formats the
+ * records into one reusable builder (the timestamp string is formatted once per second), encodes
+ * them into a reusable buffer and writes them in batches. Files are rotated when they reach their
+ * maximum size: access.log -> access.log.1 -> ... -> access.log.N. Records that don't fit into the
+ * ring buffer are dropped and counted.
+ */
+public class AccessLog implements Closeable {
+
+  public static final int DEFAULT_CAPACITY = 64 * 1024;
+  public static final long DEFAULT_MAX_FILE_SIZE = 100L * 1024 * 1024;
+  public static final int DEFAULT_MAX_FILES = 5;
+  private static final int BATCH_SIZE = 64 * 1024;
+  private static final DateTimeFormatter TIME_FORMAT =
+      DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US)
+          .withZone(ZoneId.systemDefault());
+
+  private static class Record {
+    final InetAddress client;
+    final long epochSecond;
+    final String method;
+    final String path;
+    final int status;
+    final long size;
+
+    Record(InetAddress client, long epochSecond, String method, String path, int status, long size) {
+      this.client = client;
+      this.epochSecond = epochSecond;
+      this.method = method;
+      this.path = path;
+      this.status = status;
+      this.size = size;
+    }
+  }
+
+  private final Path file;
+  private final long maxFileSize;
+  private final int maxFiles;
+  private final RingBuffer<Record> ring;
+  private final Thread writer;
+  private volatile boolean closed = false;
+  private final LongAdder dropped = new LongAdder();
+
+  // Only used by the writer thread
+  private FileChannel channel;
+  private long fileSize;
+  private final StringBuilder line = new StringBuilder(256);
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BATCH_SIZE);
+  private final CharsetEncoder encoder =
+      StandardCharsets.UTF_8
+          .newEncoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private long cachedSecond = Long.MIN_VALUE;
+  private String cachedTime;
+
+  public AccessLog(Path file) throws IOException {
+    this(file, DEFAULT_CAPACITY, DEFAULT_MAX_FILE_SIZE, DEFAULT_MAX_FILES);
+  }
+
+  /**
+   * @param file the log file
+   * @param capacity maximum number of records that wait to be written
+   * @param maxFileSize the file is rotated when it gets larger than this
+   * @param maxFiles number of rotated files to keep
+   */
+  public AccessLog(Path file, int capacity, long maxFileSize, int maxFiles) throws IOException {
+    this.file = file;
+    this.maxFileSize = maxFileSize;
+    this.maxFiles = maxFiles;
+    this.ring = new RingBuffer<>(capacity);
+    open();
+    this.writer = new Thread(this::writeLoop, "access-log");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /** Log a request. Never blocks. */
+  public void log(
+      InetAddress client, Instant time, String method, String path, int status, long size) {
+    Record record = new Record(client, time.getEpochSecond(), method, path, status, size);
+    if (closed || !ring.offer(record)) {
+      dropped.increment();
+    }
+  }
+
+  public long getDroppedRecords() {
+    return dropped.sum();
+  }
+
+  private void writeLoop() {
+    while (!closed || !ring.isEmpty()) {
+      Record record = ring.poll();
+      if (record == null) {
+        flush();
+        LockSupport.parkNanos(1_000_000);
+        continue;
+      }
+      format(record);
+      encode();
+    }
+    flush();
+    try {
+      channel.close();
+    } catch (IOException e) {
+      System.err.println("AccessLog: closing " + file + " failed: " + e.getMessage());
+    }
+  }
+
+  private void format(Record r) {
+    line.setLength(0);
+    line.append(r.client == null ? "-" : r.client.getHostAddress());
+    line.append(" - - [").append(timestamp(r.epochSecond)).append("] \"");
+    line.append(r.method).append(' ').append(r.path).append(" HTTP/3\" ");
+    line.append(r.status).append(' ');
+    if (r.size > 0) {
+      line.append(r.size);
+    } else {
+      line.append('-');
+    }
+    line.append('\n');
+  }
+
+  /** Encode the line into the buffer, flushing the buffer whenever it is full. */
+  private void encode() {
+    CharBuffer chars = CharBuffer.wrap(line);
+    while (encoder.encode(chars, buffer, true).isOverflow()) {
+      flush();
+    }
+    while (encoder.flush(buffer).isOverflow()) {
+      flush();
+    }
+    encoder.reset();
+  }
+
+  private String timestamp(long epochSecond) {
+    if (epochSecond != cachedSecond) {
+      cachedTime = TIME_FORMAT.format(Instant.ofEpochSecond(epochSecond));
+      cachedSecond = epochSecond;
+    }
+    return cachedTime;
+  }
+
+  private void flush() {
+    if (buffer.position() == 0) {
+      return;
+    }
+    buffer.flip();
+    try {
+      if (!channel.isOpen()) {
+        // A previous rotation failed, try again to reopen the file.
+        open();
+      }
+      while (buffer.hasRemaining()) {
+        fileSize += channel.write(buffer);
+      }
+      if (fileSize > maxFileSize) {
+        rotate();
+      }
+    } catch (IOException e) {
+      System.err.println("AccessLog: writing " + file + " failed: " + e.getMessage());
+    }
+    buffer.clear();
+  }
+
+  private void rotate() throws IOException {
+    channel.close();
+    try {
+      for (int i = maxFiles - 1; i >= 1; i--) {
+        Path from = rotated(i);
+        if (Files.exists(from)) {
+          Files.move(from, rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+      Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      // Keep logging even if the files could not be moved, the next flush will retry.
+      open();
+    }
+  }
+
+  private Path rotated(int index) {
+    return file.resolveSibling(file.getFileName() + "." + index);
+  }
+
+  private void open() throws IOException {
+    channel =
+        FileChannel.open(
+            file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    fileSize = channel.size();
+  }
+
+  /** Write all pending records and stop the writer thread. */
+  @Override
+  public void close() {
+    closed = true;
+    LockSupport.unpark(writer);
+    try {
+      writer.join(1000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
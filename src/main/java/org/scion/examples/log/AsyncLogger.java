@@ -0,0 +1,284 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.log;
+
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import net.luminis.quic.log.BaseLogger;
+import net.luminis.quic.packet.QuicPacket;
+
+/**
+ * A drop-in replacement for kwik's SysOutLogger that does not write on the caller's thread.
+ *
+ * <p>Log records are put into a lock-free {@link RingBuffer} and written by a background thread.
+ * Packet log records only capture the packet and the timestamp; the packet is formatted by the
+ * writer thread. Packet logs are rate limited to a fixed number per second. Records that are rate
+ * limited or that don't fit into the ring buffer are dropped and counted; the writer reports the
+ * number of dropped records periodically.
+ *
+ * <p>Note that formatting a packet later means that the output shows the packet's state at the
+ * time it is written, which is the same for all practical purposes since kwik doesn't modify
+ * packets after they were sent or parsed.
+ *
+ * <p>A shutdown hook writes the remaining records when the JVM exits, so the tail of the log is not
+ * lost if the logger is not closed.
+ */
+public class AsyncLogger extends BaseLogger implements Closeable {
+
+  public static final int DEFAULT_CAPACITY = 64 * 1024;
+  public static final int DEFAULT_PACKETS_PER_SECOND = 1000;
+  private static final long DROP_REPORT_INTERVAL_NS = TimeUnit.SECONDS.toNanos(5);
+  private static final int WINDOW_SHIFT = 30; // ~1.07 seconds
+
+  private final PrintStream out;
+  private final RingBuffer<Object> ring;
+  private final int packetsPerSecond;
+  private final Thread writer;
+  private final Thread shutdownHook;
+  private volatile boolean closed = false;
+  // BaseLogger.logPackets is private
+  private volatile boolean logPacketsEnabled = false;
+
+  private final AtomicLong window = new AtomicLong();
+  private final AtomicLong packetsInWindow = new AtomicLong();
+  private final LongAdder droppedFull = new LongAdder();
+  private final LongAdder droppedRateLimit = new LongAdder();
+  private long reportedDrops = 0;
+
+  public AsyncLogger() {
+    this(System.out, DEFAULT_CAPACITY, DEFAULT_PACKETS_PER_SECOND);
+  }
+
+  /**
+   * @param out where to write the log
+   * @param capacity maximum number of records that wait to be written
+   * @param packetsPerSecond maximum number of packets that are logged per second
+   */
+  public AsyncLogger(PrintStream out, int capacity, int packetsPerSecond) {
+    this.out = out;
+    this.ring = new RingBuffer<>(capacity);
+    this.packetsPerSecond = packetsPerSecond;
+    this.writer = new Thread(this::writeLoop, "async-logger");
+    writer.setDaemon(true);
+    writer.start();
+    this.shutdownHook = new Thread(this::close, "async-logger-shutdown");
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+  }
+
+  private static class PacketRecord {
+    final Instant time;
+    final QuicPacket packet;
+    final List<QuicPacket> packets;
+    final boolean received;
+    final int level;
+
+    PacketRecord(
+        Instant time, QuicPacket packet, List<QuicPacket> packets, boolean received, int level) {
+      this.time = time;
+      this.packet = packet;
+      this.packets = packets;
+      this.received = received;
+      this.level = level;
+    }
+  }
+
+  private static class ErrorRecord {
+    final String message;
+    final Throwable error;
+
+    ErrorRecord(String message, Throwable error) {
+      this.message = message;
+      this.error = error;
+    }
+  }
+
+  @Override
+  public void logPackets(boolean enabled) {
+    logPacketsEnabled = enabled;
+    super.logPackets(enabled);
+  }
+
+  @Override
+  public void received(Instant timeReceived, int level, QuicPacket packet) {
+    if (Thread.currentThread() == writer) {
+      super.received(timeReceived, level, packet);
+    } else if (logPacketsEnabled && acquirePacketPermit()) {
+      enqueue(new PacketRecord(timeReceived, packet, null, true, level));
+    }
+  }
+
+  @Override
+  public void sent(Instant sent, QuicPacket packet) {
+    if (Thread.currentThread() == writer) {
+      super.sent(sent, packet);
+    } else if (logPacketsEnabled && acquirePacketPermit()) {
+      enqueue(new PacketRecord(sent, packet, null, false, 0));
+    }
+  }
+
+  @Override
+  public void sent(Instant sent, List<QuicPacket> packets) {
+    if (Thread.currentThread() == writer) {
+      super.sent(sent, packets);
+    } else if (logPacketsEnabled && acquirePacketPermit()) {
+      enqueue(new PacketRecord(sent, null, packets, false, 0));
+    }
+  }
+
+  private boolean acquirePacketPermit() {
+    long now = System.nanoTime() >>> WINDOW_SHIFT;
+    long current = window.get();
+    if (now != current && window.compareAndSet(current, now)) {
+      packetsInWindow.set(0);
+    }
+    if (packetsInWindow.incrementAndGet() <= packetsPerSecond) {
+      return true;
+    }
+    droppedRateLimit.increment();
+    return false;
+  }
+
+  private void enqueue(Object record) {
+    if (closed || !ring.offer(record)) {
+      droppedFull.increment();
+    }
+  }
+
+  @Override
+  protected void log(String message) {
+    if (Thread.currentThread() == writer) {
+      out.println(message);
+    } else {
+      enqueue(message);
+    }
+  }
+
+  @Override
+  protected void log(String message, Throwable error) {
+    if (Thread.currentThread() == writer) {
+      out.println(message);
+      error.printStackTrace(out);
+    } else {
+      enqueue(new ErrorRecord(message, error));
+    }
+  }
+
+  @Override
+  protected void logWithHexDump(String message, byte[] data, int length) {
+    log(message + " (" + length + " bytes)\n" + toHex(data, 0, length));
+  }
+
+  @Override
+  protected void logWithHexDump(String message, ByteBuffer data, int offset, int length) {
+    byte[] copy = new byte[length];
+    ByteBuffer dup = data.duplicate();
+    dup.position(offset);
+    dup.get(copy);
+    logWithHexDump(message, copy, length);
+  }
+
+  private static String toHex(byte[] data, int offset, int length) {
+    StringBuilder sb = new StringBuilder(length * 3);
+    for (int i = 0; i < length; i++) {
+      sb.append(String.format("%02x", data[offset + i]));
+      sb.append((i + 1) % 16 == 0 ? '\n' : ' ');
+    }
+    return sb.toString();
+  }
+
+  private void writeLoop() {
+    long lastReport = System.nanoTime();
+    while (!closed || !ring.isEmpty()) {
+      Object record = ring.poll();
+      if (record == null) {
+        out.flush();
+        long now = System.nanoTime();
+        if (now - lastReport > DROP_REPORT_INTERVAL_NS) {
+          reportDrops();
+          lastReport = now;
+        }
+        LockSupport.parkNanos(1_000_000);
+        continue;
+      }
+      write(record);
+    }
+    reportDrops();
+    out.flush();
+  }
+
+  private void write(Object record) {
+    if (record instanceof String) {
+      out.println((String) record);
+    } else if (record instanceof PacketRecord) {
+      PacketRecord p = (PacketRecord) record;
+      if (p.received) {
+        super.received(p.time, p.level, p.packet);
+      } else if (p.packet != null) {
+        super.sent(p.time, p.packet);
+      } else {
+        super.sent(p.time, p.packets);
+      }
+    } else if (record instanceof ErrorRecord) {
+      ErrorRecord e = (ErrorRecord) record;
+      out.println(e.message);
+      e.error.printStackTrace(out);
+    }
+  }
+
+  private void reportDrops() {
+    long dropped = getDroppedRecords();
+    if (dropped != reportedDrops) {
+      out.println(
+          "AsyncLogger: dropped "
+              + (dropped - reportedDrops)
+              + " records ("
+              + droppedRateLimit.sum()
+              + " rate limited, "
+              + droppedFull.sum()
+              + " buffer full in total)");
+      reportedDrops = dropped;
+    }
+  }
+
+  public long getDroppedRecords() {
+    return droppedFull.sum() + droppedRateLimit.sum();
+  }
+
+  /** Write all pending records and stop the writer thread. */
+  @Override
+  public void close() {
+    closed = true;
+    LockSupport.unpark(writer);
+    try {
+      writer.join(1000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (Thread.currentThread() != shutdownHook) {
+      try {
+        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+      } catch (IllegalStateException e) {
+        // JVM is shutting down, the hook runs anyway
+      }
+    }
+  }
+}
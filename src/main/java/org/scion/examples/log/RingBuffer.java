@@ -0,0 +1,100 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free multi-producer single-consumer queue.
+ *
+ * <p>Each slot has a sequence number that tells producers and the consumer whether the slot is
+ * free or filled (Dmitry Vyukov's bounded queue). {@link #offer} never blocks; if the buffer is
+ * full it returns 'false' and the caller decides whether to drop the element.
+ *
+ * @param <T> element type
+ */
+public class RingBuffer<T> {
+
+  private final int mask;
+  private final AtomicReferenceArray<T> items;
+  private final AtomicLongArray sequences;
+  private final AtomicLong tail = new AtomicLong();
+  private long head = 0; // Only accessed by the consumer
+
+  /**
+   * @param capacity will be rounded up to the next power of two
+   */
+  public RingBuffer(int capacity) {
+    int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+    this.mask = size - 1;
+    this.items = new AtomicReferenceArray<>(size);
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  public int capacity() {
+    return mask + 1;
+  }
+
+  /**
+   * May be called by any thread.
+   *
+   * @return 'false' if the buffer is full.
+   */
+  public boolean offer(T item) {
+    long pos = tail.get();
+    while (true) {
+      int index = (int) pos & mask;
+      long diff = sequences.get(index) - pos;
+      if (diff == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          items.lazySet(index, item);
+          sequences.set(index, pos + 1);
+          return true;
+        }
+        pos = tail.get();
+      } else if (diff < 0) {
+        return false;
+      } else {
+        pos = tail.get();
+      }
+    }
+  }
+
+  /**
+   * Must only be called by the consumer thread.
+   *
+   * @return the next element or 'null' if the buffer is empty.
+   */
+  public T poll() {
+    int index = (int) head & mask;
+    if (sequences.get(index) != head + 1) {
+      return null;
+    }
+    T item = items.get(index);
+    items.lazySet(index, null);
+    sequences.set(index, head + mask + 1);
+    head++;
+    return item;
+  }
+
+  public boolean isEmpty() {
+    return sequences.get((int) head & mask) != head + 1;
+  }
+}
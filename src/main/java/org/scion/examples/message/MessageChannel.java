@@ -0,0 +1,273 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.message;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import net.luminis.quic.QuicConnection;
+import net.luminis.quic.QuicStream;
+import org.scion.examples.framing.FrameDecoder;
+import org.scion.examples.kwik.BufferPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends and receives independent messages on a QUIC connection. There is no ordering between
+ * messages and stale messages are dropped instead of being sent late.
+ *
+ * <p>This is meant for the use case of QUIC DATAGRAM frames (RFC 9221), which kwik doesn't
+ * support. Instead, queued messages are batched into one short unidirectional stream of
+ * length-prefixed frames (see {@link FrameDecoder}), by default at most one packet's worth. A lost
+ * packet only delays the messages of its own batch; later batches are delivered as they arrive.
+ * Unlike datagrams, a batch is retransmitted after a loss, so it arrives late rather than not at
+ * all. Receivers that care can put a timestamp or sequence number into the message.
+ *
+ * <p>A client creates its channel with {@link #forClient} before connecting, a server uses {@link
+ * MessageProtocol}.
+ */
+public class MessageChannel implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MessageChannel.class);
+
+  /** Receives messages. Called on a reader thread, concurrently for different batches. */
+  public interface Handler {
+    /**
+     * @param message the message. It is only valid during this call.
+     */
+    void onMessage(MessageChannel channel, ByteBuffer message);
+  }
+
+  public static class Config {
+    private int maxMessageSize = 1024;
+    private int maxBatchSize = 1200;
+    private int maxQueuedMessages = 1024;
+    private long maxDelayNanos = Duration.ofMillis(100).toNanos();
+    private int maxStreams = 1000;
+
+    public Config maxMessageSize(int size) {
+      this.maxMessageSize = size;
+      return this;
+    }
+
+    /** Maximum bytes per batch, including the frame headers. 1200 fits into one QUIC packet. */
+    public Config maxBatchSize(int size) {
+      this.maxBatchSize = size;
+      return this;
+    }
+
+    /** Messages that are sent when the queue is full are dropped. */
+    public Config maxQueuedMessages(int messages) {
+      this.maxQueuedMessages = messages;
+      return this;
+    }
+
+    /** Messages that have been queued for longer than this are dropped instead of sent. */
+    public Config maxDelay(Duration delay) {
+      this.maxDelayNanos = delay.toNanos();
+      return this;
+    }
+
+    /** Maximum number of concurrent incoming batch streams. */
+    public Config maxStreams(int streams) {
+      this.maxStreams = streams;
+      return this;
+    }
+
+    public int getMaxStreams() {
+      return maxStreams;
+    }
+  }
+
+  private static final BufferPool POOL = new BufferPool(4 * 1024, 256, false);
+  private static final ExecutorService SENDERS = Executors.newCachedThreadPool(daemon("sender"));
+  private static final ExecutorService READERS = Executors.newCachedThreadPool(daemon("reader"));
+
+  private final QuicConnection connection;
+  private final Handler handler;
+  private final Config config;
+  private final MessageStats stats;
+  private final ArrayDeque<Queued> queue = new ArrayDeque<>();
+  // Only used by the (single) send task
+  private final byte[] batch;
+  private boolean scheduled = false;
+  private volatile boolean closed = false;
+
+  MessageChannel(QuicConnection connection, Handler handler, Config config, MessageStats stats) {
+    this.connection = connection;
+    this.handler = handler;
+    this.config = config;
+    this.stats = stats;
+    // A batch has room for at least one message
+    int maxFrame = FrameDecoder.HEADER_SIZE + config.maxMessageSize;
+    this.batch = new byte[Math.max(config.maxBatchSize, maxFrame)];
+  }
+
+  /**
+   * Create a channel for a client connection. This must be called before the connection is
+   * established. The connection must be built with
+   * maxOpenPeerInitiatedUnidirectionalStreams(config.getMaxStreams()), otherwise the peer can't
+   * send any batches.
+   */
+  public static MessageChannel forClient(
+      QuicConnection connection, Handler handler, Config config) {
+    MessageChannel channel = new MessageChannel(connection, handler, config, new MessageStats());
+    connection.setPeerInitiatedStreamCallback(channel::accept);
+    return channel;
+  }
+
+  private static ThreadFactory daemon(String name) {
+    return r -> {
+      Thread t = new Thread(r, "message-" + name);
+      t.setDaemon(true);
+      return t;
+    };
+  }
+
+  public MessageStats getStats() {
+    return stats;
+  }
+
+  /**
+   * Queue a message for sending. The message is copied, 'message' can be reused when this returns.
+   *
+   * @return 'false' if the message was dropped because the queue is full or the channel closed.
+   */
+  public boolean send(ByteBuffer message) {
+    if (message.remaining() > config.maxMessageSize) {
+      throw new IllegalArgumentException(
+          "Message too large: " + message.remaining() + " > " + config.maxMessageSize);
+    }
+    byte[] copy = new byte[message.remaining()];
+    message.duplicate().get(copy);
+    synchronized (this) {
+      if (closed || queue.size() >= config.maxQueuedMessages) {
+        stats.dropped.increment();
+        return false;
+      }
+      queue.add(new Queued(copy, System.nanoTime()));
+      if (!scheduled) {
+        scheduled = true;
+        SENDERS.execute(this::sendBatch);
+      }
+    }
+    return true;
+  }
+
+  /** Write the queued messages, as many as fit, on a new stream. */
+  private void sendBatch() {
+    int length = 0;
+    int messages = 0;
+    synchronized (this) {
+      long now = System.nanoTime();
+      while (!queue.isEmpty()) {
+        Queued next = queue.peek();
+        if (now - next.time > config.maxDelayNanos) {
+          queue.poll();
+          stats.dropped.increment();
+          continue;
+        }
+        if (length + FrameDecoder.HEADER_SIZE + next.message.length > batch.length) {
+          break;
+        }
+        queue.poll();
+        length = appendFrame(next.message, length);
+        messages++;
+      }
+      if (messages == 0 || closed) {
+        // Messages taken from the queue after close() are not counted by close().
+        stats.dropped.add(messages);
+        scheduled = false;
+        return;
+      }
+    }
+    try {
+      QuicStream stream = connection.createStream(false);
+      OutputStream out = stream.getOutputStream();
+      out.write(batch, 0, length);
+      out.close();
+      stats.sent.add(messages);
+      stats.sentBatches.increment();
+    } catch (IOException | RuntimeException e) {
+      // E.g. the connection is closed or the peer doesn't open more streams in time.
+      stats.dropped.add(messages);
+      stats.failedBatches.increment();
+    }
+    SENDERS.execute(this::sendBatch);
+  }
+
+  private int appendFrame(byte[] message, int offset) {
+    int size = message.length;
+    batch[offset] = (byte) (size >>> 24);
+    batch[offset + 1] = (byte) (size >>> 16);
+    batch[offset + 2] = (byte) (size >>> 8);
+    batch[offset + 3] = (byte) size;
+    System.arraycopy(message, 0, batch, offset + FrameDecoder.HEADER_SIZE, size);
+    return offset + FrameDecoder.HEADER_SIZE + size;
+  }
+
+  /** Accept a batch stream from the peer. Can be called on kwik's receiver thread. */
+  public void accept(QuicStream stream) {
+    READERS.execute(() -> receive(stream));
+  }
+
+  private void receive(QuicStream stream) {
+    FrameDecoder decoder = new FrameDecoder(POOL, config.maxMessageSize);
+    try {
+      FrameDecoder.Frame frame;
+      while ((frame = decoder.next(stream.getInputStream())) != null) {
+        try {
+          stats.received.increment();
+          if (!closed) {
+            handler.onMessage(this, frame.payload());
+          }
+        } finally {
+          frame.release();
+        }
+      }
+      stats.receivedBatches.increment();
+    } catch (IOException | RuntimeException e) {
+      // Nothing to retry, the rest of this batch is lost.
+      stats.failedReceivedBatches.increment();
+      LOG.debug("Receiving message batch failed: {}", e.getMessage());
+    } finally {
+      decoder.close();
+    }
+  }
+
+  /** Stop sending and receiving. Queued messages are dropped. The connection stays open. */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    stats.dropped.add(queue.size());
+    queue.clear();
+  }
+
+  private static class Queued {
+    final byte[] message;
+    final long time;
+
+    Queued(byte[] message, long time) {
+      this.message = message;
+      this.time = time;
+    }
+  }
+}
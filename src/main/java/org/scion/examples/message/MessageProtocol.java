@@ -0,0 +1,66 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.message;
+
+import net.luminis.quic.QuicConnection;
+import net.luminis.quic.QuicStream;
+import net.luminis.quic.server.ApplicationProtocolConnection;
+import net.luminis.quic.server.ApplicationProtocolConnectionFactory;
+
+/**
+ * Server side of {@link MessageChannel}: creates a channel for every connection. The statistics of
+ * all channels are summed up in getStats().
+ */
+public class MessageProtocol implements ApplicationProtocolConnectionFactory {
+
+  private final MessageChannel.Handler handler;
+  private final MessageChannel.Config config;
+  private final MessageStats stats = new MessageStats();
+
+  public MessageProtocol(MessageChannel.Handler handler) {
+    this(handler, new MessageChannel.Config());
+  }
+
+  public MessageProtocol(MessageChannel.Handler handler, MessageChannel.Config config) {
+    this.handler = handler;
+    this.config = config;
+  }
+
+  public MessageStats getStats() {
+    return stats;
+  }
+
+  @Override
+  public ApplicationProtocolConnection createConnection(
+      String protocol, QuicConnection quicConnection) {
+    MessageChannel channel = new MessageChannel(quicConnection, handler, config, stats);
+    return new ApplicationProtocolConnection() {
+      @Override
+      public void acceptPeerInitiatedStream(QuicStream stream) {
+        channel.accept(stream);
+      }
+    };
+  }
+
+  @Override
+  public int maxConcurrentPeerInitiatedUnidirectionalStreams() {
+    return config.getMaxStreams();
+  }
+
+  @Override
+  public int maxConcurrentPeerInitiatedBidirectionalStreams() {
+    return 0;
+  }
+}
@@ -0,0 +1,86 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.message;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** Counters of one or more {@link MessageChannel}s. Thread safe. */
+public class MessageStats {
+
+  private final long start = System.nanoTime();
+  final LongAdder sent = new LongAdder();
+  final LongAdder sentBatches = new LongAdder();
+  final LongAdder received = new LongAdder();
+  final LongAdder receivedBatches = new LongAdder();
+  final LongAdder dropped = new LongAdder();
+  final LongAdder failedBatches = new LongAdder();
+  final LongAdder failedReceivedBatches = new LongAdder();
+
+  public long getMessagesSent() {
+    return sent.sum();
+  }
+
+  public long getBatchesSent() {
+    return sentBatches.sum();
+  }
+
+  public long getMessagesReceived() {
+    return received.sum();
+  }
+
+  public long getBatchesReceived() {
+    return receivedBatches.sum();
+  }
+
+  /**
+   * @return the number of batches that could not be sent, e.g. because the connection was closed.
+   */
+  public long getBatchesFailed() {
+    return failedBatches.sum();
+  }
+
+  /**
+   * @return the number of batches that ended prematurely or were invalid. The rest of such a batch
+   *     is lost.
+   */
+  public long getReceivedBatchesFailed() {
+    return failedReceivedBatches.sum();
+  }
+
+  /**
+   * @return the number of messages that were not sent, because the send queue was full, because
+   *     they were older than maxDelay when their turn came, or because their stream failed.
+   */
+  public long getMessagesDropped() {
+    return dropped.sum();
+  }
+
+  @Override
+  public String toString() {
+    double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+    long sentBatches = getBatchesSent();
+    return String.format(
+        "sent=%d (%.0f/s, %.1f per batch) received=%d (%.0f/s) dropped=%d failedBatches=%d"
+            + " failedReceivedBatches=%d",
+        getMessagesSent(),
+        getMessagesSent() / seconds,
+        sentBatches == 0 ? 0.0 : (double) getMessagesSent() / sentBatches,
+        getMessagesReceived(),
+        getMessagesReceived() / seconds,
+        getMessagesDropped(),
+        getBatchesFailed(),
+        getReceivedBatchesFailed());
+  }
+}
@@ -0,0 +1,132 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram for non-negative long values, e.g. durations in microseconds.
+ *
+ * <p>Values below 16 have their own bucket, larger values are recorded in logarithmic buckets with
+ * four sub-buckets per power of two, so reported percentiles are accurate to within 25%.
+ * Recording is a few atomic increments and never allocates.
+ */
+public class Histogram {
+
+  private static final int LINEAR = 16;
+  private static final int SUB_BUCKET_BITS = 2;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = LINEAR + (64 - 4) * SUB_BUCKETS;
+
+  private final String name;
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final AtomicLong max = new AtomicLong();
+
+  public Histogram(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    buckets.incrementAndGet(indexOf(value));
+    count.increment();
+    sum.add(value);
+    long m = max.get();
+    while (value > m && !max.compareAndSet(m, value)) {
+      m = max.get();
+    }
+  }
+
+  private static int indexOf(long value) {
+    if (value < LINEAR) {
+      return (int) value;
+    }
+    int msb = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (msb - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return LINEAR + (msb - 4) * SUB_BUCKETS + sub;
+  }
+
+  /** Largest value that falls into the given bucket. */
+  private static long upperBoundOf(int index) {
+    if (index < LINEAR) {
+      return index;
+    }
+    int msb = (index - LINEAR) / SUB_BUCKETS + 4;
+    int sub = (index - LINEAR) % SUB_BUCKETS;
+    long lower = (1L << msb) + ((long) sub << (msb - SUB_BUCKET_BITS));
+    return lower + (1L << (msb - SUB_BUCKET_BITS)) - 1;
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public double getMean() {
+    long n = count.sum();
+    return n == 0 ? 0 : (double) sum.sum() / n;
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return an upper bound of the value at the given percentile
+   */
+  public long getPercentile(double percentile) {
+    long[] snapshot = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = buckets.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long threshold = (long) Math.ceil(total * percentile / 100.0);
+    long cumulative = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      cumulative += snapshot[i];
+      if (cumulative >= threshold && snapshot[i] > 0) {
+        return Math.min(upperBoundOf(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%s: n=%d mean=%.1f p50=%d p90=%d p99=%d max=%d",
+        name,
+        getCount(),
+        getMean(),
+        getPercentile(50),
+        getPercentile(90),
+        getPercentile(99),
+        getMax());
+  }
+}
@@ -0,0 +1,201 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import net.luminis.quic.QuicConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Metrics for the QUIC example servers.
+ *
+ * <p>Counters are LongAdders and durations are recorded in lock-free {@link Histogram}s, so
+ * recording from kwik's threads or from stream handlers is cheap and does not contend. The metrics
+ * can be printed periodically with {@link #startReporter} or served as plain text with {@link
+ * #startHttpEndpoint}.
+ *
+ * <p>{@link #snapshot} only contains raw counters, so any number of consumers can read it. Rates
+ * are computed by each consumer for itself, e.g. the reporter prints the stream rate since its
+ * previous report.
+ *
+ * <p>kwik does not tell a server application when a connection is closed or how long its handshake
+ * took, so there are no metrics for active connections or handshake durations.
+ */
+public class ServerMetrics implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ServerMetrics.class);
+
+  /** Port of the HTTP endpoint, see {@link #startHttpEndpoint()}. 0 disables the endpoint. */
+  public static final String PROPERTY_HTTP_PORT = "org.scion.examples.metrics.port";
+
+  public static final int DEFAULT_HTTP_PORT = 9464;
+
+  private final LongAdder connectionsAccepted = new LongAdder();
+  private final LongAdder streamsAccepted = new LongAdder();
+  private final LongAdder bytesIn = new LongAdder();
+  private final LongAdder bytesOut = new LongAdder();
+  private final LongAdder streamErrors = new LongAdder();
+  private final Histogram streamServiceMicros = new Histogram("stream service time[us]");
+  private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+  private final long startNanos = System.nanoTime();
+  private ScheduledExecutorService reporter;
+  private HttpServer httpServer;
+
+  public void connectionAccepted(QuicConnection connection) {
+    connectionsAccepted.increment();
+  }
+
+  public void streamAccepted() {
+    streamsAccepted.increment();
+  }
+
+  /**
+   * Record a served stream.
+   *
+   * @param startNanos System.nanoTime() when the stream was accepted
+   */
+  public void streamCompleted(long startNanos, long bytesRead, long bytesWritten) {
+    streamServiceMicros.record((System.nanoTime() - startNanos) / 1000);
+    bytesIn.add(bytesRead);
+    bytesOut.add(bytesWritten);
+  }
+
+  public void streamFailed() {
+    streamErrors.increment();
+  }
+
+  /**
+   * Register a value that is read when a snapshot is taken, e.g. dropped packets of a socket.
+   */
+  public void registerGauge(String name, LongSupplier value) {
+    gauges.put(name, value);
+  }
+
+  public long getConnectionsAccepted() {
+    return connectionsAccepted.sum();
+  }
+
+  public long getStreamsAccepted() {
+    return streamsAccepted.sum();
+  }
+
+  public Histogram getStreamServiceMicros() {
+    return streamServiceMicros;
+  }
+
+  /**
+   * @return a human readable snapshot of the raw counters. Taking a snapshot has no side effects.
+   */
+  public String snapshot() {
+    StringBuilder sb = new StringBuilder(512);
+    sb.append("uptime[s]=").append((System.nanoTime() - startNanos) / 1_000_000_000L).append('\n');
+    sb.append("connections.accepted=").append(getConnectionsAccepted()).append('\n');
+    sb.append("streams.accepted=").append(getStreamsAccepted()).append('\n');
+    sb.append("streams.failed=").append(streamErrors.sum()).append('\n');
+    sb.append("bytes.in=").append(bytesIn.sum()).append('\n');
+    sb.append("bytes.out=").append(bytesOut.sum()).append('\n');
+    for (Map.Entry<String, LongSupplier> e : gauges.entrySet()) {
+      sb.append(e.getKey()).append('=').append(e.getValue().getAsLong()).append('\n');
+    }
+    sb.append(streamServiceMicros).append('\n');
+    return sb.toString();
+  }
+
+  /** Print a snapshot and the stream rate since the previous report with the given interval. */
+  public synchronized void startReporter(Duration interval, Consumer<String> out) {
+    if (reporter == null) {
+      reporter =
+          Executors.newSingleThreadScheduledExecutor(
+              r -> {
+                Thread t = new Thread(r, "metrics-reporter");
+                t.setDaemon(true);
+                return t;
+              });
+    }
+    long ms = interval.toMillis();
+    long[] last = {System.nanoTime(), getStreamsAccepted()};
+    Runnable report =
+        () -> {
+          long now = System.nanoTime();
+          long streams = getStreamsAccepted();
+          double seconds = Math.max((now - last[0]) / 1e9, 1e-9);
+          double streamsPerSecond = (streams - last[1]) / seconds;
+          last[0] = now;
+          last[1] = streams;
+          out.accept(snapshot() + String.format("streams.perSecond=%.1f%n", streamsPerSecond));
+        };
+    reporter.scheduleAtFixedRate(report, ms, ms, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Serve snapshots on the port given by {@link #PROPERTY_HTTP_PORT}. Failing to bind the port,
+   * e.g. because another server on this host uses it, is logged and otherwise ignored.
+   */
+  public void startHttpEndpoint() {
+    int port = Integer.getInteger(PROPERTY_HTTP_PORT, DEFAULT_HTTP_PORT);
+    if (port == 0) {
+      return;
+    }
+    try {
+      startHttpEndpoint(port);
+    } catch (IOException e) {
+      LOG.warn("Metrics endpoint not started on port {}: {}", port, e.getMessage());
+    }
+  }
+
+  /** Serve snapshots on http://127.0.0.1:port/metrics */
+  public synchronized void startHttpEndpoint(int port) throws IOException {
+    InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    httpServer = HttpServer.create(address, 0);
+    httpServer.createContext(
+        "/metrics",
+        exchange -> {
+          byte[] body = snapshot().getBytes(StandardCharsets.UTF_8);
+          exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
+          exchange.sendResponseHeaders(200, body.length);
+          try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+          }
+        });
+    httpServer.start();
+  }
+
+  @Override
+  public synchronized void close() {
+    if (reporter != null) {
+      reporter.shutdownNow();
+    }
+    if (httpServer != null) {
+      httpServer.stop(0);
+    }
+  }
+}
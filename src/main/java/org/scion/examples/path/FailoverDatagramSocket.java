@@ -0,0 +1,250 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.path;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.scion.examples.kwik.AddressMappingDatagramSocket;
+import org.scion.jpan.Path;
+import org.scion.jpan.Scion;
+
+/**
+ * A SCION socket that sends on one path per destination and switches to a precomputed backup path
+ * when the current path fails.
+ *
+ * <p>A path is suspected to have failed when packets have been sent but nothing has been received
+ * for longer than the loss timeout of the path (max(SRTT + 4 * RTTVAR, 2 * SRTT), see {@link
+ * PathStats}). The socket can't tell ACK-only packets, which are not answered, from packets that
+ * are, so an unanswered packet may also mean that the connection was idle. kwik keeps sending
+ * (retransmissions, PTO probes) while it waits for ACKs, so the next send after the timeout goes
+ * out on the current path and on the backup path. If the reply arrives on the backup path, or
+ * nothing arrives for another loss timeout, the socket switches to the backup path. A reply on the
+ * current path means the connection was only idle. Failures reported externally, e.g. from SCMP
+ * errors, switch immediately via {@link #reportPathDown}.
+ *
+ * <p>RTT samples are the time from the first unanswered send to the next reply. Samples that are
+ * longer than the loss timeout include idle time or retransmissions and are ignored.
+ *
+ * <p>The SCION addresses of the endpoints stay the same, so the QUIC connection continues without
+ * a new handshake and without QUIC path validation.
+ */
+public class FailoverDatagramSocket extends AddressMappingDatagramSocket {
+
+  private static final long DEFAULT_FAILURE_TIMEOUT_NS = 500_000_000L;
+  private static final long MIN_FAILURE_TIMEOUT_NS = 10_000_000L;
+
+  private final MultipathDatagramSocket.PathSource pathSource;
+  private final ConcurrentHashMap<SocketAddress, Destination> destinations =
+      new ConcurrentHashMap<>();
+  private final LongAdder migrations = new LongAdder();
+  private final LongAdder downtimeNanos = new LongAdder();
+  private volatile long maxDowntimeNanos = 0;
+
+  /** The current and backup paths of a destination. */
+  public static class Destination {
+    private final PathStats[] paths;
+    private int current = 0;
+    // Time of the first send that has not been answered yet, 0 if none.
+    private long unansweredSinceNanos = 0;
+    // The backup path that is probed while the current path is suspected to have failed, or -1.
+    private int probing = -1;
+    private long probeSentNanos = 0;
+    // Time the current outage began, 0 if the destination is reachable.
+    private long outageSinceNanos = 0;
+
+    Destination(List<Path> paths) {
+      this.paths = new PathStats[paths.size()];
+      for (int i = 0; i < paths.size(); i++) {
+        this.paths[i] = new PathStats(paths.get(i));
+      }
+    }
+
+    public synchronized PathStats getCurrentPath() {
+      return paths[current];
+    }
+
+    public PathStats[] getPaths() {
+      return paths;
+    }
+  }
+
+  public FailoverDatagramSocket(int port) throws SocketException {
+    this(port, dst -> Scion.defaultService().getPaths(dst));
+  }
+
+  public FailoverDatagramSocket(int port, MultipathDatagramSocket.PathSource pathSource)
+      throws SocketException {
+    super(port);
+    this.pathSource = pathSource;
+  }
+
+  /**
+   * @return the paths of a destination or 'null' if nothing has been sent to it yet.
+   */
+  public Destination getDestination(SocketAddress address) {
+    return destinations.get(address);
+  }
+
+  /** Switch the destination to its next path, e.g. after an SCMP error for the current path. */
+  public void reportPathDown(SocketAddress address) {
+    Destination d = destinations.get(address);
+    if (d != null) {
+      synchronized (d) {
+        failover(d, System.nanoTime());
+      }
+    }
+  }
+
+  public long getMigrationCount() {
+    return migrations.sum();
+  }
+
+  /**
+   * @return the sum of all outages, from the first unanswered packet on a failed path until a
+   *     packet is received again.
+   */
+  public long getTotalDowntimeNanos() {
+    return downtimeNanos.sum();
+  }
+
+  public long getMaxDowntimeNanos() {
+    return maxDowntimeNanos;
+  }
+
+  @Override
+  public void send(DatagramPacket packet) throws IOException {
+    Destination d = getOrCreate(packet.getSocketAddress());
+    if (d == null) {
+      super.send(packet);
+      return;
+    }
+    long now = System.nanoTime();
+    Path path;
+    Path probe = null;
+    synchronized (d) {
+      long timeout = failureTimeout(d);
+      if (d.unansweredSinceNanos == 0) {
+        d.unansweredSinceNanos = now;
+      } else if (d.probing >= 0) {
+        if (now - d.probeSentNanos > timeout) {
+          // No reply on either path
+          failover(d, now);
+        }
+      } else if (now - d.unansweredSinceNanos > timeout && d.paths.length > 1) {
+        d.probing = (d.current + 1) % d.paths.length;
+        d.probeSentNanos = now;
+      }
+      path = d.paths[d.current].getPath();
+      if (d.probing >= 0) {
+        probe = d.paths[d.probing].getPath();
+      }
+    }
+    send(packet, path);
+    if (probe != null) {
+      send(packet, probe);
+    }
+    learn(path, (InetSocketAddress) packet.getSocketAddress());
+  }
+
+  private static long failureTimeout(Destination d) {
+    long timeout = d.paths[d.current].getLossTimeoutNanos(DEFAULT_FAILURE_TIMEOUT_NS);
+    return Math.max(timeout, MIN_FAILURE_TIMEOUT_NS);
+  }
+
+  @Override
+  public void receive(DatagramPacket packet) throws IOException {
+    super.receive(packet);
+    Destination d = destinations.get(packet.getSocketAddress());
+    if (d == null) {
+      return;
+    }
+    long now = System.nanoTime();
+    // The reply path is cached under the SCION address, the packet has the mapped address.
+    InetAddress scionAddress = d.paths[0].getPath().getRemoteAddress();
+    Path replyPath = getCachedPath(new InetSocketAddress(scionAddress, packet.getPort()));
+    synchronized (d) {
+      if (d.probing >= 0 && arrivedOn(replyPath, d.paths[d.probing])) {
+        // The backup path works, the current one apparently not.
+        failover(d, now);
+      } else if (d.probing < 0
+          && d.unansweredSinceNanos != 0
+          && now - d.unansweredSinceNanos <= failureTimeout(d)) {
+        d.paths[d.current].onRttSample(now - d.unansweredSinceNanos);
+      }
+      d.unansweredSinceNanos = 0;
+      d.probing = -1;
+      if (d.outageSinceNanos != 0) {
+        long downtime = now - d.outageSinceNanos;
+        downtimeNanos.add(downtime);
+        if (downtime > maxDowntimeNanos) {
+          maxDowntimeNanos = downtime;
+        }
+        d.outageSinceNanos = 0;
+      }
+    }
+  }
+
+  private static boolean arrivedOn(Path replyPath, PathStats path) {
+    return replyPath != null
+        && RawPaths.sameRoute(path.getPath().getRawPath(), replyPath.getRawPath());
+  }
+
+  private void failover(Destination d, long now) {
+    if (d.paths.length < 2) {
+      return;
+    }
+    d.paths[d.current].onLoss();
+    if (d.outageSinceNanos == 0) {
+      d.outageSinceNanos = d.unansweredSinceNanos != 0 ? d.unansweredSinceNanos : now;
+    }
+    // The backups are ordered by preference; wrap around in case the primary came back.
+    d.current = d.probing >= 0 ? d.probing : (d.current + 1) % d.paths.length;
+    d.probing = -1;
+    d.unansweredSinceNanos = now;
+    migrations.increment();
+  }
+
+  private Destination getOrCreate(SocketAddress address) throws IOException {
+    Destination d = destinations.get(address);
+    if (d == null && address instanceof InetSocketAddress) {
+      List<Path> paths = pathSource.getPaths((InetSocketAddress) address);
+      if (paths == null || paths.isEmpty()) {
+        return null;
+      }
+      d = new Destination(paths);
+      Destination existing = destinations.putIfAbsent(address, d);
+      d = existing != null ? existing : d;
+    }
+    return d;
+  }
+
+  @Override
+  public String toString() {
+    return "FailoverDatagramSocket{migrations="
+        + getMigrationCount()
+        + ", downtime="
+        + getTotalDowntimeNanos() / 1_000_000
+        + "ms, maxDowntime="
+        + getMaxDowntimeNanos() / 1_000_000
+        + "ms}";
+  }
+}
@@ -0,0 +1,66 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.path;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import org.scion.jpan.Path;
+import org.scion.jpan.PathPolicy;
+
+/**
+ * A PathPolicy that returns the path with the lowest measured latency.
+ *
+ * <p>The measurements come from a {@link PathProber}, so choosing a path requires no network round
+ * trip: the prober has already determined the best path. Destinations that are not known yet are
+ * added to the prober and get the fallback policy until they have been measured.
+ */
+public class LatencyPathPolicy implements PathPolicy {
+
+  private final PathProber prober;
+  private final PathPolicy fallback;
+
+  public LatencyPathPolicy(PathProber prober) {
+    this(prober, PathPolicy.DEFAULT);
+  }
+
+  public LatencyPathPolicy(PathProber prober, PathPolicy fallback) {
+    this.prober = prober;
+    this.fallback = fallback;
+  }
+
+  @Override
+  public Path filter(List<Path> paths) {
+    if (paths.isEmpty()) {
+      return fallback.filter(paths);
+    }
+    Path first = paths.get(0);
+    InetSocketAddress destination =
+        new InetSocketAddress(first.getRemoteAddress(), first.getRemotePort());
+    PathStats best = prober.getBestPath(destination);
+    if (best == null) {
+      prober.track(destination);
+      return fallback.filter(paths);
+    }
+    // The paths may be new instances, match them by their raw path.
+    byte[] raw = best.getPath().getRawPath();
+    for (Path path : paths) {
+      if (Arrays.equals(raw, path.getRawPath())) {
+        return path;
+      }
+    }
+    return fallback.filter(paths);
+  }
+}
@@ -0,0 +1,172 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.path;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import org.scion.examples.kwik.AddressMappingDatagramSocket;
+import org.scion.jpan.Path;
+import org.scion.jpan.Scion;
+
+/**
+ * A SCION socket that keeps several paths per destination and chooses a path for every packet with
+ * a {@link PathScheduler}.
+ *
+ * <p>kwik doesn't expose its ACK processing, so RTT is measured at the socket: when a packet is
+ * sent on a path that has no outstanding measurement, we remember the time. The next packet that
+ * is received from the destination over the same path (in reverse, see {@link RawPaths}) completes
+ * the measurement; packets that arrive over other paths don't. QUIC acknowledges ack-eliciting
+ * packets within max_ack_delay, so this is an upper bound of the path RTT that is close enough to
+ * rank paths. If nothing arrives over the path within the loss timeout, the sample counts as lost.
+ *
+ * <p>Changing the SCION path does not change the SCION addresses of the endpoints, so the QUIC
+ * connection does not notice and no QUIC path migration is required.
+ */
+public class MultipathDatagramSocket extends AddressMappingDatagramSocket {
+
+  /** Provides the candidate paths for a destination. */
+  public interface PathSource {
+    List<Path> getPaths(InetSocketAddress destination) throws IOException;
+  }
+
+  private static final long DEFAULT_LOSS_TIMEOUT_NS = 1_000_000_000L;
+
+  private final PathScheduler scheduler;
+  private final PathSource pathSource;
+  private final ConcurrentHashMap<SocketAddress, Destination> destinations =
+      new ConcurrentHashMap<>();
+
+  /** The paths of a destination and the outstanding RTT sample of each path. */
+  public static class Destination {
+    private final PathStats[] paths;
+    private final PathStats[] selected;
+    private final long[] sampleSentNanos;
+    private final boolean[] sampling;
+
+    Destination(List<Path> paths) {
+      this.paths = new PathStats[paths.size()];
+      for (int i = 0; i < paths.size(); i++) {
+        this.paths[i] = new PathStats(paths.get(i));
+      }
+      this.selected = new PathStats[paths.size()];
+      this.sampleSentNanos = new long[paths.size()];
+      this.sampling = new boolean[paths.size()];
+    }
+
+    public PathStats[] getPaths() {
+      return paths;
+    }
+
+    synchronized void onSend(PathStats path, long now) {
+      for (int i = 0; i < paths.length; i++) {
+        if (sampling[i]
+            && now - sampleSentNanos[i] > paths[i].getLossTimeoutNanos(DEFAULT_LOSS_TIMEOUT_NS)) {
+          paths[i].onLoss();
+          sampling[i] = false;
+        }
+        if (paths[i] == path && !sampling[i]) {
+          sampling[i] = true;
+          sampleSentNanos[i] = now;
+        }
+      }
+    }
+
+    /**
+     * @param replyPath the path of the received packet, 'null' if unknown
+     */
+    synchronized void onReceive(Path replyPath, long now) {
+      if (replyPath == null) {
+        return;
+      }
+      byte[] raw = replyPath.getRawPath();
+      for (int i = 0; i < paths.length; i++) {
+        if (sampling[i] && RawPaths.sameRoute(paths[i].getPath().getRawPath(), raw)) {
+          paths[i].onRttSample(now - sampleSentNanos[i]);
+          sampling[i] = false;
+          return;
+        }
+      }
+    }
+  }
+
+  public MultipathDatagramSocket(int port, PathScheduler scheduler) throws SocketException {
+    this(port, scheduler, dst -> Scion.defaultService().getPaths(dst));
+  }
+
+  public MultipathDatagramSocket(int port, PathScheduler scheduler, PathSource pathSource)
+      throws SocketException {
+    super(port);
+    this.scheduler = scheduler;
+    this.pathSource = pathSource;
+  }
+
+  /**
+   * @return the paths and their statistics for a destination or 'null' if nothing has been sent to
+   *     it yet.
+   */
+  public Destination getDestination(SocketAddress address) {
+    return destinations.get(address);
+  }
+
+  @Override
+  public void send(DatagramPacket packet) throws IOException {
+    Destination d = getOrCreate(packet.getSocketAddress());
+    if (d == null) {
+      super.send(packet);
+      return;
+    }
+    long now = System.nanoTime();
+    synchronized (d) {
+      int n = scheduler.select(d.paths, d.selected);
+      for (int i = 0; i < n; i++) {
+        d.onSend(d.selected[i], now);
+        send(packet, d.selected[i].getPath());
+      }
+      learn(d.selected[0].getPath(), (InetSocketAddress) packet.getSocketAddress());
+    }
+  }
+
+  @Override
+  public void receive(DatagramPacket packet) throws IOException {
+    super.receive(packet);
+    long now = System.nanoTime();
+    Destination d = destinations.get(packet.getSocketAddress());
+    if (d != null) {
+      // The reply path is cached under the SCION address, the packet has the mapped address.
+      InetAddress scionAddress = d.paths[0].getPath().getRemoteAddress();
+      d.onReceive(getCachedPath(new InetSocketAddress(scionAddress, packet.getPort())), now);
+    }
+  }
+
+  private Destination getOrCreate(SocketAddress address) throws IOException {
+    Destination d = destinations.get(address);
+    if (d == null && address instanceof InetSocketAddress) {
+      List<Path> paths = pathSource.getPaths((InetSocketAddress) address);
+      if (paths == null || paths.isEmpty()) {
+        return null;
+      }
+      d = new Destination(paths);
+      Destination existing = destinations.putIfAbsent(address, d);
+      d = existing != null ? existing : d;
+    }
+    return d;
+  }
+}
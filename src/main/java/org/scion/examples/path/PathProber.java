@@ -0,0 +1,259 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.path;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.scion.jpan.Path;
+import org.scion.jpan.Scion;
+import org.scion.jpan.Scmp;
+import org.scion.jpan.ScmpChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically measures RTT and loss of every candidate path to the tracked destinations.
+ *
+ * <p>Results are kept in a {@link ConcurrentHashMap} of per-destination tables. After each probing
+ * round the best path of a destination is computed and published, so {@link #getBestPath} is a
+ * single map lookup.
+ */
+public class PathProber implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PathProber.class);
+  public static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(5);
+  public static final Duration DEFAULT_PROBE_TIMEOUT = Duration.ofSeconds(1);
+
+  /** Measures the RTT of a path. */
+  public interface Probe {
+    /**
+     * @return the RTT in nanoseconds or -1 if the probe was lost
+     */
+    long measure(Path path) throws IOException;
+  }
+
+  /** Measurements of one destination. */
+  public static class Table {
+    private volatile PathStats[] paths = new PathStats[0];
+    private volatile PathStats best;
+
+    public PathStats[] getPaths() {
+      return paths;
+    }
+
+    public PathStats getBest() {
+      return best;
+    }
+  }
+
+  private final ConcurrentHashMap<InetSocketAddress, Table> tables = new ConcurrentHashMap<>();
+  private final MultipathDatagramSocket.PathSource pathSource;
+  private final Probe probe;
+  private final ScheduledExecutorService scheduler;
+  private final ExecutorService probers;
+
+  public PathProber() {
+    this(
+        DEFAULT_INTERVAL,
+        dst -> Scion.defaultService().getPaths(dst),
+        scmpProbe(DEFAULT_PROBE_TIMEOUT));
+  }
+
+  public PathProber(
+      Duration interval, MultipathDatagramSocket.PathSource pathSource, Probe probe) {
+    this.pathSource = pathSource;
+    this.probe = probe;
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread t = new Thread(r, "path-prober");
+              t.setDaemon(true);
+              return t;
+            });
+    this.probers =
+        Executors.newFixedThreadPool(
+            4,
+            r -> {
+              Thread t = new Thread(r, "path-prober-worker");
+              t.setDaemon(true);
+              return t;
+            });
+    long ms = interval.toMillis();
+    scheduler.scheduleWithFixedDelay(this::probeAll, 0, ms, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * A probe that sends SCMP echo requests. A ScmpChannel waits for the reply of one request at a
+   * time, so every worker thread gets its own channel and the probes run in parallel.
+   */
+  public static Probe scmpProbe(Duration timeout) {
+    return new ScmpProbe(timeout);
+  }
+
+  private static class ScmpProbe implements Probe, Closeable {
+    private final int timeoutMs;
+    private final ByteBuffer empty = ByteBuffer.allocate(0);
+    private final List<ScmpChannel> channels = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<ScmpChannel> channel = new ThreadLocal<>();
+
+    ScmpProbe(Duration timeout) {
+      this.timeoutMs = (int) timeout.toMillis();
+    }
+
+    @Override
+    public long measure(Path path) throws IOException {
+      ScmpChannel c = channel.get();
+      if (c == null) {
+        c = Scmp.createChannel();
+        c.setTimeOut(timeoutMs);
+        channels.add(c);
+        channel.set(c);
+      }
+      Scmp.EchoMessage msg = c.sendEchoRequest(path, empty);
+      return msg.isTimedOut() ? -1 : msg.getNanoSeconds();
+    }
+
+    @Override
+    public void close() {
+      for (ScmpChannel c : channels) {
+        c.close();
+      }
+      channels.clear();
+    }
+  }
+
+  /** Start probing the paths to a destination. Probing starts with the next round. */
+  public Table track(InetSocketAddress destination) {
+    return tables.computeIfAbsent(destination, d -> new Table());
+  }
+
+  public void untrack(InetSocketAddress destination) {
+    tables.remove(destination);
+  }
+
+  /**
+   * @return the table of a destination or 'null' if the destination is not tracked.
+   */
+  public Table getTable(InetSocketAddress destination) {
+    return tables.get(destination);
+  }
+
+  /**
+   * @return the best known path or 'null' if the destination has not been probed yet.
+   */
+  public PathStats getBestPath(InetSocketAddress destination) {
+    Table table = tables.get(destination);
+    return table == null ? null : table.best;
+  }
+
+  /** Run one probing round now. Blocks until all probes completed. */
+  public void probeAll() {
+    List<Future<?>> futures = new ArrayList<>();
+    for (InetSocketAddress destination : tables.keySet()) {
+      Table table = tables.get(destination);
+      if (table == null) {
+        continue;
+      }
+      try {
+        updatePaths(table, pathSource.getPaths(destination));
+      } catch (IOException | RuntimeException e) {
+        LOG.info("Could not get paths to {}: {}", destination, e.getMessage());
+        continue;
+      }
+      for (PathStats stats : table.paths) {
+        futures.add(probers.submit(() -> probe(stats)));
+      }
+    }
+    for (Future<?> f : futures) {
+      try {
+        f.get();
+      } catch (Exception e) {
+        LOG.info("Probe failed: {}", e.getMessage());
+      }
+    }
+    for (Table table : tables.values()) {
+      table.best = selectBest(table.paths);
+    }
+  }
+
+  private void probe(PathStats stats) {
+    try {
+      long rtt = probe.measure(stats.getPath());
+      if (rtt < 0) {
+        stats.onLoss();
+      } else {
+        stats.onRttSample(rtt);
+      }
+    } catch (IOException e) {
+      stats.onLoss();
+    }
+  }
+
+  /** Keep the measurements of paths that are still available, add new paths. */
+  private static void updatePaths(Table table, List<Path> paths) {
+    PathStats[] old = table.paths;
+    PathStats[] updated = new PathStats[paths.size()];
+    for (int i = 0; i < paths.size(); i++) {
+      Path path = paths.get(i);
+      updated[i] = new PathStats(path);
+      for (PathStats o : old) {
+        if (Arrays.equals(o.getPath().getRawPath(), path.getRawPath())) {
+          updated[i] = o;
+          break;
+        }
+      }
+    }
+    table.paths = updated;
+  }
+
+  private static PathStats selectBest(PathStats[] paths) {
+    PathStats best = null;
+    for (PathStats p : paths) {
+      if (p.getSampleCount() == 0) {
+        continue;
+      }
+      if (best == null || p.getScore() < best.getScore()) {
+        best = p;
+      }
+    }
+    return best;
+  }
+
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+    probers.shutdownNow();
+    if (probe instanceof Closeable) {
+      try {
+        ((Closeable) probe).close();
+      } catch (IOException e) {
+        LOG.info("Closing the probe failed: {}", e.getMessage());
+      }
+    }
+  }
+}
@@ -0,0 +1,123 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.path;
+
+/**
+ * Decides which path(s) a packet is sent on.
+ *
+ * <p>Schedulers are called for every packet and must not allocate.
+ */
+public interface PathScheduler {
+
+  /**
+   * @param paths the candidate paths of the destination, never empty
+   * @param selected output, the paths to send the packet on. Has the same length as paths.
+   * @return the number of selected paths, at least 1
+   */
+  int select(PathStats[] paths, PathStats[] selected);
+
+  /** Lowest RTT (penalized for loss). Every n-th packet explores another path. */
+  static PathScheduler lowestRtt() {
+    return new LowestRttScheduler(64);
+  }
+
+  /** Spread traffic over all paths with weights proportional to 1/RTT. */
+  static PathScheduler weightedRoundRobin() {
+    return new WeightedRoundRobinScheduler();
+  }
+
+  /** Send every packet on the best n paths. */
+  static PathScheduler redundant(int n) {
+    return new RedundantScheduler(n);
+  }
+
+  class LowestRttScheduler implements PathScheduler {
+    private final int exploreInterval;
+    private int counter = 0;
+
+    LowestRttScheduler(int exploreInterval) {
+      this.exploreInterval = exploreInterval;
+    }
+
+    @Override
+    public synchronized int select(PathStats[] paths, PathStats[] selected) {
+      int best = 0;
+      for (int i = 1; i < paths.length; i++) {
+        if (paths[i].getScore() < paths[best].getScore()) {
+          best = i;
+        }
+      }
+      if (paths.length > 1 && ++counter % exploreInterval == 0) {
+        // Keep measurements of the other paths fresh.
+        best = (best + 1 + (counter / exploreInterval) % (paths.length - 1)) % paths.length;
+      }
+      selected[0] = paths[best];
+      return 1;
+    }
+  }
+
+  /** Smooth weighted round robin (as in nginx). */
+  class WeightedRoundRobinScheduler implements PathScheduler {
+    @Override
+    public synchronized int select(PathStats[] paths, PathStats[] selected) {
+      long total = 0;
+      PathStats best = null;
+      for (PathStats p : paths) {
+        long srtt = p.getSmoothedRttNanos();
+        // Weight ~ 1/RTT, in [1, 1000]; unmeasured paths get the maximum weight.
+        double score = p.getScore();
+        long weight = 1000;
+        if (srtt >= 0) {
+          weight = Math.max(1, Math.min(1000, (long) (1e9 / Math.max(score, 1e6))));
+        }
+        p.schedulerWeight += weight;
+        total += weight;
+        if (best == null || p.schedulerWeight > best.schedulerWeight) {
+          best = p;
+        }
+      }
+      best.schedulerWeight -= total;
+      selected[0] = best;
+      return 1;
+    }
+  }
+
+  class RedundantScheduler implements PathScheduler {
+    private final int n;
+
+    RedundantScheduler(int n) {
+      this.n = n;
+    }
+
+    @Override
+    public int select(PathStats[] paths, PathStats[] selected) {
+      int count = Math.min(n, paths.length);
+      // Partial selection sort: the best 'count' paths, no allocation.
+      System.arraycopy(paths, 0, selected, 0, paths.length);
+      for (int i = 0; i < count; i++) {
+        int best = i;
+        for (int j = i + 1; j < selected.length; j++) {
+          if (selected[j].getScore() < selected[best].getScore()) {
+            best = j;
+          }
+        }
+        PathStats tmp = selected[i];
+        selected[i] = selected[best];
+        selected[best] = tmp;
+      }
+      return count;
+    }
+  }
+}
@@ -0,0 +1,124 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.path;
+
+import org.scion.jpan.Path;
+
+/**
+ * Measured RTT and loss of one path. RTT is smoothed as in RFC 9002 (1/8 gain), loss is an
+ * exponentially weighted moving average of lost samples.
+ */
+public class PathStats {
+
+  private static final double LOSS_GAIN = 0.1;
+
+  private final Path path;
+  private volatile long srttNs = -1;
+  private volatile long rttVarNs = 0;
+  private volatile long minRttNs = Long.MAX_VALUE;
+  private volatile double lossRate = 0;
+  private volatile long samples = 0;
+  private volatile long losses = 0;
+  private volatile long lastSampleNanos = 0;
+
+  /** Scratch state for schedulers, only accessed while holding the scheduler's lock. */
+  long schedulerWeight = 0;
+
+  public PathStats(Path path) {
+    this.path = path;
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  public synchronized void onRttSample(long rttNs) {
+    if (srttNs < 0) {
+      srttNs = rttNs;
+      rttVarNs = rttNs / 2;
+    } else {
+      rttVarNs = (3 * rttVarNs + Math.abs(srttNs - rttNs)) / 4;
+      srttNs = (7 * srttNs + rttNs) / 8;
+    }
+    minRttNs = Math.min(minRttNs, rttNs);
+    lossRate = lossRate * (1 - LOSS_GAIN);
+    samples++;
+    lastSampleNanos = System.nanoTime();
+  }
+
+  public synchronized void onLoss() {
+    lossRate = lossRate * (1 - LOSS_GAIN) + LOSS_GAIN;
+    losses++;
+    lastSampleNanos = System.nanoTime();
+  }
+
+  /**
+   * @return smoothed RTT in nanoseconds or -1 if there is no sample yet.
+   */
+  public long getSmoothedRttNanos() {
+    return srttNs;
+  }
+
+  public long getRttVarNanos() {
+    return rttVarNs;
+  }
+
+  public long getMinRttNanos() {
+    return minRttNs == Long.MAX_VALUE ? -1 : minRttNs;
+  }
+
+  /**
+   * @return loss rate between 0 and 1.
+   */
+  public double getLossRate() {
+    return lossRate;
+  }
+
+  public long getSampleCount() {
+    return samples;
+  }
+
+  public long getLossCount() {
+    return losses;
+  }
+
+  public long getLastSampleNanos() {
+    return lastSampleNanos;
+  }
+
+  /**
+   * A single value for comparing paths: the smoothed RTT, penalized for loss. Paths without samples
+   * get a score of 0, so they are tried first.
+   */
+  public double getScore() {
+    long srtt = srttNs;
+    return srtt < 0 ? 0 : srtt * (1 + 10 * lossRate);
+  }
+
+  /**
+   * @return a timeout after which an outstanding sample is considered lost.
+   */
+  public long getLossTimeoutNanos(long defaultNs) {
+    long srtt = srttNs;
+    return srtt < 0 ? defaultNs : Math.max(srtt + 4 * rttVarNs, 2 * srtt);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "srtt=%.2fms loss=%.1f%% samples=%d path=%s",
+        srttNs / 1e6, lossRate * 100, samples, path);
+  }
+}
@@ -0,0 +1,89 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.path;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compares raw SCION paths (standard path type) by their hop fields.
+ *
+ * <p>The path of a received packet is the reverse of the path the peer used, and the routers update
+ * the meta header and the SegIDs of the info fields on the way. The hop fields (interfaces and MACs)
+ * stay the same, only their order is reversed. Two raw paths therefore describe the same route if
+ * their hop fields are equal in the same or in reverse order.
+ */
+final class RawPaths {
+
+  private static final int META_LENGTH = 4;
+  private static final int INFO_LENGTH = 8;
+  private static final int HOP_LENGTH = 12;
+
+  private RawPaths() {}
+
+  static boolean sameRoute(byte[] a, byte[] b) {
+    if (a.length != b.length) {
+      return false;
+    }
+    if (a.length < META_LENGTH) {
+      return a.length == 0;
+    }
+    int hopsA = hopFieldCount(a);
+    int hopsB = hopFieldCount(b);
+    if (hopsA < 0 || hopsA != hopsB) {
+      return false;
+    }
+    return sameHops(a, b, hopsA, false) || sameHops(a, b, hopsA, true);
+  }
+
+  private static boolean sameHops(byte[] a, byte[] b, int hops, boolean reversed) {
+    int offsetA = hopFieldOffset(a);
+    int offsetB = hopFieldOffset(b);
+    for (int i = 0; i < hops; i++) {
+      int posA = offsetA + i * HOP_LENGTH;
+      int posB = offsetB + (reversed ? hops - 1 - i : i) * HOP_LENGTH;
+      // Skip the flags byte, routers may set the alert flags.
+      if (!Arrays.equals(a, posA + 1, posA + HOP_LENGTH, b, posB + 1, posB + HOP_LENGTH)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int meta(byte[] raw) {
+    return ByteBuffer.wrap(raw).getInt(0);
+  }
+
+  /**
+   * @return the number of hop fields or -1 if the path is malformed.
+   */
+  private static int hopFieldCount(byte[] raw) {
+    int meta = meta(raw);
+    int hops = ((meta >>> 12) & 0x3F) + ((meta >>> 6) & 0x3F) + (meta & 0x3F);
+    return hopFieldOffset(raw) + hops * HOP_LENGTH == raw.length ? hops : -1;
+  }
+
+  /** The hop fields follow the meta header and one info field per non-empty segment. */
+  private static int hopFieldOffset(byte[] raw) {
+    int meta = meta(raw);
+    int segments = 0;
+    for (int shift = 0; shift <= 12; shift += 6) {
+      if (((meta >>> shift) & 0x3F) != 0) {
+        segments++;
+      }
+    }
+    return META_LENGTH + segments * INFO_LENGTH;
+  }
+}
@@ -0,0 +1,25 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.pubsub;
+
+/** What to do when a message is published to a subscriber whose queue is full. */
+public enum DropPolicy {
+  /** Discard the oldest queued message. Subscribers always get the latest data. */
+  DROP_OLDEST,
+  /** Discard the new message. Subscribers get a gap-free prefix of the data. */
+  DROP_NEWEST,
+  /** Close the subscriber's stream. The subscriber has to resubscribe. */
+  DISCONNECT
+}
@@ -0,0 +1,67 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.pubsub;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import org.scion.examples.framing.FrameDecoder;
+
+/**
+ * A published message, encoded once as a length-prefixed frame (see {@link FrameDecoder}). The
+ * encoded bytes are immutable and shared by the queues of all subscribers.
+ */
+public final class Message {
+
+  private final byte[] frame;
+
+  private Message(byte[] frame) {
+    this.frame = frame;
+  }
+
+  /** Encode the remaining bytes of 'payload'. The position of 'payload' is not changed. */
+  public static Message of(ByteBuffer payload) {
+    int length = payload.remaining();
+    byte[] frame = new byte[FrameDecoder.HEADER_SIZE + length];
+    frame[0] = (byte) (length >>> 24);
+    frame[1] = (byte) (length >>> 16);
+    frame[2] = (byte) (length >>> 8);
+    frame[3] = (byte) length;
+    payload.duplicate().get(frame, FrameDecoder.HEADER_SIZE, length);
+    return new Message(frame);
+  }
+
+  public static Message of(byte[] payload) {
+    return of(ByteBuffer.wrap(payload));
+  }
+
+  /**
+   * @return a read-only view of the payload.
+   */
+  public ByteBuffer payload() {
+    return ByteBuffer.wrap(frame, FrameDecoder.HEADER_SIZE, size()).slice().asReadOnlyBuffer();
+  }
+
+  /**
+   * @return the payload size in bytes.
+   */
+  public int size() {
+    return frame.length - FrameDecoder.HEADER_SIZE;
+  }
+
+  void writeTo(OutputStream out) throws IOException {
+    out.write(frame);
+  }
+}
@@ -0,0 +1,113 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.pubsub;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import net.luminis.quic.QuicClientConnection;
+import net.luminis.quic.QuicStream;
+import org.scion.examples.framing.FrameDecoder;
+import org.scion.examples.framing.FramedStream;
+import org.scion.examples.kwik.BufferPool;
+import org.scion.examples.kwik.ScionConnectionBuilder;
+
+/**
+ * Subscribes to topics of a {@link PubSubServer} and prints the received messages.
+ *
+ * <p>Arguments: uri topic... e.g. "https://[1-ff00:0:112,127.0.0.1]:443 metrics"
+ */
+public class PubSubClient {
+
+  private static final String ALPN = "pubsub";
+  private static final BufferPool POOL = new BufferPool(64 * 1024, 64, false);
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length < 2) {
+      System.out.println("Usage: PubSubClient <uri> <topic>...");
+      return;
+    }
+    URI uri = URI.create(args[0]);
+    int topics = args.length - 1;
+
+    QuicClientConnection connection =
+        ScionConnectionBuilder.newBuilder()
+            .uri(uri)
+            .applicationProtocol(ALPN)
+            .noServerCertificateCheck()
+            .connectTimeout(Duration.ofSeconds(10))
+            // Every subscription arrives on a unidirectional stream opened by the server.
+            .maxOpenPeerInitiatedUnidirectionalStreams(topics)
+            .build();
+    ExecutorService readers = Executors.newCachedThreadPool();
+    CountDownLatch done = new CountDownLatch(topics);
+    connection.setPeerInitiatedStreamCallback(
+        stream ->
+            readers.execute(
+                () -> {
+                  try {
+                    receive(stream);
+                  } catch (IOException e) {
+                    System.err.println("Subscription failed: " + e.getMessage());
+                  } finally {
+                    done.countDown();
+                  }
+                }));
+    connection.connect();
+
+    FramedStream control = new FramedStream(connection.createStream(true));
+    for (int i = 1; i < args.length; i++) {
+      control.send(args[i].getBytes(StandardCharsets.UTF_8));
+    }
+    // Closing the control stream would end the subscriptions, so keep it open.
+    done.await();
+    readers.shutdown();
+    connection.close();
+  }
+
+  private static void receive(QuicStream stream) throws IOException {
+    FrameDecoder decoder = new FrameDecoder(POOL, 1024 * 1024);
+    try {
+      FrameDecoder.Frame header = decoder.next(stream.getInputStream());
+      if (header == null) {
+        return;
+      }
+      String topic = StandardCharsets.UTF_8.decode(header.payload()).toString();
+      header.release();
+      long start = System.nanoTime();
+      long messages = 0;
+      long bytes = 0;
+      FrameDecoder.Frame frame;
+      while ((frame = decoder.next(stream.getInputStream())) != null) {
+        ByteBuffer payload = frame.payload();
+        messages++;
+        bytes += payload.remaining();
+        System.out.println("[" + topic + "] " + StandardCharsets.UTF_8.decode(payload));
+        frame.release();
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.printf(
+          "[%s] closed after %d messages, %d bytes, %.1f messages/s%n",
+          topic, messages, bytes, messages / seconds);
+    } finally {
+      decoder.close();
+    }
+  }
+}
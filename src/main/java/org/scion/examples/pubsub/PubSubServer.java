@@ -0,0 +1,262 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.pubsub;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
+import net.luminis.quic.QuicConnection;
+import net.luminis.quic.QuicStream;
+import net.luminis.quic.server.ApplicationProtocolConnection;
+import net.luminis.quic.server.ApplicationProtocolConnectionFactory;
+import org.scion.examples.framing.FrameHandler;
+import org.scion.examples.framing.FramedProtocol;
+import org.scion.examples.framing.FramedStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A publish/subscribe service for {@link net.luminis.quic.server.ServerConnector}:
+ *
+ * <pre>
+ *   PubSubServer pubSub = new PubSubServer();
+ *   connector.registerApplicationProtocol("pubsub", pubSub);
+ *   ...
+ *   pubSub.publish("telemetry", data);
+ * </pre>
+ *
+ * <p>A client opens a bidirectional control stream and sends one frame with the UTF-8 topic name
+ * per subscription. For each subscription the server opens a unidirectional stream to the client.
+ * The first frame on that stream is the topic name, followed by one frame per published message.
+ * The subscriptions end when the client closes the control stream. See {@link PubSubClient}.
+ *
+ * <p>A published message is encoded once into an immutable {@link Message} that is shared by all
+ * subscriber queues, there is no copy per subscriber. Each subscriber has a bounded queue; when it
+ * is full because the subscriber can't keep up, the {@link DropPolicy} decides what happens.
+ *
+ * <p>Writing to a kwik stream only blocks when the stream's send buffer is full, i.e. when the
+ * subscriber's flow control window is closed. Such a subscriber occupies a writer thread until the
+ * window opens again or the connection is closed. The writer pool grows as needed, so stalled
+ * subscribers never delay the others; there is at most one writer thread per subscriber.
+ */
+public class PubSubServer implements ApplicationProtocolConnectionFactory {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PubSubServer.class);
+
+  public static class Config {
+    private int queueCapacity = 256;
+    private DropPolicy dropPolicy = DropPolicy.DROP_OLDEST;
+    private int maxMessageSize = 64 * 1024;
+    private int maxControlStreams = 4;
+
+    /** Maximum number of queued messages per subscriber. */
+    public Config queueCapacity(int messages) {
+      this.queueCapacity = messages;
+      return this;
+    }
+
+    public Config dropPolicy(DropPolicy policy) {
+      this.dropPolicy = policy;
+      return this;
+    }
+
+    public Config maxMessageSize(int size) {
+      this.maxMessageSize = size;
+      return this;
+    }
+
+    /** Maximum number of concurrent control streams per connection. */
+    public Config maxControlStreams(int streams) {
+      this.maxControlStreams = streams;
+      return this;
+    }
+  }
+
+  private final Config config;
+  private final Map<String, List<Subscriber>> topics = new ConcurrentHashMap<>();
+  private final FramedProtocol control;
+  private final ExecutorService writers;
+  private final LongAdder published = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+  private final LongAdder closed = new LongAdder();
+
+  public PubSubServer() {
+    this(new Config());
+  }
+
+  public PubSubServer(Config config) {
+    this.config = config;
+    // Not a fixed pool: a drain task blocks while its subscriber's flow control window is closed.
+    this.writers = Executors.newCachedThreadPool(daemon("pubsub-writer"));
+    ExecutorService controlExecutor = Executors.newCachedThreadPool(daemon("pubsub-control"));
+    // Subscription requests are tiny
+    FramedProtocol.Config controlConfig =
+        new FramedProtocol.Config()
+            .maxStreams(config.maxControlStreams)
+            .maxFrameSize(1024)
+            .chunkSize(1024);
+    this.control = new FramedProtocol(new ControlHandler(), controlExecutor, controlConfig);
+  }
+
+  private static ThreadFactory daemon(String name) {
+    return r -> {
+      Thread t = new Thread(r, name);
+      t.setDaemon(true);
+      return t;
+    };
+  }
+
+  @Override
+  public ApplicationProtocolConnection createConnection(
+      String protocol, QuicConnection quicConnection) {
+    return control.createConnection(protocol, quicConnection);
+  }
+
+  @Override
+  public int maxConcurrentPeerInitiatedUnidirectionalStreams() {
+    // Only the server opens unidirectional streams.
+    return 0;
+  }
+
+  @Override
+  public int maxConcurrentPeerInitiatedBidirectionalStreams() {
+    return config.maxControlStreams;
+  }
+
+  /**
+   * Send the remaining bytes of 'payload' to all subscribers of 'topic'.
+   *
+   * @return the number of subscribers that the message was queued for.
+   */
+  public int publish(String topic, ByteBuffer payload) {
+    if (payload.remaining() > config.maxMessageSize) {
+      throw new IllegalArgumentException(
+          "Message too large: " + payload.remaining() + " > " + config.maxMessageSize);
+    }
+    published.increment();
+    List<Subscriber> subscribers = topics.get(topic);
+    if (subscribers == null || subscribers.isEmpty()) {
+      return 0;
+    }
+    Message message = Message.of(payload);
+    int queued = 0;
+    for (Subscriber subscriber : subscribers) {
+      if (subscriber.offer(message)) {
+        queued++;
+      }
+    }
+    return queued;
+  }
+
+  public int publish(String topic, byte[] payload) {
+    return publish(topic, ByteBuffer.wrap(payload));
+  }
+
+  public int getSubscriberCount() {
+    int n = 0;
+    for (List<Subscriber> subscribers : topics.values()) {
+      n += subscribers.size();
+    }
+    return n;
+  }
+
+  public long getPublishedMessages() {
+    return published.sum();
+  }
+
+  /**
+   * @return the number of messages that were dropped because a subscriber's queue was full.
+   */
+  public long getDroppedMessages() {
+    return dropped.sum();
+  }
+
+  /**
+   * @return the number of subscriptions that ended, by the client, by a failure or because of
+   *     DropPolicy.DISCONNECT.
+   */
+  public long getClosedSubscriptions() {
+    return closed.sum();
+  }
+
+  private Subscriber subscribe(FramedStream controlStream, String topic) {
+    QuicStream stream = controlStream.getConnection().createStream(false);
+    Subscriber subscriber =
+        new Subscriber(
+            topic,
+            Message.of(topic.getBytes(StandardCharsets.UTF_8)),
+            stream,
+            config.queueCapacity,
+            config.dropPolicy,
+            writers,
+            dropped,
+            this::unsubscribed);
+    topics.computeIfAbsent(topic, t -> new CopyOnWriteArrayList<>()).add(subscriber);
+    subscriber.start();
+    return subscriber;
+  }
+
+  private void unsubscribed(Subscriber subscriber) {
+    List<Subscriber> subscribers = topics.get(subscriber.getTopic());
+    if (subscribers != null) {
+      subscribers.remove(subscriber);
+    }
+    closed.increment();
+  }
+
+  /** Handles control streams, the attachment is the list of subscriptions of the stream. */
+  private class ControlHandler implements FrameHandler {
+    @Override
+    public void onOpened(FramedStream stream) {
+      stream.setAttachment(new ArrayList<Subscriber>());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void onFrame(FramedStream stream, ByteBuffer frame) {
+      String topic = StandardCharsets.UTF_8.decode(frame).toString();
+      ((List<Subscriber>) stream.getAttachment()).add(subscribe(stream, topic));
+    }
+
+    @Override
+    public void onClosed(FramedStream stream) throws IOException {
+      unsubscribeAll(stream);
+      stream.close();
+    }
+
+    @Override
+    public void onError(FramedStream stream, Exception e) {
+      LOG.warn("Pub/sub control stream {} failed: {}", stream.getStreamId(), e.getMessage());
+      unsubscribeAll(stream);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void unsubscribeAll(FramedStream stream) {
+      List<Subscriber> subscribers = (List<Subscriber>) stream.getAttachment();
+      if (subscribers != null) {
+        subscribers.forEach(Subscriber::close);
+      }
+    }
+  }
+}
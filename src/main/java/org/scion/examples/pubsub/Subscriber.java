@@ -0,0 +1,172 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.pubsub;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import net.luminis.quic.QuicStream;
+
+/**
+ * One subscription: a server-initiated unidirectional stream and a bounded queue of messages that
+ * have not been written to it yet.
+ *
+ * <p>The queue is drained by tasks on a shared writer executor, at most one task per subscriber at
+ * a time. A task writes one batch and then reschedules itself, so a busy subscriber doesn't keep
+ * a writer thread from the others. A task blocks while the stream's flow control window is closed,
+ * so the executor must not have a fixed number of threads.
+ */
+class Subscriber {
+
+  private static final int BATCH_SIZE = 32;
+
+  private final String topic;
+  private final QuicStream stream;
+  private final OutputStream out;
+  private final int capacity;
+  private final DropPolicy policy;
+  private final Executor writers;
+  private final LongAdder dropped;
+  private final Consumer<Subscriber> onClosed;
+  private final ArrayDeque<Message> queue = new ArrayDeque<>();
+  // Sent before the queued messages and not subject to the drop policy, 'null' once taken.
+  private Message header;
+  // Only used by the (single) drain task
+  private final Message[] batch = new Message[BATCH_SIZE];
+  private boolean scheduled = false;
+  private boolean closing = false;
+
+  /**
+   * @param header the first message, it is sent when start() is called. It is never dropped.
+   */
+  Subscriber(
+      String topic,
+      Message header,
+      QuicStream stream,
+      int capacity,
+      DropPolicy policy,
+      Executor writers,
+      LongAdder dropped,
+      Consumer<Subscriber> onClosed) {
+    this.topic = topic;
+    this.stream = stream;
+    this.out = stream.getOutputStream();
+    this.capacity = capacity;
+    this.policy = policy;
+    this.writers = writers;
+    this.dropped = dropped;
+    this.onClosed = onClosed;
+    this.header = header;
+  }
+
+  synchronized void start() {
+    schedule();
+  }
+
+  String getTopic() {
+    return topic;
+  }
+
+  int getStreamId() {
+    return stream.getStreamId();
+  }
+
+  /**
+   * Queue a message for sending.
+   *
+   * @return 'false' if the message was dropped.
+   */
+  synchronized boolean offer(Message message) {
+    if (closing) {
+      return false;
+    }
+    if (queue.size() >= capacity) {
+      dropped.increment();
+      switch (policy) {
+        case DROP_OLDEST:
+          queue.poll();
+          break;
+        case DROP_NEWEST:
+          return false;
+        default:
+          close();
+          return false;
+      }
+    }
+    queue.add(message);
+    schedule();
+    return true;
+  }
+
+  /** Discard queued messages and close the stream. */
+  synchronized void close() {
+    if (!closing) {
+      closing = true;
+      header = null;
+      queue.clear();
+      schedule();
+    }
+  }
+
+  private void schedule() {
+    if (!scheduled) {
+      scheduled = true;
+      writers.execute(this::drain);
+    }
+  }
+
+  private void drain() {
+    int n = 0;
+    synchronized (this) {
+      if (header != null) {
+        batch[n++] = header;
+        header = null;
+      }
+      while (n < batch.length && !queue.isEmpty()) {
+        batch[n++] = queue.poll();
+      }
+      if (n == 0 && !closing) {
+        scheduled = false;
+        return;
+      }
+    }
+    try {
+      if (n == 0) {
+        // 'scheduled' stays set, nothing runs after this.
+        out.close();
+        onClosed.accept(this);
+        return;
+      }
+      for (int i = 0; i < n; i++) {
+        batch[i].writeTo(out);
+        batch[i] = null;
+      }
+      out.flush();
+    } catch (IOException e) {
+      Arrays.fill(batch, null);
+      synchronized (this) {
+        closing = true;
+        queue.clear();
+      }
+      onClosed.accept(this);
+      return;
+    }
+    writers.execute(this::drain);
+  }
+}
@@ -0,0 +1,165 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.qpack;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The QPACK dynamic table (RFC 9204, section 3.2). Entries are addressed by their absolute index,
+ * i.e. the number of insertions before them. The oldest entries are evicted first.
+ */
+final class DynamicTable {
+
+  static final int ENTRY_OVERHEAD = 32;
+
+  // Ring of entries, 'head' is the oldest entry
+  private String[] names = new String[16];
+  private String[] values = new String[16];
+  private int head = 0;
+  private int count = 0;
+  private long dropped = 0;
+  private long size = 0;
+  private long capacity = 0;
+  // Most recent absolute index of each field and each name
+  private final Map<String, Map<String, Long>> fields = new HashMap<>();
+  private final Map<String, Long> nameIndex = new HashMap<>();
+
+  static long entrySize(String name, String value) {
+    return name.length() + value.length() + ENTRY_OVERHEAD;
+  }
+
+  long getCapacity() {
+    return capacity;
+  }
+
+  long getInsertCount() {
+    return dropped + count;
+  }
+
+  void setCapacity(long capacity) {
+    this.capacity = capacity;
+    while (size > capacity) {
+      evictOldest();
+    }
+  }
+
+  String name(long absoluteIndex) {
+    return names[slot(absoluteIndex)];
+  }
+
+  String value(long absoluteIndex) {
+    return values[slot(absoluteIndex)];
+  }
+
+  private int slot(long absoluteIndex) {
+    if (absoluteIndex < dropped || absoluteIndex >= dropped + count) {
+      throw new IllegalArgumentException("Invalid dynamic table index: " + absoluteIndex);
+    }
+    return (int) ((head + absoluteIndex - dropped) % names.length);
+  }
+
+  /**
+   * @return the absolute index of the field or -1.
+   */
+  long find(String name, String value) {
+    Map<String, Long> v = fields.get(name);
+    Long index = v == null ? null : v.get(value);
+    return index == null ? -1 : index;
+  }
+
+  /**
+   * @return the absolute index of the most recent entry with the given name or -1.
+   */
+  long findName(String name) {
+    Long index = nameIndex.get(name);
+    return index == null ? -1 : index;
+  }
+
+  /**
+   * @param evictionLimit entries with this or a higher absolute index must not be evicted
+   * @return whether an entry of the given size fits without evicting entries at or above the
+   *     limit.
+   */
+  boolean canInsert(long entrySize, long evictionLimit) {
+    if (entrySize > capacity) {
+      return false;
+    }
+    long free = capacity - size;
+    long index = dropped;
+    while (free < entrySize) {
+      if (index >= evictionLimit) {
+        return false;
+      }
+      free += entrySize(name(index), value(index));
+      index++;
+    }
+    return true;
+  }
+
+  void insert(String name, String value) {
+    long entrySize = entrySize(name, value);
+    if (entrySize > capacity) {
+      throw new IllegalArgumentException("Entry larger than table capacity: " + entrySize);
+    }
+    while (size + entrySize > capacity) {
+      evictOldest();
+    }
+    if (count == names.length) {
+      grow();
+    }
+    long index = getInsertCount();
+    int slot = (head + count) % names.length;
+    names[slot] = name;
+    values[slot] = value;
+    count++;
+    size += entrySize;
+    fields.computeIfAbsent(name, k -> new HashMap<>()).put(value, index);
+    nameIndex.put(name, index);
+  }
+
+  private void evictOldest() {
+    String name = names[head];
+    String value = values[head];
+    Map<String, Long> v = fields.get(name);
+    if (v != null && Long.valueOf(dropped).equals(v.get(value))) {
+      v.remove(value);
+      if (v.isEmpty()) {
+        fields.remove(name);
+      }
+    }
+    if (Long.valueOf(dropped).equals(nameIndex.get(name))) {
+      nameIndex.remove(name);
+    }
+    names[head] = null;
+    values[head] = null;
+    head = (head + 1) % names.length;
+    count--;
+    dropped++;
+    size -= entrySize(name, value);
+  }
+
+  private void grow() {
+    String[] newNames = new String[names.length * 2];
+    String[] newValues = new String[names.length * 2];
+    for (int i = 0; i < count; i++) {
+      newNames[i] = names[(head + i) % names.length];
+      newValues[i] = values[(head + i) % names.length];
+    }
+    names = newNames;
+    values = newValues;
+    head = 0;
+  }
+}
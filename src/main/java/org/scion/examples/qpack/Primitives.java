@@ -0,0 +1,95 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.qpack;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/** Prefixed integers and string literals (RFC 7541, section 5), as used by QPACK. */
+final class Primitives {
+
+  private Primitives() {}
+
+  /**
+   * @param flags the bits above the prefix
+   * @param prefixBits number of bits of the first byte that belong to the integer
+   */
+  static void writeInt(ByteArrayOutputStream out, int flags, int prefixBits, long value) {
+    int max = (1 << prefixBits) - 1;
+    if (value < max) {
+      out.write(flags | (int) value);
+      return;
+    }
+    out.write(flags | max);
+    value -= max;
+    while (value >= 0x80) {
+      out.write((int) (value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  /**
+   * @param first the first byte of the integer, already read from 'in'
+   */
+  static long readInt(ByteBuffer in, int first, int prefixBits) {
+    int max = (1 << prefixBits) - 1;
+    long value = first & max;
+    if (value < max) {
+      return value;
+    }
+    int shift = 0;
+    int b;
+    do {
+      b = in.get() & 0xff;
+      value += (long) (b & 0x7f) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+
+  /**
+   * Field names and values are octets, here they are strings of characters 0-255 (ISO-8859-1). The
+   * table sizes are computed from String.length() and strings are written as ISO-8859-1, so other
+   * characters must be rejected before they reach the table.
+   */
+  static void checkOctets(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      if (s.charAt(i) > 0xff) {
+        throw new IllegalArgumentException("Not an ISO-8859-1 string: " + s);
+      }
+    }
+  }
+
+  /**
+   * Write a string literal without Huffman coding. The H bit is the bit above the length prefix.
+   */
+  static void writeString(ByteArrayOutputStream out, int flags, int prefixBits, String s) {
+    byte[] bytes = s.getBytes(StandardCharsets.ISO_8859_1);
+    writeInt(out, flags, prefixBits, bytes.length);
+    out.write(bytes, 0, bytes.length);
+  }
+
+  static String readString(ByteBuffer in, int first, int prefixBits) {
+    if ((first & (1 << prefixBits)) != 0) {
+      throw new IllegalArgumentException("Huffman coded strings are not supported");
+    }
+    int length = (int) readInt(in, first, prefixBits);
+    byte[] bytes = new byte[length];
+    in.get(bytes);
+    return new String(bytes, StandardCharsets.ISO_8859_1);
+  }
+}
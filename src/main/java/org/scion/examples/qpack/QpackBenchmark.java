@@ -0,0 +1,198 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.qpack;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares QPACK encoding with the static table only (what flupke does) and with a dynamic table,
+ * for repeated requests and responses on one connection.
+ *
+ * <p>Reports header bytes on the wire per field section (field section, encoder stream and decoder
+ * stream) and the encode and decode CPU time per field section. Every decoded section is checked
+ * against the input.
+ *
+ * <p>Finding: flupke always announces SETTINGS_QPACK_MAX_TABLE_CAPACITY = 0 and has no option to
+ * change it, so the dynamic table can't be enabled in the examples' HTTP/3 client and server. The
+ * benchmark therefore uses the codec in this package (only used here) to show what a dynamic table
+ * would save: for repeated requests most fields become one-byte references, while responses with
+ * changing values (date, content-length) gain less and add encoder stream traffic.
+ *
+ * <p>Arguments: [requests per connection [, dynamic table capacity [, connections]]]
+ */
+public class QpackBenchmark {
+
+  private static final DateTimeFormatter HTTP_DATE =
+      DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+  public static void main(String[] args) {
+    int requests = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+    int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+    int connections = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+
+    Map<String, List<List<Map.Entry<String, String>>>> workloads =
+        Map.of(
+            "api requests", apiRequests(requests),
+            "browser requests", browserRequests(requests),
+            "responses", responses(requests));
+    System.out.printf(
+        "%-17s %-14s %9s %9s %9s %9s %9s %9s%n",
+        "workload", "table", "raw [B]", "field [B]", "enc [B]", "dec [B]", "encode", "decode");
+    for (String name : new String[] {"api requests", "browser requests", "responses"}) {
+      List<List<Map.Entry<String, String>>> workload = workloads.get(name);
+      // Warm up, then measure
+      run(workload, 0, connections / 2);
+      run(workload, capacity, connections / 2);
+      print(name, "static only", workload, run(workload, 0, connections));
+      print(name, "dynamic " + capacity, workload, run(workload, capacity, connections));
+    }
+  }
+
+  private static class Result {
+    long fieldBytes;
+    long encoderStreamBytes;
+    long decoderStreamBytes;
+    long encodeNanos;
+    long decodeNanos;
+    long sections;
+  }
+
+  /** Encode and decode the workload on 'connections' fresh connections. */
+  private static Result run(
+      List<List<Map.Entry<String, String>>> workload, int capacity, int connections) {
+    Result result = new Result();
+    ByteArrayOutputStream section = new ByteArrayOutputStream(4096);
+    ByteArrayOutputStream stream = new ByteArrayOutputStream(4096);
+    for (int c = 0; c < connections; c++) {
+      // The decoder announces 'capacity' as SETTINGS_QPACK_MAX_TABLE_CAPACITY.
+      QpackDecoder decoder = new QpackDecoder(capacity);
+      QpackEncoder encoder = new QpackEncoder(capacity, capacity);
+      long streamId = 0;
+      for (List<Map.Entry<String, String>> fields : workload) {
+        section.reset();
+        long t0 = System.nanoTime();
+        encoder.encode(streamId, fields, section);
+        long t1 = System.nanoTime();
+        result.encodeNanos += t1 - t0;
+        result.fieldBytes += section.size();
+
+        // The encoder stream arrives first, field sections never refer to unacknowledged entries.
+        stream.reset();
+        encoder.writeEncoderStream(stream);
+        result.encoderStreamBytes += stream.size();
+        ByteBuffer encoderStream = ByteBuffer.wrap(stream.toByteArray());
+        ByteBuffer fieldSection = ByteBuffer.wrap(section.toByteArray());
+        long t2 = System.nanoTime();
+        decoder.onEncoderStream(encoderStream);
+        List<Map.Entry<String, String>> decoded = decoder.decode(streamId, fieldSection);
+        long t3 = System.nanoTime();
+        result.decodeNanos += t3 - t2;
+        if (!decoded.equals(fields)) {
+          throw new IllegalStateException("Decoded " + decoded + ", expected " + fields);
+        }
+
+        stream.reset();
+        decoder.writeDecoderStream(stream);
+        result.decoderStreamBytes += stream.size();
+        encoder.onDecoderStream(ByteBuffer.wrap(stream.toByteArray()));
+        result.sections++;
+        streamId += 4;
+      }
+    }
+    return result;
+  }
+
+  private static void print(
+      String workload, String mode, List<List<Map.Entry<String, String>>> fields, Result r) {
+    long raw = 0;
+    for (List<Map.Entry<String, String>> section : fields) {
+      for (Map.Entry<String, String> field : section) {
+        raw += field.getKey().length() + field.getValue().length();
+      }
+    }
+    System.out.printf(
+        "%-17s %-14s %9.1f %9.1f %9.1f %9.1f %6.0f ns %6.0f ns%n",
+        workload,
+        mode,
+        (double) raw / fields.size(),
+        (double) r.fieldBytes / r.sections,
+        (double) r.encoderStreamBytes / r.sections,
+        (double) r.decoderStreamBytes / r.sections,
+        (double) r.encodeNanos / r.sections,
+        (double) r.decodeNanos / r.sections);
+  }
+
+  /** The request of the Sample and FlupkeClientHttp3 examples, to different paths. */
+  private static List<List<Map.Entry<String, String>>> apiRequests(int n) {
+    List<List<Map.Entry<String, String>>> requests = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      requests.add(
+          List.of(
+              Map.entry(":method", "GET"),
+              Map.entry(":scheme", "https"),
+              Map.entry(":authority", "ethz.ch"),
+              Map.entry(":path", "/api/items/" + i),
+              Map.entry("user-agent", "Flupke http3 library")));
+    }
+    return requests;
+  }
+
+  private static List<List<Map.Entry<String, String>>> browserRequests(int n) {
+    List<List<Map.Entry<String, String>>> requests = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      requests.add(
+          List.of(
+              Map.entry(":method", "GET"),
+              Map.entry(":scheme", "https"),
+              Map.entry(":authority", "www.scion-architecture.net"),
+              Map.entry(":path", "/static/img/figure-" + i + ".png"),
+              Map.entry(
+                  "user-agent",
+                  "Mozilla/5.0 (X11; Linux x86_64; rv:124.0) Gecko/20100101 Firefox/124.0"),
+              Map.entry("accept", "image/avif,image/webp,*/*"),
+              Map.entry("accept-language", "en-US,en;q=0.5"),
+              Map.entry("accept-encoding", "gzip, deflate, br"),
+              Map.entry("referer", "https://www.scion-architecture.net/"),
+              Map.entry("cookie", "session=7f3a9c0e2b5d4f61; consent=essential")));
+    }
+    return requests;
+  }
+
+  private static List<List<Map.Entry<String, String>>> responses(int n) {
+    List<List<Map.Entry<String, String>>> responses = new ArrayList<>();
+    long now = Instant.parse("2024-05-01T12:00:00Z").toEpochMilli();
+    for (int i = 0; i < n; i++) {
+      responses.add(
+          List.of(
+              Map.entry(":status", "200"),
+              Map.entry("content-type", "image/png"),
+              Map.entry("content-length", Integer.toString(10_000 + i * 37)),
+              Map.entry("date", HTTP_DATE.format(Instant.ofEpochMilli(now + i * 100L))),
+              Map.entry("etag", "\"" + Integer.toHexString(0x5f00 + i) + "-18f2d3c\""),
+              Map.entry("last-modified", "Mon, 15 Apr 2024 08:30:00 GMT"),
+              Map.entry("cache-control", "max-age=3600"),
+              Map.entry("server", "flupke over SCION"),
+              Map.entry("accept-ranges", "bytes")));
+    }
+    return responses;
+  }
+}
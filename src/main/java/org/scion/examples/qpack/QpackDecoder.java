@@ -0,0 +1,164 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.qpack;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * QPACK field section decoder (RFC 9204), counterpart of {@link QpackEncoder}.
+ *
+ * <p>Data from the peer's encoder stream is passed to {@link #onEncoderStream(ByteBuffer)}, which
+ * expects complete instructions. Acknowledgments for the decoder stream are collected and must be
+ * sent with {@link #writeDecoderStream(ByteArrayOutputStream)}. Blocked streams are not supported.
+ * Not thread safe, use one decoder per connection.
+ *
+ * <p>This codec is only used by {@link QpackBenchmark}; flupke does its own QPACK decoding.
+ */
+public class QpackDecoder {
+
+  private final DynamicTable table = new DynamicTable();
+  private final long maxTableCapacity;
+  private final long maxEntries;
+  private final ByteArrayOutputStream decoderStream = new ByteArrayOutputStream();
+  private long acknowledged = 0;
+
+  /**
+   * @param maxTableCapacity the SETTINGS_QPACK_MAX_TABLE_CAPACITY sent to the peer
+   */
+  public QpackDecoder(int maxTableCapacity) {
+    this.maxTableCapacity = maxTableCapacity;
+    this.maxEntries = maxTableCapacity / DynamicTable.ENTRY_OVERHEAD;
+  }
+
+  /** Process complete instructions from the peer's encoder stream. */
+  public void onEncoderStream(ByteBuffer in) {
+    while (in.hasRemaining()) {
+      int b = in.get() & 0xff;
+      if ((b & 0x80) != 0) {
+        // Insert with name reference
+        long index = Primitives.readInt(in, b, 6);
+        String name =
+            (b & 0x40) != 0
+                ? StaticTable.name((int) index)
+                : table.name(table.getInsertCount() - 1 - index);
+        table.insert(name, Primitives.readString(in, in.get() & 0xff, 7));
+      } else if ((b & 0x40) != 0) {
+        // Insert with literal name
+        String name = Primitives.readString(in, b, 5);
+        table.insert(name, Primitives.readString(in, in.get() & 0xff, 7));
+      } else if ((b & 0x20) != 0) {
+        // Set Dynamic Table Capacity
+        long capacity = Primitives.readInt(in, b, 5);
+        if (capacity > maxTableCapacity) {
+          throw new IllegalArgumentException("Table capacity exceeds maximum: " + capacity);
+        }
+        table.setCapacity(capacity);
+      } else {
+        // Duplicate
+        long index = table.getInsertCount() - 1 - Primitives.readInt(in, b, 5);
+        table.insert(table.name(index), table.value(index));
+      }
+    }
+    long increment = table.getInsertCount() - acknowledged;
+    if (increment > 0) {
+      // Insert Count Increment
+      Primitives.writeInt(decoderStream, 0x00, 6, increment);
+      acknowledged = table.getInsertCount();
+    }
+  }
+
+  /** Decode one field section. */
+  public List<Map.Entry<String, String>> decode(long streamId, ByteBuffer in) {
+    long requiredInsertCount = requiredInsertCount(Primitives.readInt(in, in.get() & 0xff, 8));
+    int b = in.get() & 0xff;
+    long deltaBase = Primitives.readInt(in, b, 7);
+    long base =
+        (b & 0x80) == 0 ? requiredInsertCount + deltaBase : requiredInsertCount - deltaBase - 1;
+    if (requiredInsertCount > table.getInsertCount()) {
+      throw new IllegalStateException("Blocked field section on stream " + streamId);
+    }
+
+    List<Map.Entry<String, String>> fields = new ArrayList<>();
+    while (in.hasRemaining()) {
+      b = in.get() & 0xff;
+      if ((b & 0x80) != 0) {
+        // Indexed field line
+        long index = Primitives.readInt(in, b, 6);
+        if ((b & 0x40) != 0) {
+          fields.add(Map.entry(StaticTable.name((int) index), StaticTable.value((int) index)));
+        } else {
+          fields.add(Map.entry(table.name(base - 1 - index), table.value(base - 1 - index)));
+        }
+      } else if ((b & 0x40) != 0) {
+        // Literal field line with name reference
+        long index = Primitives.readInt(in, b, 4);
+        String name =
+            (b & 0x10) != 0 ? StaticTable.name((int) index) : table.name(base - 1 - index);
+        fields.add(Map.entry(name, Primitives.readString(in, in.get() & 0xff, 7)));
+      } else if ((b & 0x20) != 0) {
+        // Literal field line with literal name
+        String name = Primitives.readString(in, b, 3);
+        fields.add(Map.entry(name, Primitives.readString(in, in.get() & 0xff, 7)));
+      } else if ((b & 0x10) != 0) {
+        // Indexed field line with post-base index
+        long index = base + Primitives.readInt(in, b, 4);
+        fields.add(Map.entry(table.name(index), table.value(index)));
+      } else {
+        // Literal field line with post-base name reference
+        String name = table.name(base + Primitives.readInt(in, b, 3));
+        fields.add(Map.entry(name, Primitives.readString(in, in.get() & 0xff, 7)));
+      }
+    }
+
+    if (requiredInsertCount > 0) {
+      // Section Acknowledgment
+      Primitives.writeInt(decoderStream, 0x80, 7, streamId);
+      acknowledged = Math.max(acknowledged, requiredInsertCount);
+    }
+    return fields;
+  }
+
+  /** RFC 9204, section 4.5.1.1. */
+  private long requiredInsertCount(long encodedInsertCount) {
+    if (encodedInsertCount == 0) {
+      return 0;
+    }
+    long fullRange = 2 * maxEntries;
+    if (encodedInsertCount > fullRange) {
+      throw new IllegalArgumentException("Invalid encoded insert count: " + encodedInsertCount);
+    }
+    long maxValue = table.getInsertCount() + maxEntries;
+    long maxWrapped = (maxValue / fullRange) * fullRange;
+    long requiredInsertCount = maxWrapped + encodedInsertCount - 1;
+    if (requiredInsertCount > maxValue) {
+      if (requiredInsertCount <= fullRange) {
+        throw new IllegalArgumentException("Invalid encoded insert count: " + encodedInsertCount);
+      }
+      requiredInsertCount -= fullRange;
+    }
+    return requiredInsertCount;
+  }
+
+  /** Move pending decoder stream instructions to 'out'. */
+  public void writeDecoderStream(ByteArrayOutputStream out) {
+    byte[] bytes = decoderStream.toByteArray();
+    out.write(bytes, 0, bytes.length);
+    decoderStream.reset();
+  }
+}
@@ -0,0 +1,203 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.qpack;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * QPACK field section encoder (RFC 9204) with an optional dynamic table.
+ *
+ * <p>With a table capacity of 0 only the static table is used, like flupke's encoder. Otherwise,
+ * fields are inserted into the dynamic table (except :path, which rarely repeats) and later field
+ * sections refer to them. Field sections only refer to entries whose insertion was acknowledged by
+ * the decoder, so streams are never blocked (SETTINGS_QPACK_BLOCKED_STREAMS = 0). Strings are not
+ * Huffman coded.
+ *
+ * <p>Instructions for the encoder stream are collected and must be sent with {@link
+ * #writeEncoderStream(ByteArrayOutputStream)}, data from the peer's decoder stream is passed to
+ * {@link #onDecoderStream(ByteBuffer)}. Not thread safe, use one encoder per connection.
+ *
+ * <p>This codec is only used by {@link QpackBenchmark}; flupke does its own QPACK encoding.
+ */
+public class QpackEncoder {
+
+  private final DynamicTable table = new DynamicTable();
+  private final long maxEntries;
+  private final ByteArrayOutputStream encoderStream = new ByteArrayOutputStream();
+  private final ByteArrayOutputStream lines = new ByteArrayOutputStream();
+  private long knownReceivedCount = 0;
+  // Unacknowledged field sections: stream id -> {required insert count, oldest referenced entry}
+  private final Map<Long, long[]> outstanding = new HashMap<>();
+
+  /**
+   * @param tableCapacity dynamic table capacity, must not be larger than peerMaxTableCapacity. 0
+   *     disables the dynamic table.
+   * @param peerMaxTableCapacity the SETTINGS_QPACK_MAX_TABLE_CAPACITY received from the peer. The
+   *     Required Insert Count is encoded relative to this value (RFC 9204, 4.5.1.1), not relative
+   *     to the capacity the encoder actually uses.
+   */
+  public QpackEncoder(int tableCapacity, int peerMaxTableCapacity) {
+    if (tableCapacity < 0 || tableCapacity > peerMaxTableCapacity) {
+      throw new IllegalArgumentException(
+          "Table capacity " + tableCapacity + " exceeds peer maximum " + peerMaxTableCapacity);
+    }
+    this.maxEntries = peerMaxTableCapacity / DynamicTable.ENTRY_OVERHEAD;
+    if (tableCapacity > 0) {
+      table.setCapacity(tableCapacity);
+      // Set Dynamic Table Capacity
+      Primitives.writeInt(encoderStream, 0x20, 5, tableCapacity);
+    }
+  }
+
+  /**
+   * Encode the fields of one field section (header names must be lower case).
+   *
+   * @throws IllegalArgumentException if a name or value has characters outside of ISO-8859-1.
+   *     Nothing is encoded in this case.
+   */
+  public void encode(
+      long streamId, List<Map.Entry<String, String>> fields, ByteArrayOutputStream out) {
+    for (Map.Entry<String, String> field : fields) {
+      Primitives.checkOctets(field.getKey());
+      Primitives.checkOctets(field.getValue());
+    }
+    lines.reset();
+    long base = knownReceivedCount;
+    long requiredInsertCount = 0;
+    long oldestReference = Long.MAX_VALUE;
+    for (Map.Entry<String, String> field : fields) {
+      String name = field.getKey();
+      String value = field.getValue();
+      int staticIndex = StaticTable.find(name, value);
+      if (staticIndex >= 0) {
+        // Indexed field line, static
+        Primitives.writeInt(lines, 0xc0, 6, staticIndex);
+        continue;
+      }
+      long dynamicIndex = table.find(name, value);
+      if (dynamicIndex >= 0 && dynamicIndex < base) {
+        // Indexed field line, dynamic
+        Primitives.writeInt(lines, 0x80, 6, base - 1 - dynamicIndex);
+        requiredInsertCount = Math.max(requiredInsertCount, dynamicIndex + 1);
+        oldestReference = Math.min(oldestReference, dynamicIndex);
+        continue;
+      }
+
+      int staticName = StaticTable.findName(name);
+      long dynamicName = staticName >= 0 ? -1 : table.findName(name);
+      if (dynamicName >= base) {
+        dynamicName = -1;
+      }
+      if (dynamicName >= 0) {
+        requiredInsertCount = Math.max(requiredInsertCount, dynamicName + 1);
+        oldestReference = Math.min(oldestReference, dynamicName);
+      }
+      if (dynamicIndex < 0) {
+        // Can only be referenced once the decoder has acknowledged it
+        insert(name, value, Math.min(oldestReference, evictionLimit()));
+      }
+      if (staticName >= 0) {
+        // Literal field line with name reference, static
+        Primitives.writeInt(lines, 0x50, 4, staticName);
+      } else if (dynamicName >= 0) {
+        // Literal field line with name reference, dynamic
+        Primitives.writeInt(lines, 0x40, 4, base - 1 - dynamicName);
+      } else {
+        // Literal field line with literal name
+        Primitives.writeString(lines, 0x20, 3, name);
+      }
+      Primitives.writeString(lines, 0x00, 7, value);
+    }
+
+    // Field section prefix, with Base = known received count
+    long encodedInsertCount =
+        requiredInsertCount == 0 ? 0 : requiredInsertCount % (2 * maxEntries) + 1;
+    Primitives.writeInt(out, 0x00, 8, encodedInsertCount);
+    Primitives.writeInt(out, 0x00, 7, requiredInsertCount == 0 ? 0 : base - requiredInsertCount);
+    byte[] bytes = lines.toByteArray();
+    out.write(bytes, 0, bytes.length);
+    if (requiredInsertCount > 0) {
+      outstanding.put(streamId, new long[] {requiredInsertCount, oldestReference});
+    }
+  }
+
+  private void insert(String name, String value, long limit) {
+    if (table.getCapacity() == 0 || name.equals(":path")) {
+      return;
+    }
+    long size = DynamicTable.entrySize(name, value);
+    int staticName = StaticTable.findName(name);
+    long dynamicName = staticName >= 0 ? -1 : table.findName(name);
+    // The referenced name must survive the insertion
+    if (dynamicName >= 0 && !table.canInsert(size, Math.min(limit, dynamicName))) {
+      dynamicName = -1;
+    }
+    if (!table.canInsert(size, limit)) {
+      return;
+    }
+    if (staticName >= 0) {
+      // Insert with name reference, static
+      Primitives.writeInt(encoderStream, 0xc0, 6, staticName);
+    } else if (dynamicName >= 0) {
+      // Insert with name reference, dynamic
+      Primitives.writeInt(encoderStream, 0x80, 6, table.getInsertCount() - 1 - dynamicName);
+    } else {
+      // Insert with literal name
+      Primitives.writeString(encoderStream, 0x40, 5, name);
+    }
+    Primitives.writeString(encoderStream, 0x00, 7, value);
+    table.insert(name, value);
+  }
+
+  /** Entries that are unacknowledged or referenced by unacknowledged sections can't be evicted. */
+  private long evictionLimit() {
+    long limit = knownReceivedCount;
+    for (long[] section : outstanding.values()) {
+      limit = Math.min(limit, section[1]);
+    }
+    return limit;
+  }
+
+  /** Move pending encoder stream instructions to 'out'. */
+  public void writeEncoderStream(ByteArrayOutputStream out) {
+    byte[] bytes = encoderStream.toByteArray();
+    out.write(bytes, 0, bytes.length);
+    encoderStream.reset();
+  }
+
+  /** Process instructions from the peer's decoder stream. */
+  public void onDecoderStream(ByteBuffer in) {
+    while (in.hasRemaining()) {
+      int b = in.get() & 0xff;
+      if ((b & 0x80) != 0) {
+        // Section Acknowledgment
+        long[] section = outstanding.remove(Primitives.readInt(in, b, 7));
+        if (section != null) {
+          knownReceivedCount = Math.max(knownReceivedCount, section[0]);
+        }
+      } else if ((b & 0x40) != 0) {
+        // Stream Cancellation
+        outstanding.remove(Primitives.readInt(in, b, 6));
+      } else {
+        // Insert Count Increment
+        knownReceivedCount += Primitives.readInt(in, b, 6);
+      }
+    }
+  }
+}
@@ -0,0 +1,311 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.sim;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Emulates a border router with one link. It receives SCION packets on a UDP port and forwards them
+ * to the destination host and port in the SCION header, after applying latency, bandwidth, loss and
+ * reordering.
+ *
+ * <p>Hop fields are neither verified nor updated. Since both endpoints send to the emulator, the
+ * replies travel through it as well.
+ *
+ * <p>Random decisions use a seeded generator, so runs are reproducible as long as the packet
+ * sequence is the same.
+ */
+public class LinkEmulator implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LinkEmulator.class);
+  private static final int MAX_PACKET_SIZE = 9000;
+  private static final int NEXT_HDR_UDP = 17;
+  private static final int NEXT_HDR_SCMP = 202;
+
+  /** Link properties, applied in both directions. Can be changed while the emulator runs. */
+  public static class Config {
+    private volatile long latencyNanos = 0;
+    private volatile long bandwidthBitsPerSecond = 0;
+    private volatile double lossRate = 0;
+    private volatile double reorderRate = 0;
+    private volatile long reorderDelayNanos = 0;
+    private volatile long maxQueueDelayNanos = 100_000_000L;
+    private volatile boolean up = true;
+
+    /** One way delay. */
+    public Config latency(Duration latency) {
+      this.latencyNanos = latency.toNanos();
+      return this;
+    }
+
+    /** 0 means unlimited. */
+    public Config bandwidth(long bitsPerSecond) {
+      this.bandwidthBitsPerSecond = bitsPerSecond;
+      return this;
+    }
+
+    public Config loss(double rate) {
+      this.lossRate = rate;
+      return this;
+    }
+
+    /** Delay a fraction of the packets by an additional amount, so they overtake each other. */
+    public Config reorder(double rate, Duration delay) {
+      this.reorderRate = rate;
+      this.reorderDelayNanos = delay.toNanos();
+      return this;
+    }
+
+    /** Packets that would wait longer than this for the bandwidth limit are dropped. */
+    public Config maxQueueDelay(Duration delay) {
+      this.maxQueueDelayNanos = delay.toNanos();
+      return this;
+    }
+
+    /** A link that is down drops all packets. */
+    public Config up(boolean up) {
+      this.up = up;
+      return this;
+    }
+
+    public boolean isUp() {
+      return up;
+    }
+
+    @Override
+    public String toString() {
+      return "latency="
+          + latencyNanos / 1_000_000
+          + "ms, bandwidth="
+          + (bandwidthBitsPerSecond == 0 ? "unlimited" : bandwidthBitsPerSecond / 1_000_000 + "Mbit/s")
+          + ", loss="
+          + lossRate
+          + ", reorder="
+          + reorderRate
+          + ", up="
+          + up;
+    }
+  }
+
+  private static class ScheduledPacket implements Delayed {
+    final long deliverAtNanos;
+    final long sequence;
+    final byte[] data;
+    final InetSocketAddress destination;
+
+    ScheduledPacket(long deliverAtNanos, long sequence, byte[] data, InetSocketAddress destination) {
+      this.deliverAtNanos = deliverAtNanos;
+      this.sequence = sequence;
+      this.data = data;
+      this.destination = destination;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(deliverAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed o) {
+      ScheduledPacket other = (ScheduledPacket) o;
+      int c = Long.compare(deliverAtNanos, other.deliverAtNanos);
+      return c != 0 ? c : Long.compare(sequence, other.sequence);
+    }
+  }
+
+  private final Config config;
+  private final DatagramSocket socket;
+  private final Random random;
+  private final DelayQueue<ScheduledPacket> queue = new DelayQueue<>();
+  // Per destination: the time the link is free again (serialization delay)
+  private final Map<InetSocketAddress, Long> linkFreeAt = new HashMap<>();
+  private final Thread receiver;
+  private final Thread sender;
+  private volatile boolean closing = false;
+  private long sequence = 0;
+  private final LongAdder forwarded = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+
+  public LinkEmulator(InetSocketAddress bindAddress, Config config, long seed)
+      throws SocketException {
+    this.config = config;
+    this.socket = new DatagramSocket(bindAddress);
+    this.random = new Random(seed);
+    receiver = new Thread(this::receiveLoop, "link-emulator-rx-" + socket.getLocalPort());
+    sender = new Thread(this::sendLoop, "link-emulator-tx-" + socket.getLocalPort());
+    receiver.setDaemon(true);
+    sender.setDaemon(true);
+    receiver.start();
+    sender.start();
+  }
+
+  public Config getConfig() {
+    return config;
+  }
+
+  public InetSocketAddress getAddress() {
+    return (InetSocketAddress) socket.getLocalSocketAddress();
+  }
+
+  public long getPacketsForwarded() {
+    return forwarded.sum();
+  }
+
+  public long getPacketsDropped() {
+    return dropped.sum();
+  }
+
+  private void receiveLoop() {
+    byte[] buffer = new byte[MAX_PACKET_SIZE];
+    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+    while (!closing) {
+      packet.setLength(buffer.length);
+      try {
+        socket.receive(packet);
+      } catch (IOException e) {
+        if (!closing) {
+          LOG.error("Receiving failed: {}", e.getMessage());
+        }
+        return;
+      }
+      InetSocketAddress destination = parseDestination(buffer, packet.getLength());
+      if (destination == null) {
+        dropped.increment();
+        continue;
+      }
+      schedule(Arrays.copyOf(buffer, packet.getLength()), destination);
+    }
+  }
+
+  private void schedule(byte[] data, InetSocketAddress destination) {
+    if (!config.up || (config.lossRate > 0 && random.nextDouble() < config.lossRate)) {
+      dropped.increment();
+      return;
+    }
+    long now = System.nanoTime();
+    long departure = now;
+    if (config.bandwidthBitsPerSecond > 0) {
+      long free = linkFreeAt.getOrDefault(destination, now);
+      departure = Math.max(now, free);
+      if (departure - now > config.maxQueueDelayNanos) {
+        dropped.increment();
+        return;
+      }
+      long serialization = data.length * 8L * 1_000_000_000L / config.bandwidthBitsPerSecond;
+      departure += serialization;
+      linkFreeAt.put(destination, departure);
+    }
+    long deliverAt = departure + config.latencyNanos;
+    if (config.reorderRate > 0 && random.nextDouble() < config.reorderRate) {
+      deliverAt += config.reorderDelayNanos;
+    }
+    queue.add(new ScheduledPacket(deliverAt, sequence++, data, destination));
+  }
+
+  private void sendLoop() {
+    while (!closing) {
+      ScheduledPacket p;
+      try {
+        p = queue.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      try {
+        socket.send(new DatagramPacket(p.data, p.data.length, p.destination));
+        forwarded.increment();
+      } catch (IOException e) {
+        if (!closing) {
+          LOG.info("Forwarding to {} failed: {}", p.destination, e.getMessage());
+        }
+        dropped.increment();
+      }
+    }
+  }
+
+  /**
+   * Find the underlay destination: the destination host of the SCION address header and the port
+   * of the UDP header (or the identifier of SCMP echo/traceroute messages).
+   *
+   * @return the destination or 'null' if the packet is not supported.
+   */
+  static InetSocketAddress parseDestination(byte[] b, int length) {
+    if (length < 12) {
+      return null;
+    }
+    int nextHdr = b[4] & 0xFF;
+    int hdrLen = (b[5] & 0xFF) * 4;
+    int dt = (b[9] >> 6) & 0x3;
+    int dl = (b[9] >> 4) & 0x3;
+    int addrLen = 4 * (dl + 1);
+    // Address header: dst ISD-AS (8 bytes), src ISD-AS (8 bytes), dst host, src host
+    int dstHostOffset = 12 + 16;
+    if (dt != 0 || (addrLen != 4 && addrLen != 16) || length < hdrLen + 8) {
+      return null;
+    }
+    int portOffset;
+    if (nextHdr == NEXT_HDR_UDP) {
+      portOffset = hdrLen + 2;
+    } else if (nextHdr == NEXT_HDR_SCMP) {
+      portOffset = hdrLen + 4;
+    } else {
+      return null;
+    }
+    int port = ((b[portOffset] & 0xFF) << 8) | (b[portOffset + 1] & 0xFF);
+    try {
+      InetAddress host =
+          InetAddress.getByAddress(Arrays.copyOfRange(b, dstHostOffset, dstHostOffset + addrLen));
+      return new InetSocketAddress(host, port);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public void close() {
+    closing = true;
+    socket.close();
+    sender.interrupt();
+  }
+
+  @Override
+  public String toString() {
+    return "LinkEmulator{"
+        + getAddress()
+        + ", "
+        + config
+        + ", forwarded="
+        + forwarded.sum()
+        + ", dropped="
+        + dropped.sum()
+        + "}";
+  }
+}
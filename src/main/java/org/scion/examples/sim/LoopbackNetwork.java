@@ -0,0 +1,152 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.sim;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.scion.jpan.ScionUtil;
+
+/**
+ * A SCION network on the loopback interface: two ASes, connected by one or more emulated links.
+ *
+ * <pre>
+ *   client AS 1-ff00:0:110              server AS 1-ff00:0:112
+ *   daemon 127.0.0.29:30255  --link 1-- daemon 127.0.0.30:30255
+ *                            --link 2--  server host 127.0.0.11
+ * </pre>
+ *
+ * The client daemon address is the one that <code>SimpleEchoClient</code> uses. Client and server
+ * must run in separate processes, because each process has one local AS:
+ *
+ * <pre>
+ * java ... LoopbackNetwork 2 10 100 0.01 0.001
+ * java -Dorg.scion.daemon=127.0.0.30:30255 -Dorg.scion.hostsFiles=... ...EchoServer
+ * java -Dorg.scion.hostsFiles=... ...SimpleEchoClient
+ * </pre>
+ *
+ * <p>Arguments: number of links, one-way latency [ms], bandwidth [Mbit/s, 0 = unlimited], loss rate,
+ * reorder rate. While running, "down N" and "up N" on stdin take link N down or up again.
+ */
+public class LoopbackNetwork implements Closeable {
+
+  public static final String CLIENT_IA = "1-ff00:0:110";
+  public static final String SERVER_IA = "1-ff00:0:112";
+  public static final InetSocketAddress CLIENT_DAEMON = new InetSocketAddress("127.0.0.29", 30255);
+  public static final InetSocketAddress SERVER_DAEMON = new InetSocketAddress("127.0.0.30", 30255);
+  public static final String SERVER_HOST = "127.0.0.11";
+  private static final String LINK_HOST = "127.0.0.1";
+  private static final int FIRST_LINK_PORT = 31001;
+  private static final long SEED = 42;
+
+  private final List<LinkEmulator> links = new ArrayList<>();
+  private final MockDaemon clientDaemon;
+  private final MockDaemon serverDaemon;
+  private final Path hostsFile;
+
+  public LoopbackNetwork(List<LinkEmulator.Config> linkConfigs) throws IOException {
+    List<InetSocketAddress> linkAddresses = new ArrayList<>();
+    for (int i = 0; i < linkConfigs.size(); i++) {
+      InetSocketAddress address = new InetSocketAddress(LINK_HOST, FIRST_LINK_PORT + i);
+      links.add(new LinkEmulator(address, linkConfigs.get(i), SEED + i));
+      linkAddresses.add(address);
+    }
+    long client = ScionUtil.parseIA(CLIENT_IA);
+    long server = ScionUtil.parseIA(SERVER_IA);
+    clientDaemon = new MockDaemon(CLIENT_DAEMON, client, server, linkAddresses);
+    serverDaemon = new MockDaemon(SERVER_DAEMON, server, client, linkAddresses);
+    hostsFile = Files.createTempFile("scion-sim-hosts", ".txt");
+    String hosts = SERVER_IA + "," + SERVER_HOST + " scion-sim-server\n";
+    Files.write(hostsFile, hosts.getBytes(StandardCharsets.UTF_8));
+  }
+
+  public static void main(String[] args) throws IOException {
+    int linkCount = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+    long latencyMs = args.length > 1 ? Long.parseLong(args[1]) : 10;
+    long bandwidthMbps = args.length > 2 ? Long.parseLong(args[2]) : 0;
+    double loss = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+    double reorder = args.length > 4 ? Double.parseDouble(args[4]) : 0;
+
+    List<LinkEmulator.Config> configs = new ArrayList<>();
+    for (int i = 0; i < linkCount; i++) {
+      configs.add(
+          new LinkEmulator.Config()
+              // Later links are slower, so path selection makes a difference
+              .latency(Duration.ofMillis(latencyMs * (i + 1)))
+              .bandwidth(bandwidthMbps * 1_000_000)
+              .loss(loss)
+              .reorder(reorder, Duration.ofMillis(Math.max(1, latencyMs / 2))));
+    }
+
+    try (LoopbackNetwork network = new LoopbackNetwork(configs)) {
+      System.out.println("Client: -Dorg.scion.daemon=" + toString(CLIENT_DAEMON));
+      System.out.println("Server: -Dorg.scion.daemon=" + toString(SERVER_DAEMON));
+      System.out.println("Both:   -Dorg.scion.hostsFiles=" + network.getHostsFile());
+      for (LinkEmulator link : network.getLinks()) {
+        System.out.println(link);
+      }
+      System.out.println("Commands: 'down N', 'up N', 'stats', 'quit'");
+      BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+      String line;
+      while ((line = in.readLine()) != null && !line.trim().equals("quit")) {
+        String[] cmd = line.trim().split("\\s+");
+        if (cmd.length == 2 && (cmd[0].equals("down") || cmd[0].equals("up"))) {
+          try {
+            int n = Integer.parseInt(cmd[1]);
+            network.getLinks().get(n - 1).getConfig().up(cmd[0].equals("up"));
+          } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            System.out.println("No such link: " + cmd[1]);
+          }
+        }
+        for (LinkEmulator link : network.getLinks()) {
+          System.out.println(link);
+        }
+      }
+    }
+  }
+
+  private static String toString(InetSocketAddress address) {
+    return address.getAddress().getHostAddress() + ":" + address.getPort();
+  }
+
+  public List<LinkEmulator> getLinks() {
+    return links;
+  }
+
+  /**
+   * @return a hosts file that maps the server host to the server AS.
+   */
+  public Path getHostsFile() {
+    return hostsFile;
+  }
+
+  @Override
+  public void close() throws IOException {
+    clientDaemon.close();
+    serverDaemon.close();
+    for (LinkEmulator link : links) {
+      link.close();
+    }
+    Files.deleteIfExists(hostsFile);
+  }
+}
@@ -0,0 +1,143 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.sim;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Timestamp;
+import io.grpc.Server;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.scion.jpan.proto.daemon.Daemon;
+import org.scion.jpan.proto.daemon.DaemonServiceGrpc;
+
+/**
+ * A SCION daemon for one AS of a simulated network. It knows exactly one neighbor AS and returns one
+ * path per link, each one leading through a {@link LinkEmulator}.
+ *
+ * <p>The paths consist of one segment with two hop fields. The MACs are not valid, the link
+ * emulators don't verify them.
+ */
+public class MockDaemon implements Closeable {
+
+  private static final int MTU = 1472;
+  private static final int HOP_EXPIRY = 63; // ~6h
+  private static final long PATH_LIFETIME_SECONDS = 6 * 3600;
+
+  private final long localIsdAs;
+  private final long remoteIsdAs;
+  private final List<InetSocketAddress> links;
+  private final Server server;
+
+  /**
+   * @param address the address to listen on, e.g. 127.0.0.29:30255
+   * @param localIsdAs ISD-AS of this AS
+   * @param remoteIsdAs ISD-AS of the neighbor AS
+   * @param links the link emulators, link i uses interface i+1 on both sides
+   */
+  public MockDaemon(
+      InetSocketAddress address, long localIsdAs, long remoteIsdAs, List<InetSocketAddress> links)
+      throws IOException {
+    this.localIsdAs = localIsdAs;
+    this.remoteIsdAs = remoteIsdAs;
+    this.links = links;
+    this.server = NettyServerBuilder.forAddress(address).addService(new DaemonImpl()).build();
+    server.start();
+  }
+
+  private class DaemonImpl extends DaemonServiceGrpc.DaemonServiceImplBase {
+    @Override
+    public void aS(Daemon.ASRequest request, StreamObserver<Daemon.ASResponse> observer) {
+      observer.onNext(
+          Daemon.ASResponse.newBuilder().setIsdAs(localIsdAs).setCore(true).setMtu(MTU).build());
+      observer.onCompleted();
+    }
+
+    @Override
+    public void paths(Daemon.PathsRequest request, StreamObserver<Daemon.PathsResponse> observer) {
+      Daemon.PathsResponse.Builder response = Daemon.PathsResponse.newBuilder();
+      if (request.getSourceIsdAs() == localIsdAs
+          && request.getDestinationIsdAs() == remoteIsdAs) {
+        for (int i = 0; i < links.size(); i++) {
+          response.addPaths(createPath(i + 1, links.get(i)));
+        }
+      }
+      observer.onNext(response.build());
+      observer.onCompleted();
+    }
+
+    @Override
+    public void interfaces(
+        Daemon.InterfacesRequest request, StreamObserver<Daemon.InterfacesResponse> observer) {
+      Daemon.InterfacesResponse.Builder response = Daemon.InterfacesResponse.newBuilder();
+      for (int i = 0; i < links.size(); i++) {
+        response.putInterfaces(i + 1, toInterface(links.get(i)));
+      }
+      observer.onNext(response.build());
+      observer.onCompleted();
+    }
+  }
+
+  private Daemon.Path createPath(int interfaceId, InetSocketAddress link) {
+    long now = System.currentTimeMillis() / 1000;
+    return Daemon.Path.newBuilder()
+        .setRaw(ByteString.copyFrom(createRawPath(interfaceId, now)))
+        .setInterface(toInterface(link))
+        .addInterfaces(
+            Daemon.PathInterface.newBuilder().setIsdAs(localIsdAs).setId(interfaceId).build())
+        .addInterfaces(
+            Daemon.PathInterface.newBuilder().setIsdAs(remoteIsdAs).setId(interfaceId).build())
+        .setMtu(MTU)
+        .setExpiration(Timestamp.newBuilder().setSeconds(now + PATH_LIFETIME_SECONDS).build())
+        .build();
+  }
+
+  private static Daemon.Interface toInterface(InetSocketAddress link) {
+    String address = link.getAddress().getHostAddress() + ":" + link.getPort();
+    return Daemon.Interface.newBuilder()
+        .setAddress(Daemon.Underlay.newBuilder().setAddress(address).build())
+        .build();
+  }
+
+  /** A SCION path with one segment and two hop fields: [0 -> ifId] [ifId -> 0]. */
+  private static byte[] createRawPath(int interfaceId, long timestamp) {
+    ByteBuffer raw = ByteBuffer.allocate(4 + 8 + 2 * 12);
+    // Path meta header: CurrINF=0, CurrHF=0, Seg0Len=2
+    raw.putInt(2 << 12);
+    // Info field: ConsDir=1, SegID=0
+    raw.put((byte) 0x01).put((byte) 0).putShort((short) 0).putInt((int) timestamp);
+    // Hop fields: flags, expiry, ingress, egress, MAC (not valid)
+    raw.put((byte) 0).put((byte) HOP_EXPIRY).putShort((short) 0).putShort((short) interfaceId);
+    raw.put(new byte[6]);
+    raw.put((byte) 0).put((byte) HOP_EXPIRY).putShort((short) interfaceId).putShort((short) 0);
+    raw.put(new byte[6]);
+    return raw.array();
+  }
+
+  @Override
+  public void close() {
+    server.shutdown();
+    try {
+      server.awaitTermination(1, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,39 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.flupke;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+class StaticFileHandlerTest {
+
+  @Test
+  void decodePath() {
+    assertEquals("/index.html", StaticFileHandler.decodePath("/index.html"));
+    assertEquals("/a b.txt", StaticFileHandler.decodePath("/a%20b.txt"));
+    assertEquals("/ä+x", StaticFileHandler.decodePath("/%C3%A4+x"));
+    assertEquals("/€/€ ", StaticFileHandler.decodePath("/%E2%82%AC/€%20"));
+    assertEquals("/../etc", StaticFileHandler.decodePath("/..%2Fetc"));
+  }
+
+  @Test
+  void decodeMalformedPath() {
+    assertNull(StaticFileHandler.decodePath("/a%2"));
+    assertNull(StaticFileHandler.decodePath("/a%zz"));
+    assertNull(StaticFileHandler.decodePath("%"));
+  }
+}
@@ -0,0 +1,186 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package org.scion.examples.framing;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.scion.examples.kwik.BufferPool;
+
+class FrameDecoderTest {
+
+  private static final int CHUNK_SIZE = 16;
+
+  private final CountingPool pool = new CountingPool();
+
+  @Test
+  void framesWithinChunk() throws IOException {
+    byte[] a = payload(2, 1);
+    byte[] b = payload(3, 2);
+    FrameDecoder decoder = new FrameDecoder(pool, 1024);
+    ByteArrayInputStream in = new ByteArrayInputStream(frames(a, b));
+
+    assertArrayEquals(a, bytes(decoder.next(in)));
+    assertArrayEquals(b, bytes(decoder.next(in)));
+    assertNull(decoder.next(in));
+  }
+
+  @Test
+  void frameStraddlesChunks() throws IOException {
+    // 10 bytes per frame, so the second frame starts in the first chunk and ends in the second
+    byte[] a = payload(6, 1);
+    byte[] b = payload(6, 2);
+    byte[] c = payload(6, 3);
+    FrameDecoder decoder = new FrameDecoder(pool, 1024);
+    ByteArrayInputStream in = new ByteArrayInputStream(frames(a, b, c));
+
+    FrameDecoder.Frame first = decoder.next(in);
+    FrameDecoder.Frame second = decoder.next(in);
+    FrameDecoder.Frame third = decoder.next(in);
+    assertArrayEquals(a, bytes(first));
+    assertArrayEquals(b, bytes(second));
+    assertArrayEquals(c, bytes(third));
+    assertNull(decoder.next(in));
+  }
+
+  @Test
+  void frameLargerThanChunk() throws IOException {
+    byte[] small = payload(2, 1);
+    byte[] large = payload(3 * CHUNK_SIZE, 2);
+    FrameDecoder decoder = new FrameDecoder(pool, 1024);
+    ByteArrayInputStream in = new ByteArrayInputStream(frames(small, large, small));
+
+    assertArrayEquals(small, bytes(decoder.next(in)));
+    FrameDecoder.Frame frame = decoder.next(in);
+    assertArrayEquals(large, bytes(frame));
+    assertTrue(frame.payload().array().length >= FrameDecoder.HEADER_SIZE + large.length);
+    assertArrayEquals(small, bytes(decoder.next(in)));
+    assertNull(decoder.next(in));
+  }
+
+  @Test
+  void chunkIsReleasedAfterAllFrames() throws IOException {
+    byte[] a = payload(2, 1);
+    byte[] b = payload(2, 2);
+    FrameDecoder decoder = new FrameDecoder(pool, 1024);
+    ByteArrayInputStream in = new ByteArrayInputStream(frames(a, b));
+
+    FrameDecoder.Frame first = decoder.next(in);
+    FrameDecoder.Frame second = decoder.next(in);
+    decoder.close();
+    assertEquals(0, pool.released.size());
+    // Frames stay valid after the decoder is closed
+    first.release();
+    assertArrayEquals(b, bytes(second));
+    assertEquals(0, pool.released.size());
+    second.release();
+    assertEquals(1, pool.released.size());
+    assertSame(first.payload().array(), pool.released.get(0).array());
+  }
+
+  @Test
+  void previousChunkIsReleasedWhenItsFramesAre() throws IOException {
+    byte[] a = payload(6, 1);
+    byte[] b = payload(6, 2);
+    FrameDecoder decoder = new FrameDecoder(pool, 1024);
+    ByteArrayInputStream in = new ByteArrayInputStream(frames(a, b));
+
+    FrameDecoder.Frame first = decoder.next(in);
+    FrameDecoder.Frame second = decoder.next(in);
+    // The decoder has moved on to the second chunk, 'first' still holds the first one
+    assertEquals(0, pool.released.size());
+    first.release();
+    assertEquals(1, pool.released.size());
+    second.release();
+    assertEquals(1, pool.released.size());
+    decoder.close();
+    assertEquals(2, pool.released.size());
+  }
+
+  @Test
+  void endOfStreamWithinFrame() {
+    byte[] data = frames(payload(6, 1));
+    FrameDecoder decoder = new FrameDecoder(pool, 1024);
+    ByteArrayInputStream in = new ByteArrayInputStream(Arrays.copyOf(data, data.length - 1));
+    assertThrows(EOFException.class, () -> decoder.next(in));
+  }
+
+  @Test
+  void frameTooLarge() {
+    FrameDecoder decoder = new FrameDecoder(pool, 8);
+    ByteArrayInputStream in = new ByteArrayInputStream(frames(payload(9, 1)));
+    assertThrows(ProtocolException.class, () -> decoder.next(in));
+  }
+
+  private static byte[] payload(int size, int seed) {
+    byte[] payload = new byte[size];
+    for (int i = 0; i < size; i++) {
+      payload[i] = (byte) (seed * 31 + i);
+    }
+    return payload;
+  }
+
+  private static byte[] frames(byte[]... payloads) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      for (byte[] payload : payloads) {
+        out.writeInt(payload.length);
+        out.write(payload);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static byte[] bytes(FrameDecoder.Frame frame) {
+    ByteBuffer payload = frame.payload().duplicate();
+    byte[] bytes = new byte[payload.remaining()];
+    payload.get(bytes);
+    return bytes;
+  }
+
+  /** Records the buffers that are given back. */
+  private static class CountingPool extends BufferPool {
+    final List<ByteBuffer> released = new ArrayList<>();
+
+    CountingPool() {
+      super(CHUNK_SIZE, 16, false);
+    }
+
+    @Override
+    public void release(ByteBuffer buffer) {
+      released.add(buffer);
+      super.release(buffer);
+    }
+  }
+}
@@ -0,0 +1,45 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.kwik;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.net.InetSocketAddress;
+import org.junit.jupiter.api.Test;
+
+class PathPrefetcherTest {
+
+  @Test
+  void parseDestination() {
+    assertEquals(
+        InetSocketAddress.createUnresolved("ethz.ch", 8443),
+        PathPrefetcher.parseDestination("ethz.ch:8443"));
+    assertEquals(
+        InetSocketAddress.createUnresolved("ethz.ch", 443),
+        PathPrefetcher.parseDestination("ethz.ch"));
+    assertEquals(
+        InetSocketAddress.createUnresolved("::1", 8443),
+        PathPrefetcher.parseDestination("[::1]:8443"));
+    assertEquals(
+        InetSocketAddress.createUnresolved("fd00:f00d:cafe::7f00:9", 443),
+        PathPrefetcher.parseDestination("[fd00:f00d:cafe::7f00:9]"));
+  }
+
+  @Test
+  void parseInvalidDestination() {
+    assertThrows(IllegalArgumentException.class, () -> PathPrefetcher.parseDestination(":443"));
+  }
+}
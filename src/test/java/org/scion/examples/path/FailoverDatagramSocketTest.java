@@ -0,0 +1,133 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.scion.examples.sim.LinkEmulator;
+import org.scion.examples.sim.LoopbackNetwork;
+import org.scion.examples.sim.ServerProcess;
+import org.scion.examples.sim.UdpEchoServer;
+
+class FailoverDatagramSocketTest {
+
+  private static final int PORT = 32102;
+  private static final InetSocketAddress SERVER =
+      new InetSocketAddress(LoopbackNetwork.SERVER_HOST, PORT);
+
+  private LoopbackNetwork network;
+  private ServerProcess server;
+  private FailoverDatagramSocket socket;
+
+  @BeforeAll
+  static void beforeAll() {
+    ServerProcess.useClientAs();
+  }
+
+  @BeforeEach
+  void beforeEach() throws IOException {
+    network =
+        new LoopbackNetwork(
+            List.of(
+                new LinkEmulator.Config().latency(Duration.ofMillis(5)),
+                new LinkEmulator.Config().latency(Duration.ofMillis(10))));
+    server = ServerProcess.start(UdpEchoServer.class, "" + PORT);
+    socket = new FailoverDatagramSocket(0, ServerProcess::getServerPaths);
+    socket.setSoTimeout(50);
+  }
+
+  @AfterEach
+  void afterEach() throws IOException {
+    socket.close();
+    server.close();
+    network.close();
+  }
+
+  /** Send a packet every 10ms, return the number of echoes. */
+  private int exchange(int packets, byte first) throws IOException {
+    DatagramPacket request = new DatagramPacket(new byte[100], 100, SERVER);
+    request.getData()[0] = first;
+    DatagramPacket reply = new DatagramPacket(new byte[2048], 2048);
+    int received = 0;
+    for (int i = 0; i < packets; i++) {
+      socket.send(request);
+      try {
+        socket.receive(reply);
+        received++;
+        Thread.sleep(10);
+      } catch (SocketTimeoutException e) {
+        // lost
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      }
+    }
+    return received;
+  }
+
+  /** The link of a MockDaemon path: the first hop field's egress interface is the link number. */
+  private LinkEmulator linkOf(PathStats path) {
+    int interfaceId = ByteBuffer.wrap(path.getPath().getRawPath()).getShort(4 + 8 + 4);
+    return network.getLinks().get(interfaceId - 1);
+  }
+
+  @Test
+  void failsOverWhenLinkGoesDown() throws IOException {
+    assertEquals(20, exchange(20, (byte) 1));
+    FailoverDatagramSocket.Destination d = socket.getDestination(SERVER);
+    PathStats primary = d.getCurrentPath();
+    assertTrue(primary.getSampleCount() > 0);
+
+    linkOf(primary).getConfig().up(false);
+    exchange(10, (byte) 1);
+    assertEquals(10, exchange(10, (byte) 1));
+
+    assertNotSame(primary, d.getCurrentPath());
+    assertEquals(1, socket.getMigrationCount());
+    assertTrue(socket.getMaxDowntimeNanos() < 1_000_000_000L, socket.toString());
+  }
+
+  @Test
+  void idleConnectionDoesNotFailOver() throws IOException, InterruptedException {
+    assertEquals(20, exchange(20, (byte) 1));
+    FailoverDatagramSocket.Destination d = socket.getDestination(SERVER);
+    PathStats primary = d.getCurrentPath();
+    long srtt = primary.getSmoothedRttNanos();
+
+    // An unanswered packet, like an ACK, followed by an idle period
+    exchange(1, UdpEchoServer.NO_REPLY);
+    Thread.sleep(500);
+    assertEquals(20, exchange(20, (byte) 1));
+
+    assertSame(primary, d.getCurrentPath());
+    assertEquals(0, socket.getMigrationCount());
+    // The idle time was not taken as RTT sample
+    assertTrue(primary.getSmoothedRttNanos() < 2 * srtt + 5_000_000L, primary.toString());
+  }
+}
@@ -0,0 +1,79 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.scion.examples.kwik.PacketRateBenchmark;
+import org.scion.examples.sim.LinkEmulator;
+import org.scion.examples.sim.LoopbackNetwork;
+import org.scion.examples.sim.ServerProcess;
+
+class MultipathDatagramSocketTest {
+
+  private static final int PORT = 32101;
+  private static final long MS = 1_000_000L;
+
+  @BeforeAll
+  static void beforeAll() {
+    ServerProcess.useClientAs();
+  }
+
+  @Test
+  void rttIsMeasuredPerPath() throws Exception {
+    List<LinkEmulator.Config> links =
+        List.of(
+            new LinkEmulator.Config().latency(Duration.ofMillis(5)),
+            new LinkEmulator.Config().latency(Duration.ofMillis(40)));
+    try (LoopbackNetwork network = new LoopbackNetwork(links);
+        ServerProcess server =
+            ServerProcess.start(PacketRateBenchmark.class, "server", "" + PORT, "plain");
+        MultipathDatagramSocket socket =
+            new MultipathDatagramSocket(
+                0, PathScheduler.redundant(2), ServerProcess::getServerPaths)) {
+      socket.setSoTimeout(1000);
+      InetSocketAddress destination = new InetSocketAddress(LoopbackNetwork.SERVER_HOST, PORT);
+      DatagramPacket request = new DatagramPacket(new byte[100], 100, destination);
+      DatagramPacket reply = new DatagramPacket(new byte[2048], 2048);
+      for (int i = 0; i < 30; i++) {
+        socket.send(request);
+        // One echo per path, the fast one first
+        socket.receive(reply);
+        socket.receive(reply);
+      }
+
+      MultipathDatagramSocket.Destination d = socket.getDestination(destination);
+      assertNotNull(d);
+      PathStats[] paths = d.getPaths().clone();
+      assertEquals(2, paths.length);
+      Arrays.sort(paths, Comparator.comparingLong(PathStats::getSmoothedRttNanos));
+      assertTrue(paths[0].getSampleCount() > 0, paths[0].toString());
+      assertTrue(paths[1].getSampleCount() > 0, paths[1].toString());
+      // Replies on the fast path must not complete samples of the slow path.
+      assertTrue(paths[0].getSmoothedRttNanos() < 30 * MS, paths[0].toString());
+      assertTrue(paths[1].getSmoothedRttNanos() > 75 * MS, paths[1].toString());
+    }
+  }
+}
@@ -0,0 +1,57 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.path;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+class RawPathsTest {
+
+  /** One segment with two hop fields: [0 -> ifId] [ifId -> 0], like the MockDaemon's paths. */
+  private static byte[] path(int interfaceId, int segId, boolean reversed) {
+    ByteBuffer raw = ByteBuffer.allocate(4 + 8 + 2 * 12);
+    raw.putInt(2 << 12);
+    raw.put((byte) (reversed ? 0 : 1)).put((byte) 0).putShort((short) segId).putInt(12345);
+    byte[] first = hop(0, interfaceId);
+    byte[] second = hop(interfaceId, 0);
+    raw.put(reversed ? second : first).put(reversed ? first : second);
+    return raw.array();
+  }
+
+  private static byte[] hop(int ingress, int egress) {
+    ByteBuffer hop = ByteBuffer.allocate(12);
+    hop.put((byte) 0).put((byte) 63).putShort((short) ingress).putShort((short) egress);
+    hop.put(new byte[] {1, 2, 3, 4, 5, (byte) ingress});
+    return hop.array();
+  }
+
+  @Test
+  void sameRoute() {
+    assertTrue(RawPaths.sameRoute(path(1, 0, false), path(1, 0, false)));
+    assertTrue(RawPaths.sameRoute(path(1, 0, false), path(1, 7, true)));
+    assertTrue(RawPaths.sameRoute(new byte[0], new byte[0]));
+  }
+
+  @Test
+  void differentRoute() {
+    assertFalse(RawPaths.sameRoute(path(1, 0, false), path(2, 0, false)));
+    assertFalse(RawPaths.sameRoute(path(1, 0, false), path(2, 0, true)));
+    assertFalse(RawPaths.sameRoute(path(1, 0, false), new byte[0]));
+    assertFalse(RawPaths.sameRoute(new byte[] {1, 2, 3, 4}, new byte[] {1, 2, 3, 4}));
+  }
+}
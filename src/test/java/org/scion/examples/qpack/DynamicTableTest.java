@@ -0,0 +1,92 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.qpack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class DynamicTableTest {
+
+  // "x-n" + "vn" + 32 overhead
+  private static final long ENTRY = 3 + 2 + DynamicTable.ENTRY_OVERHEAD;
+
+  @Test
+  void evictsOldestEntries() {
+    DynamicTable table = new DynamicTable();
+    table.setCapacity(2 * ENTRY);
+    table.insert("x-0", "v0");
+    table.insert("x-1", "v1");
+    table.insert("x-2", "v2");
+    assertEquals(3, table.getInsertCount());
+    assertEquals(-1, table.find("x-0", "v0"));
+    assertEquals(1, table.find("x-1", "v1"));
+    assertEquals(2, table.find("x-2", "v2"));
+    assertThrows(IllegalArgumentException.class, () -> table.name(0));
+    assertEquals("v2", table.value(2));
+  }
+
+  @Test
+  void findsMostRecentDuplicate() {
+    DynamicTable table = new DynamicTable();
+    table.setCapacity(3 * ENTRY);
+    table.insert("x-0", "v0");
+    table.insert("x-1", "v1");
+    table.insert("x-0", "v0");
+    assertEquals(2, table.find("x-0", "v0"));
+    assertEquals(2, table.findName("x-0"));
+    // Evicting the old duplicate must not remove the newer one from the index.
+    table.insert("x-2", "v2");
+    assertEquals(2, table.find("x-0", "v0"));
+  }
+
+  @Test
+  void canInsertRespectsEvictionLimit() {
+    DynamicTable table = new DynamicTable();
+    table.setCapacity(2 * ENTRY);
+    table.insert("x-0", "v0");
+    table.insert("x-1", "v1");
+    assertTrue(table.canInsert(ENTRY, 1));
+    assertFalse(table.canInsert(ENTRY, 0));
+    assertFalse(table.canInsert(2 * ENTRY, 1));
+    assertFalse(table.canInsert(3 * ENTRY, 2));
+  }
+
+  @Test
+  void growsBeyondInitialSlots() {
+    DynamicTable table = new DynamicTable();
+    table.setCapacity(100 * ENTRY);
+    for (int i = 0; i < 50; i++) {
+      table.insert("x-" + (i % 10), "v" + (i % 10));
+    }
+    assertEquals(50, table.getInsertCount());
+    assertEquals("x-3", table.name(43));
+    assertEquals(49, table.find("x-9", "v9"));
+  }
+
+  @Test
+  void shrinkingCapacityEvicts() {
+    DynamicTable table = new DynamicTable();
+    table.setCapacity(2 * ENTRY);
+    table.insert("x-0", "v0");
+    table.insert("x-1", "v1");
+    table.setCapacity(ENTRY);
+    assertEquals(-1, table.find("x-0", "v0"));
+    assertEquals(1, table.find("x-1", "v1"));
+  }
+}
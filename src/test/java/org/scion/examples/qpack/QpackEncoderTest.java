@@ -0,0 +1,139 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.qpack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class QpackEncoderTest {
+
+  private static final List<Map.Entry<String, String>> REQUEST =
+      List.of(
+          Map.entry(":method", "GET"),
+          Map.entry(":path", "/index.html"),
+          Map.entry("user-agent", "Flupke http3 library"),
+          Map.entry("x-custom", "some value"));
+
+  /** An encoder and a decoder connected by their encoder and decoder streams. */
+  private static class Connection {
+    final QpackEncoder encoder;
+    final QpackDecoder decoder;
+    final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    // Decoder stream data that has not arrived at the encoder yet
+    final ByteArrayOutputStream decoderStream = new ByteArrayOutputStream();
+    long streamId = 0;
+
+    Connection(int capacity, int decoderMaxCapacity) {
+      encoder = new QpackEncoder(capacity, decoderMaxCapacity);
+      decoder = new QpackDecoder(decoderMaxCapacity);
+    }
+
+    /**
+     * @param acknowledge whether the decoder stream data arrives at the encoder after this section
+     * @return the encoded field section
+     */
+    byte[] roundTrip(List<Map.Entry<String, String>> fields, boolean acknowledge) {
+      ByteArrayOutputStream section = new ByteArrayOutputStream();
+      encoder.encode(streamId, fields, section);
+      stream.reset();
+      encoder.writeEncoderStream(stream);
+      decoder.onEncoderStream(ByteBuffer.wrap(stream.toByteArray()));
+      assertEquals(fields, decoder.decode(streamId, ByteBuffer.wrap(section.toByteArray())));
+      decoder.writeDecoderStream(decoderStream);
+      if (acknowledge) {
+        encoder.onDecoderStream(ByteBuffer.wrap(decoderStream.toByteArray()));
+        decoderStream.reset();
+      }
+      streamId += 4;
+      return section.toByteArray();
+    }
+  }
+
+  @Test
+  void staticOnly() {
+    Connection c = new Connection(0, 0);
+    byte[] first = c.roundTrip(REQUEST, true);
+    byte[] second = c.roundTrip(REQUEST, true);
+    assertEquals(first.length, second.length);
+    // Required Insert Count 0
+    assertEquals(0, second[0]);
+  }
+
+  @Test
+  void referencesOnlyAcknowledgedEntries() {
+    Connection c = new Connection(4096, 4096);
+    byte[] first = c.roundTrip(REQUEST, false);
+    // The decoder's acknowledgment has not arrived: no references to the dynamic table.
+    byte[] second = c.roundTrip(REQUEST, true);
+    assertEquals(0, second[0]);
+    assertEquals(first.length, second.length);
+
+    byte[] third = c.roundTrip(REQUEST, true);
+    assertTrue(third[0] != 0);
+    assertTrue(third.length < first.length / 2, third.length + " vs " + first.length);
+  }
+
+  @Test
+  void evictionKeepsSectionsDecodable() {
+    // Room for about two of the custom fields
+    Connection c = new Connection(100, 100);
+    for (int i = 0; i < 200; i++) {
+      List<Map.Entry<String, String>> fields =
+          List.of(Map.entry(":method", "GET"), Map.entry("x-id", "value-" + (i % 5)));
+      c.roundTrip(fields, i % 3 != 0);
+    }
+  }
+
+  @Test
+  void insertCountWrapsAround() {
+    // MaxEntries = 64 / 32 = 2, the encoded insert count wraps every 4 insertions.
+    Connection small = new Connection(64, 64);
+    // The peer allows more than the encoder uses: MaxEntries comes from the peer's setting.
+    Connection larger = new Connection(64, 4096);
+    for (int i = 0; i < 100; i++) {
+      List<Map.Entry<String, String>> fields = List.of(Map.entry("x", Integer.toString(i % 7)));
+      small.roundTrip(fields, true);
+      small.roundTrip(fields, true);
+      larger.roundTrip(fields, true);
+      larger.roundTrip(fields, true);
+    }
+  }
+
+  @Test
+  void rejectsCapacityAbovePeerMaximum() {
+    assertThrows(IllegalArgumentException.class, () -> new QpackEncoder(4096, 1024));
+  }
+
+  @Test
+  void rejectsNonLatin1Fields() {
+    QpackEncoder encoder = new QpackEncoder(4096, 4096);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> encoder.encode(0, List.of(Map.entry("x-name", "€")), out));
+    assertEquals(0, out.size());
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    encoder.writeEncoderStream(stream);
+    // Only the Set Dynamic Table Capacity instruction, nothing was inserted.
+    assertEquals(3, stream.size());
+  }
+}
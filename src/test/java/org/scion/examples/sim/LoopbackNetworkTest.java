@@ -0,0 +1,75 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.sim;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.scion.jpan.Path;
+import org.scion.jpan.ScionDatagramSocket;
+
+class LoopbackNetworkTest {
+
+  private static final int PORT = 32103;
+
+  @BeforeAll
+  static void beforeAll() {
+    ServerProcess.useClientAs();
+  }
+
+  @Test
+  void echo() throws Exception {
+    LinkEmulator.Config link = new LinkEmulator.Config().latency(Duration.ofMillis(20));
+    try (LoopbackNetwork network = new LoopbackNetwork(List.of(link));
+        ServerProcess server = ServerProcess.start(UdpEchoServer.class, "" + PORT);
+        ScionDatagramSocket socket = new ScionDatagramSocket()) {
+      socket.setSoTimeout(1000);
+      InetSocketAddress destination = new InetSocketAddress(LoopbackNetwork.SERVER_HOST, PORT);
+      List<Path> paths = ServerProcess.getServerPaths(destination);
+      assertEquals(1, paths.size());
+
+      byte[] data = "Hello scion".getBytes(StandardCharsets.UTF_8);
+      DatagramPacket reply = new DatagramPacket(new byte[100], 100);
+      long start = System.nanoTime();
+      socket.send(new DatagramPacket(data, data.length, destination), paths.get(0));
+      socket.receive(reply);
+      long rttMs = (System.nanoTime() - start) / 1_000_000;
+
+      assertArrayEquals(data, Arrays.copyOf(reply.getData(), reply.getLength()));
+      // 2 * 20ms one-way latency
+      assertTrue(rttMs >= 40, "rtt=" + rttMs);
+
+      // No echo while the link is down
+      link.up(false);
+      socket.send(new DatagramPacket(data, data.length, destination), paths.get(0));
+      assertThrows(SocketTimeoutException.class, () -> socket.receive(reply));
+      link.up(true);
+      socket.send(new DatagramPacket(data, data.length, destination), paths.get(0));
+      socket.receive(reply);
+      assertEquals(data.length, reply.getLength());
+    }
+  }
+}
@@ -0,0 +1,125 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.sim;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.scion.jpan.Constants;
+import org.scion.jpan.Path;
+import org.scion.jpan.Scion;
+import org.scion.jpan.ScionUtil;
+
+/**
+ * Runs a server in the server AS of a {@link LoopbackNetwork}. Each process has one local AS, so
+ * the server runs in a child JVM with the same class path, while the test runs in the client AS.
+ */
+public class ServerProcess implements AutoCloseable {
+
+  private final Process process;
+
+  private ServerProcess(Process process) {
+    this.process = process;
+  }
+
+  /** Use the client AS in this JVM. Must be called before the SCION service is used. */
+  public static void useClientAs() {
+    InetSocketAddress daemon = LoopbackNetwork.CLIENT_DAEMON;
+    System.setProperty(
+        Constants.PROPERTY_DAEMON, daemon.getAddress().getHostAddress() + ":" + daemon.getPort());
+  }
+
+  /** Paths from the client AS to the server host, without a hosts file lookup. */
+  public static List<Path> getServerPaths(InetSocketAddress destination) throws IOException {
+    long serverIsdAs = ScionUtil.parseIA(LoopbackNetwork.SERVER_IA);
+    return Scion.defaultService().getPaths(serverIsdAs, destination);
+  }
+
+  /**
+   * Start the main class in the server AS and wait until it has written its first line.
+   *
+   * @param mainClass class with a main method
+   * @param args arguments of the main method
+   */
+  public static ServerProcess start(Class<?> mainClass, String... args) throws IOException {
+    InetSocketAddress daemon = LoopbackNetwork.SERVER_DAEMON;
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(
+        "-D"
+            + Constants.PROPERTY_DAEMON
+            + "="
+            + daemon.getAddress().getHostAddress()
+            + ":"
+            + daemon.getPort());
+    command.add(mainClass.getName());
+    command.addAll(List.of(args));
+    Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+
+    CompletableFuture<String> started = new CompletableFuture<>();
+    Thread output =
+        new Thread(
+            () -> {
+              try (BufferedReader in =
+                  new BufferedReader(
+                      new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                  started.complete(line);
+                  System.out.println("[server] " + line);
+                }
+              } catch (IOException e) {
+                // process ended
+              }
+              started.complete(null);
+            },
+            "server-output");
+    output.setDaemon(true);
+    output.start();
+
+    ServerProcess server = new ServerProcess(process);
+    try {
+      if (started.get(30, TimeUnit.SECONDS) == null) {
+        throw new IOException("Server exited with " + process.waitFor());
+      }
+    } catch (Exception e) {
+      server.close();
+      throw e instanceof IOException ? (IOException) e : new IOException(e);
+    }
+    return server;
+  }
+
+  @Override
+  public void close() {
+    process.destroy();
+    try {
+      if (!process.waitFor(5, TimeUnit.SECONDS)) {
+        process.destroyForcibly();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      process.destroyForcibly();
+    }
+  }
+}
@@ -0,0 +1,45 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.examples.sim;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import org.scion.jpan.ScionDatagramSocket;
+
+/**
+ * A SCION UDP echo server for {@link ServerProcess}. Packets that start with 0 are not answered,
+ * like QUIC packets that only contain ACKs. Replies go back on the path of the request.
+ *
+ * <p>Arguments: port
+ */
+public class UdpEchoServer {
+
+  public static final byte NO_REPLY = 0;
+
+  public static void main(String[] args) throws IOException {
+    int port = Integer.parseInt(args[0]);
+    try (ScionDatagramSocket socket = new ScionDatagramSocket(port)) {
+      System.out.println("Echo server on port " + port);
+      DatagramPacket packet = new DatagramPacket(new byte[2048], 2048);
+      while (true) {
+        packet.setLength(packet.getData().length);
+        socket.receive(packet);
+        if (packet.getLength() > 0 && packet.getData()[0] != NO_REPLY) {
+          socket.send(packet);
+        }
+      }
+    }
+  }
+}